@@ -0,0 +1,213 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compression.java
+ *
+ * <p>Negotiates content codings with clients and compresses response bodies using pooled {@link
+ * Deflater}s, which are expensive to create.
+ *
+ * @author Nathan Corbyn
+ */
+final class Compression {
+  /** Bodies smaller than this many bytes are not worth compressing. */
+  static final int MIN_SIZE = 1024;
+
+  private static final int LEVEL = Deflater.DEFAULT_COMPRESSION;
+  private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+  // Raw deflaters for gzip, which we frame ourselves, and zlib wrapped deflaters for deflate
+  private static final BlockingQueue<Deflater> rawDeflaters = new ArrayBlockingQueue<>(POOL_SIZE),
+      zlibDeflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+  // Magic number, CM = deflate, no flags, no modification time, no extra flags, unknown OS
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  /** The content codings we support, in order of preference. */
+  enum Encoding {
+    GZIP("gzip"),
+    DEFLATE("deflate"),
+    IDENTITY("identity");
+
+    private final String name;
+
+    Encoding(String name) {
+      this.name = name;
+    }
+
+    /** @return the name of the coding, as used in Accept-Encoding and Content-Encoding */
+    String getName() {
+      return name;
+    }
+  }
+
+  private Compression() {}
+
+  /**
+   * Choose the coding to use for a response from the value of a request's Accept-Encoding header.
+   *
+   * @param acceptEncoding the value of the header, which may be null
+   * @return the most preferred coding acceptable to the client
+   */
+  static Encoding negotiate(String acceptEncoding) {
+    if (acceptEncoding == null) return Encoding.IDENTITY;
+    double gzip = -1, deflate = -1, any = -1;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase();
+      double quality = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            quality = Double.parseDouble(parameter.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      if (name.equals("gzip") || name.equals("x-gzip")) gzip = quality;
+      else if (name.equals("deflate")) deflate = quality;
+      else if (name.equals("*")) any = quality;
+    }
+    // Codings not named explicitly take the quality of the wildcard, if there is one
+    if (gzip < 0) gzip = any;
+    if (deflate < 0) deflate = any;
+    if (gzip > 0 && gzip >= deflate) return Encoding.GZIP;
+    if (deflate > 0) return Encoding.DEFLATE;
+    return Encoding.IDENTITY;
+  }
+
+  /**
+   * @param data the data to compress
+   * @param encoding the coding to compress with
+   * @return the compressed data, or the data itself for the identity coding
+   */
+  static byte[] compress(byte[] data, Encoding encoding) {
+    if (encoding == Encoding.IDENTITY) return data;
+    ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 4 + 32);
+    try (OutputStream compressed = wrap(output, encoding)) {
+      compressed.write(data);
+    } catch (IOException e) {
+      // Writing to a byte array never fails
+      throw new UncheckedIOException(e);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Wrap a stream so that everything written to it is compressed. Closing the returned stream
+   * finishes the compressed data and closes the wrapped stream.
+   *
+   * @param output the stream to write the compressed data to
+   * @param encoding the coding to compress with
+   * @return the stream to write uncompressed data to, or the given stream for the identity coding
+   * @throws IOException if the header could not be written
+   */
+  static OutputStream wrap(OutputStream output, Encoding encoding) throws IOException {
+    if (encoding == Encoding.IDENTITY) return output;
+    return new PooledDeflaterOutputStream(output, encoding == Encoding.GZIP);
+  }
+
+  /**
+   * Release a stream returned by {@link #wrap} without finishing the compressed data or closing the
+   * wrapped stream, for when the response being written has failed. Does nothing if the stream has
+   * already been closed, or for the identity coding.
+   *
+   * @param output the stream to release
+   */
+  static void discard(OutputStream output) {
+    if (output instanceof PooledDeflaterOutputStream)
+      ((PooledDeflaterOutputStream) output).discard();
+  }
+
+  /**
+   * @param type the MIME type of a body
+   * @return true if bodies of the type are worth compressing, false if they are already compressed
+   */
+  static boolean isCompressible(String type) {
+    if (type == null) return false;
+    type = type.toLowerCase();
+    return type.startsWith("text/")
+        || type.startsWith("application/json")
+        || type.endsWith("+json")
+        || type.endsWith("xml");
+  }
+
+  private static void writeIntLE(OutputStream output, int value) throws IOException {
+    for (int i = 0; i < 4; i++) output.write(value >>> (8 * i));
+  }
+
+  // Compresses with a deflater borrowed from the pools, returning it when closed. For gzip, the
+  // header and trailer around the raw deflate data are written here
+  private static class PooledDeflaterOutputStream extends DeflaterOutputStream {
+    private final BlockingQueue<Deflater> pool;
+    private final CRC32 crc;
+    private boolean closed;
+
+    PooledDeflaterOutputStream(OutputStream output, boolean gzip) throws IOException {
+      super(output, borrow(gzip), 8192);
+      pool = gzip ? rawDeflaters : zlibDeflaters;
+      crc = gzip ? new CRC32() : null;
+      if (gzip) output.write(GZIP_HEADER);
+    }
+
+    private static Deflater borrow(boolean gzip) {
+      Deflater deflater = (gzip ? rawDeflaters : zlibDeflaters).poll();
+      return deflater == null ? new Deflater(LEVEL, gzip) : deflater;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      super.write(b, off, len);
+      if (crc != null) crc.update(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      try {
+        finish();
+        if (crc != null) {
+          writeIntLE(out, (int) crc.getValue());
+          writeIntLE(out, (int) def.getBytesRead());
+        }
+        out.close();
+      } finally {
+        release();
+      }
+    }
+
+    void discard() {
+      if (closed) return;
+      closed = true;
+      release();
+    }
+
+    private void release() {
+      def.reset();
+      // Free the native memory of any deflater the pool has no room for
+      if (!pool.offer(def)) def.end();
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import com.mchange.v2.c3p0.PooledDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import java.beans.PropertyVetoException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * ConnectionPools.java
+ *
+ * <p>Creates pools of database connections, of the implementation and size given in the database
+ * properties:
+ *
+ * <ul>
+ *   <li>{@code pool} - {@code c3p0} (the default) or {@code hikari}
+ *   <li>{@code pool_min_size} - the number of connections kept open when idle (default 3)
+ *   <li>{@code pool_max_size} - the maximum number of connections (default 15)
+ *   <li>{@code pool_checkout_timeout_ms} - how long to wait for a connection before failing
+ *       (default 30000)
+ *   <li>{@code pool_idle_timeout_s} - how long connections beyond the minimum may sit idle before
+ *       they are closed (default 600)
+ *   <li>{@code pool_max_lifetime_s} - the age at which connections are replaced (default 1800)
+ *   <li>{@code pool_test_period_s} - how often idle connections are tested, c3p0 only (default
+ *       100)
+ *   <li>{@code pool_login_timeout_s} - how long to wait for the database to accept a new
+ *       connection, c3p0 only (default 10). Hikari derives it from the checkout timeout.
+ *   <li>{@code statement_cache_size} - the number of prepared statements cached per connection,
+ *       c3p0 only (default 100). Hikari leaves statement caching to the driver, which the default
+ *       MySQL url options enable.
+ * </ul>
+ *
+ * @author Nathan Corbyn
+ */
+final class ConnectionPools {
+  private ConnectionPools() {}
+
+  /**
+   * @param properties the database properties
+   * @param url the JDBC url of the database
+   * @return a pool of connections to the database
+   * @throws IllegalArgumentException if a property is malformed or names an unknown pool
+   * @throws PropertyVetoException if c3p0 rejected the driver
+   * @throws SQLException if the pool could not be configured
+   */
+  static DataSource create(Properties properties, String url)
+      throws PropertyVetoException, SQLException {
+    String pool = properties.getProperty("pool", "c3p0");
+    switch (pool) {
+      case "c3p0":
+        return c3p0(properties, url);
+      case "hikari":
+        return hikari(properties, url);
+      default:
+        throw new IllegalArgumentException("Unknown connection pool " + pool);
+    }
+  }
+
+  /**
+   * Bound the number of connections that may be checked out of a pool with a semaphore, so that
+   * virtual threads queue for connections on the semaphore rather than inside the pool, where c3p0
+   * would block their carrier threads. The bound is the {@code pool_max_size}, and threads give up
+   * waiting after the {@code pool_checkout_timeout_ms}.
+   *
+   * @param properties the database properties the pool was created with
+   * @param source the pool
+   * @return the bounded pool
+   */
+  static DataSource bounded(Properties properties, DataSource source) {
+    return new BoundedDataSource(
+        source,
+        get(properties, "pool_max_size", 15),
+        get(properties, "pool_checkout_timeout_ms", 30000));
+  }
+
+  /**
+   * Close every connection of a pool created by {@link #create(Properties, String)}.
+   *
+   * @param source the pool
+   * @throws SQLException if the pool could not be closed
+   */
+  static void close(DataSource source) throws SQLException {
+    if (source instanceof BoundedDataSource) source = ((BoundedDataSource) source).source;
+    if (source instanceof PooledDataSource) {
+      ((PooledDataSource) source).close();
+    } else if (source instanceof Closeable) {
+      try {
+        ((Closeable) source).close();
+      } catch (IOException e) {
+        throw new SQLException(e);
+      }
+    }
+  }
+
+  private static DataSource c3p0(Properties properties, String url)
+      throws PropertyVetoException, SQLException {
+    ComboPooledDataSource source = new ComboPooledDataSource();
+    source.setJdbcUrl(url);
+    source.setUser(properties.getProperty("user"));
+    source.setPassword(properties.getProperty("pass"));
+    source.setDriverClass(properties.getProperty("driver"));
+    int min = get(properties, "pool_min_size", 3);
+    source.setMinPoolSize(min);
+    source.setInitialPoolSize(min);
+    source.setMaxPoolSize(get(properties, "pool_max_size", 15));
+    source.setCheckoutTimeout(get(properties, "pool_checkout_timeout_ms", 30000));
+    source.setMaxIdleTimeExcessConnections(get(properties, "pool_idle_timeout_s", 600));
+    source.setMaxConnectionAge(get(properties, "pool_max_lifetime_s", 1800));
+    source.setIdleConnectionTestPeriod(get(properties, "pool_test_period_s", 100));
+    source.setLoginTimeout(get(properties, "pool_login_timeout_s", 10));
+    // Keep the statements from the data package's registry prepared on each pooled connection
+    source.setMaxStatementsPerConnection(get(properties, "statement_cache_size", 100));
+    return source;
+  }
+
+  private static DataSource hikari(Properties properties, String url) {
+    HikariDataSource source = new HikariDataSource();
+    source.setJdbcUrl(url);
+    source.setUsername(properties.getProperty("user"));
+    source.setPassword(properties.getProperty("pass"));
+    source.setDriverClassName(properties.getProperty("driver"));
+    source.setMinimumIdle(get(properties, "pool_min_size", 3));
+    source.setMaximumPoolSize(get(properties, "pool_max_size", 15));
+    source.setConnectionTimeout(get(properties, "pool_checkout_timeout_ms", 30000));
+    source.setIdleTimeout(TimeUnit.SECONDS.toMillis(get(properties, "pool_idle_timeout_s", 600)));
+    source.setMaxLifetime(TimeUnit.SECONDS.toMillis(get(properties, "pool_max_lifetime_s", 1800)));
+    return source;
+  }
+
+  private static class BoundedDataSource implements DataSource {
+    private final DataSource source;
+    private final Semaphore permits;
+    private final long timeout;
+
+    private BoundedDataSource(DataSource source, int permits, long timeout) {
+      this.source = source;
+      this.permits = new Semaphore(permits, true);
+      this.timeout = timeout;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      try {
+        if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+          throw new SQLException("Timed out waiting for a connection");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException(e);
+      }
+      Connection conc;
+      try {
+        conc = source.getConnection();
+      } catch (SQLException | RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+      // Return the permit when the connection is first closed
+      AtomicBoolean closed = new AtomicBoolean();
+      return (Connection)
+          Proxy.newProxyInstance(
+              Connection.class.getClassLoader(),
+              new Class<?>[] {Connection.class},
+              (proxy, method, args) -> {
+                if (method.getName().equals("close") && closed.compareAndSet(false, true)) {
+                  try {
+                    return method.invoke(conc, args);
+                  } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                  } finally {
+                    permits.release();
+                  }
+                }
+                try {
+                  return method.invoke(conc, args);
+                } catch (InvocationTargetException e) {
+                  throw e.getCause();
+                }
+              });
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+      throw new SQLFeatureNotSupportedException("Bounded pools use the configured credentials");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+      return source.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+      source.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+      source.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+      return source.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      return source.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> type) throws SQLException {
+      return type.isInstance(source) ? type.cast(source) : source.unwrap(type);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> type) throws SQLException {
+      return type.isInstance(source) || source.isWrapperFor(type);
+    }
+  }
+
+  private static int get(Properties properties, String key, int defaultValue) {
+    String value = properties.getProperty(key);
+    if (value == null) return defaultValue;
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Property " + key + " must be an integer", e);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import spark.Request;
+import spark.Response;
+
+/**
+ * HttpCaching.java
+ *
+ * <p>Utilities for answering conditional GET requests (RFC 7232) from data versions, without
+ * rendering the response.
+ *
+ * @author Nathan Corbyn
+ */
+final class HttpCaching {
+  private HttpCaching() {}
+
+  /**
+   * @param version the version of the data
+   * @param lastModified the time the data was last modified, which distinguishes versions across
+   *     restarts
+   * @return a weak entity tag for the data, as it is shared by every content coding of the data,
+   *     which aren't byte-for-byte identical
+   */
+  static String etag(long version, Instant lastModified) {
+    return "W/\""
+        + Long.toHexString(version)
+        + "-"
+        + Long.toHexString(lastModified.toEpochMilli())
+        + "\"";
+  }
+
+  /**
+   * Set the validators for a response and check them against the request's preconditions. If the
+   * client's copy is current, the response status is set to 304 and the caller should send an
+   * empty body.
+   *
+   * @param request the request to check
+   * @param response the response to set the validators on
+   * @param etag the entity tag of the current data
+   * @param lastModified the time the current data was last modified
+   * @return true if the client's copy is current, false otherwise
+   */
+  static boolean notModified(
+      Request request, Response response, String etag, Instant lastModified) {
+    response.header("ETag", etag);
+    response.header("Last-Modified", format(lastModified));
+    // Clients may keep responses, but must revalidate them before each use
+    response.header("Cache-Control", "no-cache");
+    // The response may be compressed, so caches must key it by the codings the client accepts
+    response.header("Vary", "Accept-Encoding");
+    boolean notModified;
+    // If-None-Match takes precedence over If-Modified-Since when both are present
+    String ifNoneMatch = request.headers("If-None-Match");
+    if (ifNoneMatch != null) notModified = matches(ifNoneMatch, etag);
+    else {
+      Instant ifModifiedSince = parse(request.headers("If-Modified-Since"));
+      notModified =
+          ifModifiedSince != null
+              && !lastModified.truncatedTo(ChronoUnit.SECONDS).isAfter(ifModifiedSince);
+    }
+    if (notModified) response.status(304);
+    return notModified;
+  }
+
+  // Weak comparison, as required for If-None-Match
+  private static boolean matches(String ifNoneMatch, String etag) {
+    etag = opaque(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*")) return true;
+      if (opaque(candidate).equals(etag)) return true;
+    }
+    return false;
+  }
+
+  // The quoted part of an entity tag, without any weakness indicator
+  private static String opaque(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  private static String format(Instant instant) {
+    return DateTimeFormatter.RFC_1123_DATE_TIME.format(instant.atZone(ZoneOffset.UTC));
+  }
+
+  // Returns null for missing or malformed dates, which must be ignored
+  private static Instant parse(String date) {
+    if (date == null) return null;
+    try {
+      return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+}
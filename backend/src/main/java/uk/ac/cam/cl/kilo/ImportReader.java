@@ -0,0 +1,173 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import uk.ac.cam.cl.kilo.data.Importer;
+
+/**
+ * ImportReader.java
+ *
+ * <p>Streams the rows of an uploaded import, given either as CSV with a header row (RFC 4180) or
+ * as a JSON array of objects. Rows are parsed one at a time, so the upload is never held in memory
+ * as a whole.
+ *
+ * @author Nathan Corbyn
+ */
+abstract class ImportReader implements Importer.Rows, Closeable {
+  /**
+   * @param format the format of the upload, either a name or a media type mentioning 'csv' or
+   *     'json'
+   * @param input the upload, encoded in UTF-8
+   * @return a reader of the rows of the upload
+   * @throws IllegalArgumentException if the format is neither CSV nor JSON
+   */
+  static ImportReader open(String format, InputStream input) {
+    Reader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    String type = format.toLowerCase();
+    if (type.contains("csv")) return new Csv(reader);
+    if (type.contains("json")) return new Json(reader);
+    throw new IllegalArgumentException("Imports must be CSV or JSON");
+  }
+
+  private static final class Csv extends ImportReader {
+    private final PushbackReader reader;
+    private List<String> header;
+
+    private Csv(Reader reader) {
+      this.reader = new PushbackReader(reader);
+    }
+
+    @Override
+    public Map<String, String> next() throws IOException {
+      if (header == null) {
+        header = record();
+        if (header == null) return null;
+        // Spreadsheets often start UTF-8 files with a byte order mark
+        String first = header.get(0);
+        if (first.startsWith("\uFEFF")) header.set(0, first.substring(1));
+      }
+      List<String> record;
+      do {
+        record = record();
+        if (record == null) return null;
+        // Skip blank lines
+      } while (record.size() == 1 && record.get(0).isEmpty());
+      Map<String, String> row = new HashMap<>();
+      for (int i = 0; i < record.size() && i < header.size(); i++)
+        row.put(header.get(i).trim(), record.get(i));
+      return row;
+    }
+
+    // Reads the fields of one record, or returns null at the end of the input
+    private List<String> record() throws IOException {
+      int c = reader.read();
+      if (c == -1) return null;
+      List<String> fields = new ArrayList<>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      while (true) {
+        if (quoted) {
+          if (c == -1) throw new IOException("Unterminated quoted field");
+          if (c == '"') {
+            // A doubled quote stands for itself, and any other ends the quoted section
+            int next = reader.read();
+            if (next == '"') field.append('"');
+            else {
+              quoted = false;
+              c = next;
+              continue;
+            }
+          } else field.append((char) c);
+        } else if (c == '"' && field.length() == 0) {
+          quoted = true;
+        } else if (c == ',') {
+          fields.add(field.toString());
+          field.setLength(0);
+        } else if (c == '\r' || c == '\n' || c == -1) {
+          if (c == '\r') {
+            int next = reader.read();
+            if (next != '\n' && next != -1) reader.unread(next);
+          }
+          fields.add(field.toString());
+          return fields;
+        } else {
+          field.append((char) c);
+        }
+        c = reader.read();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  private static final class Json extends ImportReader {
+    private final JsonReader reader;
+    private boolean started, finished;
+
+    private Json(Reader reader) {
+      this.reader = new JsonReader(reader);
+    }
+
+    @Override
+    public Map<String, String> next() throws IOException {
+      if (finished) return null;
+      try {
+        if (!started) {
+          reader.beginArray();
+          started = true;
+        }
+        if (!reader.hasNext()) {
+          reader.endArray();
+          finished = true;
+          return null;
+        }
+        Map<String, String> row = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          JsonToken token = reader.peek();
+          if (token == JsonToken.NULL) reader.nextNull();
+          else if (token == JsonToken.BOOLEAN) row.put(name, String.valueOf(reader.nextBoolean()));
+          else row.put(name, reader.nextString());
+        }
+        reader.endObject();
+        return row;
+      } catch (IllegalStateException e) {
+        // Thrown by the reader when the input is well formed but not an array of flat objects
+        throw new IOException(e.getMessage(), e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * ResponseCache.java
+ *
+ * <p>Holds the rendered UTF-8 bodies of responses, keyed by route and the version of the data they
+ * were rendered from. A request for a newer version renders and replaces the cached body, so
+ * writes to the underlying data invalidate it without any explicit eviction. Compressed bodies are
+ * kept alongside, so each is only compressed once per version.
+ *
+ * @author Nathan Corbyn
+ */
+class ResponseCache {
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+  /**
+   * Get the rendered response for the given route and data version, rendering it if it is not
+   * cached.
+   *
+   * @param route the route the response is for
+   * @param version the version of the data the response should be rendered from
+   * @param renderer renders the response from the data at the given version
+   * @return the cached response
+   */
+  Entry get(String route, long version, Supplier<String> renderer) {
+    Entry entry = entries.get(route);
+    if (entry != null && entry.getVersion() == version) {
+      hits.increment();
+      return entry;
+    }
+    misses.increment();
+    Entry rendered = new Entry(version, renderer.get().getBytes(StandardCharsets.UTF_8));
+    // Never let a slow render of an old version replace a newer one
+    entries.merge(
+        route,
+        rendered,
+        (cached, fresh) -> fresh.getVersion() > cached.getVersion() ? fresh : cached);
+    return rendered;
+  }
+
+  /** @return the number of responses served from the cache */
+  long getHits() {
+    return hits.sum();
+  }
+
+  /** @return the number of responses that had to be rendered */
+  long getMisses() {
+    return misses.sum();
+  }
+
+  /** A rendered response. */
+  static class Entry {
+    private final long version;
+    private final byte[] body;
+    private final Map<Compression.Encoding, byte[]> encoded =
+        new EnumMap<>(Compression.Encoding.class);
+
+    private Entry(long version, byte[] body) {
+      this.version = version;
+      this.body = body;
+    }
+
+    /** @return the version of the data the response was rendered from */
+    long getVersion() {
+      return version;
+    }
+
+    /** @return the UTF-8 encoded response body, which must not be modified */
+    byte[] getBody() {
+      return body;
+    }
+
+    /**
+     * @param encoding the coding to get the body in
+     * @return the body compressed with the given coding, which must not be modified
+     */
+    synchronized byte[] getBody(Compression.Encoding encoding) {
+      if (encoding == Compression.Encoding.IDENTITY) return body;
+      return encoded.computeIfAbsent(encoding, e -> Compression.compress(body, e));
+    }
+  }
+}
@@ -21,41 +21,70 @@ import org.json.simple.parser.JSONParser;
 import com.github.kevinsawicki.http.HttpRequest;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
-import com.mchange.v2.c3p0.ComboPooledDataSource;
+import com.google.gson.stream.JsonWriter;
 import java.beans.PropertyVetoException;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+import javax.sql.DataSource;
+import org.eclipse.jetty.io.EndPoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
+import spark.Response;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 import uk.ac.cam.cl.kilo.data.Achievement;
+import uk.ac.cam.cl.kilo.data.AsyncDatabase;
+import uk.ac.cam.cl.kilo.data.Backup;
+import uk.ac.cam.cl.kilo.data.Catalog;
 import uk.ac.cam.cl.kilo.data.ConferenceMap;
-import uk.ac.cam.cl.kilo.data.ContentGroup;
 import uk.ac.cam.cl.kilo.data.Database;
 import uk.ac.cam.cl.kilo.data.DatabaseException;
+import uk.ac.cam.cl.kilo.data.EntityConsumer;
 import uk.ac.cam.cl.kilo.data.Event;
+import uk.ac.cam.cl.kilo.data.EventIndex;
+import uk.ac.cam.cl.kilo.data.Importer;
+import uk.ac.cam.cl.kilo.data.Leaderboard;
 import uk.ac.cam.cl.kilo.data.MapMarker;
+import uk.ac.cam.cl.kilo.data.Migrations;
+import uk.ac.cam.cl.kilo.data.Page;
+import uk.ac.cam.cl.kilo.data.Repositories;
 import uk.ac.cam.cl.kilo.data.Session;
 import uk.ac.cam.cl.kilo.data.UsageStatistic;
 import uk.ac.cam.cl.kilo.data.User;
@@ -68,13 +97,33 @@ import uk.ac.cam.cl.kilo.data.User;
 public class Server {
   // Initialises the server log
   private static Logger log = LoggerFactory.getLogger(Server.class);
-  // Configuration file for the database, containing five fields:
+  // Configuration file for the database, which may set `engine` to `memory` to run an embedded
+  // in-memory database, optionally persisted to the file named by `snapshot` every
+  // `snapshot_interval_s` seconds (default 60) and at shutdown. Otherwise it contains five fields:
   //   `driver` - the JDBC driver class
   //   `url` - the url of the database
   //   `database` - the name of the datbase
   //   `user` - the datbase username
   //   `pass` - the database password
+  // and optional fields:
+  //   `url_options` - query string appended to the JDBC URL (defaults to enabling server-side
+  //                   prepared statement caching on MySQL)
+  //   `pool`, `pool_*` and `statement_cache_size` - the connection pool implementation and its
+  //                                                 settings, as described by ConnectionPools
+  //   `write_behind_capacity` - if positive, the number of users' interest and achievement writes
+  //                             queued and applied in groups (defaults to 0, applying each write
+  //                             as it is made)
+  //   `replicas` - comma-separated urls of read replicas of the database, which serve reads of
+  //                events, maps, markers and usage statistics with the same name and credentials
+  //   `async_threads` - the number of threads making queries in parallel for a request (default
+  //                     8), which should not exceed the size of the pool
+  //   `async_queue` - the number of queries that may wait for those threads (default 1000)
   private static String DATABASE_PROPERTIES = "database.properties";
+  // Connector/J options for preparing statements on the server and caching them across close, and
+  // for fetching the rows of streamed queries in batches rather than all at once
+  private static final String MYSQL_URL_OPTIONS =
+      "useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=256&prepStmtCacheSqlLimit=2048"
+          + "&useCursorFetch=true";
   // Configuration file for the Facebook graph API:
   //   `authorisation_url` - the Facebook OAuth dialogue URL
   //   `graph_url` - the URL of the Facebook graph API server
@@ -84,6 +133,15 @@ public class Server {
   // Configuration file for the administrator password hash:
   //   `passhash` - the administrator password hash (SHA-256)
   private static String ADMIN_PROPERTIES = "admin.properties";
+  // Optional configuration file for the server:
+  //   `threads` - `platform` (the default) to handle requests on a fixed pool of threads, or
+  //               `virtual` to handle each request and query on its own virtual thread, which
+  //               needs Java 21 (see the jdk21 build profile)
+  //   `max_requests` - with virtual threads, the number of requests handled at once, beyond which
+  //                    requests are refused (default 10000)
+  //   `max_outbound_requests` - the number of requests to the Facebook graph API made at once
+  //                             (default 64)
+  private static String SERVER_PROPERTIES = "server.properties";
 
   private static String oauthAuthorisationURL,
       facebookGraphURL,
@@ -94,6 +152,28 @@ public class Server {
   private static Map<String, Instant> adminSessions = new HashMap<>();
   private static int requestCount = 0;
   private static final Lock lock = new ReentrantLock(true);
+  private static final ResponseCache catalogResponses = new ResponseCache();
+  // The size of the buffer between streamed responses and the network, in characters
+  private static final int STREAM_BUFFER_SIZE = 8192;
+  // How long a write of a streamed response may block on a client that isn't reading, in
+  // milliseconds, as the database connection the response is read from is held meanwhile
+  private static final long STREAM_WRITE_TIMEOUT = 10000;
+  // The default and maximum number of entities in a page of a paginated listing
+  private static final int DEFAULT_PAGE_SIZE = 100, MAX_PAGE_SIZE = 1000;
+  // The default number of users listed on the leaderboard
+  private static final int DEFAULT_LEADERBOARD_SIZE = 10;
+  // The maximum number of IDs in the body of a batch request
+  private static final int MAX_BATCH_SIZE = 1000;
+  // The url of the embedded in-memory database, which uses MVCC so that readers don't block writers
+  private static final String MEMORY_URL = "jdbc:hsqldb:mem:kilo;hsqldb.tx=mvcc";
+  // The file the in-memory database is persisted to, if any, and how often in seconds
+  private static Path snapshotFile;
+  private static int snapshotInterval;
+  // Makes the independent queries of composed responses in parallel
+  private static AsyncDatabase async;
+  // With virtual threads, concurrency is bounded by permits for the resources requests use
+  private static boolean virtualThreads;
+  private static Semaphore requestPermits, outboundPermits = new Semaphore(64, true);
 
   /** Configures the {@link javax.sql#DataSource} required by the database. */
   public static void configureDatabase() {
@@ -101,16 +181,55 @@ public class Server {
     try (FileInputStream input = new FileInputStream(DATABASE_PROPERTIES)) {
       Properties properties = new Properties();
       properties.load(input);
-      ComboPooledDataSource source = new ComboPooledDataSource();
-      source.setJdbcUrl("jdbc:" + properties.get("url") + "/" + properties.get("database"));
-      source.setUser((String) properties.get("user"));
-      source.setPassword((String) properties.get("pass"));
-      source.setDriverClass((String) properties.get("driver"));
-      source.setIdleConnectionTestPeriod(100);
-      source.setLoginTimeout(10);
-      Database.configure(source);
-      log.info("Data source configured!");
-    } catch (SQLException | PropertyVetoException | IOException e) {
+      String engine = properties.getProperty("engine", "jdbc");
+      DataSource source;
+      List<DataSource> replicas = new ArrayList<>();
+      if (engine.equals("memory")) {
+        properties.setProperty("driver", "org.hsqldb.jdbc.JDBCDriver");
+        properties.setProperty("user", "SA");
+        properties.setProperty("pass", "");
+        source = ConnectionPools.create(properties, MEMORY_URL);
+        String snapshot = properties.getProperty("snapshot");
+        if (snapshot != null) snapshotFile = Paths.get(snapshot).toAbsolutePath();
+        snapshotInterval = Integer.parseInt(properties.getProperty("snapshot_interval_s", "60"));
+      } else if (engine.equals("jdbc")) {
+        source =
+            ConnectionPools.create(properties, jdbcURL(properties, properties.getProperty("url")));
+        for (String url : properties.getProperty("replicas", "").split(",")) {
+          if (!url.trim().isEmpty())
+            replicas.add(ConnectionPools.create(properties, jdbcURL(properties, url.trim())));
+        }
+      } else {
+        throw new IllegalArgumentException("Unknown database engine " + engine);
+      }
+      if (virtualThreads) {
+        source = ConnectionPools.bounded(properties, source);
+        replicas.replaceAll(replica -> ConnectionPools.bounded(properties, replica));
+      }
+      Database.configure(source, replicas);
+      if (!replicas.isEmpty()) log.info("Configured " + replicas.size() + " read replica(s)");
+      int capacity = Integer.parseInt(properties.getProperty("write_behind_capacity", "0"));
+      if (capacity > 0) Database.getInstance().enableWriteBehind(capacity);
+      if (virtualThreads) {
+        async = new AsyncDatabase(VirtualThreads.newExecutor());
+      } else {
+        async =
+            new AsyncDatabase(
+                Integer.parseInt(properties.getProperty("async_threads", "8")),
+                Integer.parseInt(properties.getProperty("async_queue", "1000")));
+      }
+      log.info("Data source configured with " + properties.getProperty("pool", "c3p0") + " pool!");
+      try (Connection conc = source.getConnection()) {
+        List<Integer> applied = Migrations.migrate(conc);
+        log.info("Applied " + applied.size() + " schema migration(s)");
+      }
+      if (snapshotFile != null && Backup.load(snapshotFile))
+        log.info("Loaded snapshot " + snapshotFile);
+    } catch (SQLException
+        | PropertyVetoException
+        | IOException
+        | DatabaseException
+        | IllegalArgumentException e) {
       // We can't start the server if we can't connect to the database so we should just crash
       log.error("Failed to configure database!");
       log.error(e.getMessage());
@@ -118,6 +237,15 @@ public class Server {
     }
   }
 
+  // Builds the JDBC url of the database at the given url
+  private static String jdbcURL(Properties properties, String url) {
+    url = "jdbc:" + url + "/" + properties.getProperty("database");
+    String options =
+        properties.getProperty(
+            "url_options", url.startsWith("jdbc:mysql:") ? MYSQL_URL_OPTIONS : "");
+    return options.isEmpty() ? url : url + "?" + options;
+  }
+
   /** Configures the OAuth 2 parameters. */
   public static void configureOAuth() {
     try (FileInputStream input = new FileInputStream(OAUTH_PROPERTIES)) {
@@ -136,6 +264,36 @@ public class Server {
     }
   }
 
+  /** Configures the threads that handle requests, which must be done before any route is added. */
+  public static void configureServer() {
+    Properties properties = new Properties();
+    try (FileInputStream input = new FileInputStream(SERVER_PROPERTIES)) {
+      properties.load(input);
+    } catch (FileNotFoundException e) {
+      // Every property has a default
+    } catch (IOException e) {
+      log.error("Failed to configure server!");
+      throw new RuntimeException(e);
+    }
+    outboundPermits =
+        new Semaphore(
+            Integer.parseInt(properties.getProperty("max_outbound_requests", "64")), true);
+    String threads = properties.getProperty("threads", "platform");
+    if (threads.equals("virtual")) {
+      if (!VirtualThreads.isSupported())
+        throw new RuntimeException("Virtual threads require Java 21 or later");
+      virtualThreads = true;
+      requestPermits =
+          new Semaphore(Integer.parseInt(properties.getProperty("max_requests", "10000")));
+      EmbeddedServers.add(
+          EmbeddedServers.defaultIdentifier(),
+          new EmbeddedJettyFactory(VirtualThreads.newServerFactory()));
+      log.info("Handling requests on virtual threads");
+    } else if (!threads.equals("platform")) {
+      throw new RuntimeException("Unknown thread mode " + threads);
+    }
+  }
+
   /** Configures admin password hash. */
   public static void configureAdminProperties() {
     try (FileInputStream input = new FileInputStream(ADMIN_PROPERTIES)) {
@@ -174,7 +332,10 @@ public class Server {
       Session session = Session.getByID(sessionToken);
       if (!session.isActivated()) throw new UnauthenticatedException("Session is not active");
       if (session.hasExpired()) throw new UnauthenticatedException("Sesssion has expired");
-      return session.getUser();
+      User user = session.getUser();
+      // So that the user's reads see their own writes
+      Database.getInstance().readAs("user:" + user.getID());
+      return user;
     } catch (DatabaseException e) {
       throw new UnauthenticatedException(e);
     }
@@ -199,6 +360,7 @@ public class Server {
       throw new AdminUnauthenticatedException("Admin session token expired");
     }
     // If we make it to here, we can assume the session token is valid
+    Database.getInstance().readAs("admin:" + token);
   }
 
   /**
@@ -219,6 +381,33 @@ public class Server {
     return tempFile;
   }
 
+  /**
+   * Open the rows of an import, uploaded either as the request body or as the 'file' part of a
+   * form. The format is given by the 'format' query parameter, or else by the content type.
+   *
+   * @param request the request that uploaded the import
+   * @return a reader of the rows of the import
+   * @throws IllegalArgumentException if the format is neither CSV nor JSON
+   */
+  private static ImportReader importRows(Request request) throws IOException, ServletException {
+    Part part = uploadedFile(request);
+    InputStream input = part == null ? request.raw().getInputStream() : part.getInputStream();
+    String type = part == null ? request.contentType() : part.getContentType();
+    String format = request.queryParams("format");
+    if (format == null) format = type == null ? "" : type;
+    return ImportReader.open(format, input);
+  }
+
+  // Utility method for getting the 'file' part of a form, or null if the upload is the request body
+  private static Part uploadedFile(Request request) throws IOException, ServletException {
+    String type = request.contentType();
+    if (type == null || !type.startsWith("multipart/form-data")) return null;
+    request.attribute("org.eclipse.jetty.multipartConfig", new MultipartConfigElement("/temp"));
+    Part part = request.raw().getPart("file");
+    if (part == null) throw new IllegalArgumentException("No file uploaded");
+    return part;
+  }
+
   /** Starts the thread that writes back usage data. */
   public static void startUsageThread() {
     Thread usageThread =
@@ -253,18 +442,156 @@ public class Server {
     usageThread.start();
   }
 
+  /** Starts the thread that periodically repairs denormalised data which has drifted. */
+  public static void startReconciliationThread() {
+    Thread reconciliationThread =
+        new Thread(
+            () -> {
+              while (true) {
+                try {
+                  // Reconcile every ten minutes
+                  Thread.sleep(600000);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  break;
+                }
+                try {
+                  int repaired = Database.getInstance().reconcileAchievementCounts();
+                  if (repaired > 0) log.warn("Repaired " + repaired + " achievement count(s)");
+                } catch (DatabaseException e) {
+                  // Not fatal, we'll try again next time
+                  log.error("Failed to reconcile achievement counts!", e);
+                }
+                try {
+                  Database.getInstance().reconcileInterestCounts();
+                } catch (DatabaseException e) {
+                  log.error("Failed to reconcile interest counts!", e);
+                }
+                try {
+                  int repaired = Database.getInstance().reconcileScores();
+                  if (repaired > 0) log.warn("Repaired " + repaired + " user score(s)");
+                } catch (DatabaseException e) {
+                  log.error("Failed to reconcile user scores!", e);
+                }
+              }
+            });
+    reconciliationThread.setDaemon(true);
+    reconciliationThread.start();
+  }
+
+  /** Starts the thread that applies queued writes, if write-behind is enabled. */
+  public static void startWriteBehindThread() {
+    if (!Database.getInstance().isWritingBehind()) return;
+    Thread writeBehindThread =
+        new Thread(
+            () -> {
+              while (true) {
+                try {
+                  // Group the writes made in each tenth of a second
+                  Thread.sleep(100);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  break;
+                }
+                try {
+                  Database.getInstance().flushWrites();
+                } catch (DatabaseException e) {
+                  // Not fatal, the writes remain queued and we'll try again next time
+                  log.error("Failed to apply queued writes!", e);
+                }
+              }
+            });
+    writeBehindThread.setDaemon(true);
+    writeBehindThread.start();
+  }
+
+  /**
+   * Starts the thread that persists the in-memory database to its snapshot file, if it has one,
+   * and saves a final snapshot at shutdown.
+   */
+  public static void startSnapshotThread() {
+    if (snapshotFile == null) return;
+    Thread snapshotThread =
+        new Thread(
+            () -> {
+              while (true) {
+                try {
+                  Thread.sleep(snapshotInterval * 1000L);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  break;
+                }
+                try {
+                  saveSnapshot();
+                } catch (IOException | DatabaseException e) {
+                  // Not fatal, the previous snapshot is still intact
+                  log.error("Failed to save snapshot!", e);
+                }
+              }
+            });
+    snapshotThread.setDaemon(true);
+    snapshotThread.start();
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  try {
+                    // Queued writes are applied by the snapshot, so aren't lost with memory
+                    saveSnapshot();
+                    log.info("Saved snapshot " + snapshotFile);
+                  } catch (IOException | DatabaseException e) {
+                    log.error("Failed to save snapshot!", e);
+                  }
+                }));
+  }
+
+  // Writes a snapshot of the in-memory database, replacing the last only once it is complete
+  private static synchronized void saveSnapshot() throws IOException, DatabaseException {
+    Backup.save(snapshotFile);
+  }
+
+  /** Loads the initial catalog snapshot, so that the first public reads need not wait for it. */
+  public static void loadCatalog() {
+    log.info("Loading catalog...");
+    try {
+      Database.getInstance().getCatalog();
+      log.info("Catalog loaded!");
+    } catch (DatabaseException e) {
+      // Not fatal, the first read will try again
+      log.error("Failed to load catalog!", e);
+    }
+  }
+
+  /** Loads the leaderboard, so that the first reads of it need not wait for it. */
+  public static void loadLeaderboard() {
+    log.info("Loading leaderboard...");
+    try {
+      Database.getInstance().getLeaderboard();
+      log.info("Leaderboard loaded!");
+    } catch (DatabaseException e) {
+      // Not fatal, the first read will try again
+      log.error("Failed to load leaderboard!", e);
+    }
+  }
+
   /**
    * Entry point.
    *
    * @param args
    */
   public static void main(String[] args) {
+    configureServer();
     configureDatabase();
     configureUploadDirectory();
     configureOAuth();
     configureAdminProperties();
 
     startUsageThread();
+    startReconciliationThread();
+    startWriteBehindThread();
+    startSnapshotThread();
+    loadCatalog();
+    loadLeaderboard();
 
     staticFiles.externalLocation("upload");
 
@@ -274,6 +601,20 @@ public class Server {
     notFound(gson.toJson(err("Not a valid route")).toString());
 
     before((request, response) -> response.type("application/json"));
+    // With virtual threads nothing else limits the requests in progress, so shed the excess
+    if (requestPermits != null) {
+      before(
+          (request, response) -> {
+            if (!requestPermits.tryAcquire()) halt(503, gson.toJson(err("Server is busy")));
+            request.attribute("permit", true);
+          });
+    }
+    afterAfter(
+        (request, response) -> {
+          if (request.attribute("permit") != null) requestPermits.release();
+          // Request threads are pooled, so forget whom each request was for once it is handled
+          Database.getInstance().readAs(null);
+        });
 
     exception(
         DatabaseException.class,
@@ -307,6 +648,24 @@ public class Server {
           // Handle illegal argument exception by sending error
           response.body(gson.toJson(err(exception.getMessage())));
         });
+    // Uploaded images, which are never overwritten, so may be revalidated by their size and age
+    get(
+        "/upload/:file",
+        (request, response) -> {
+          Path dir = uploadDir.toPath().toAbsolutePath();
+          Path file = dir.resolve(request.params(":file")).normalize();
+          if (!file.startsWith(dir) || !Files.isRegularFile(file))
+            halt(404, gson.toJson(err("No such file")));
+          Instant modified = Files.getLastModifiedTime(file).toInstant();
+          String etag = HttpCaching.etag(Files.size(file), modified);
+          if (HttpCaching.notModified(request, response, etag, modified)) return new byte[0];
+          String type = Files.probeContentType(file);
+          response.type(type == null ? "application/octet-stream" : type);
+          // Most uploads are images, which are already compressed
+          if (Compression.isCompressible(type))
+            return send(request, response, Files.readAllBytes(file));
+          return Files.newInputStream(file);
+        });
     // API path
     path(
         "/api",
@@ -315,6 +674,16 @@ public class Server {
           path(
               "/admin",
               () -> {
+                // Publish any changes made by the request before anyone else asks for them
+                after(
+                    "/*",
+                    (request, response) -> {
+                      try {
+                        Database.getInstance().getCatalog();
+                      } catch (DatabaseException e) {
+                        log.error("Failed to rebuild catalog:", e);
+                      }
+                    });
                 get(
                     "/authenticate",
                     (request, response) -> {
@@ -356,6 +725,63 @@ public class Server {
                       return ok(Database.getInstance().getUserCount());
                     },
                     gson::toJson);
+                get(
+                    "/caches",
+                    (request, response) -> {
+                      authenticateAdmin(request);
+                      return ok(Database.getInstance().getCacheStatistics());
+                    },
+                    gson::toJson);
+                get(
+                    "/coalescing",
+                    (request, response) -> {
+                      authenticateAdmin(request);
+                      return ok(Database.getInstance().getCoalescingStatistics());
+                    },
+                    gson::toJson);
+                get(
+                    "/backup",
+                    (request, response) -> {
+                      authenticateAdmin(request);
+                      HttpServletResponse raw = response.raw();
+                      raw.setContentType("application/gzip");
+                      raw.setHeader(
+                          "Content-Disposition",
+                          "attachment; filename=\"backup-"
+                              + Instant.now().getEpochSecond()
+                              + ".json.gz\"");
+                      try {
+                        Backup.export(raw.getOutputStream());
+                      } catch (DatabaseException | IOException | RuntimeException e) {
+                        // If nothing has been sent yet, discard the partial backup so that the
+                        // error is reported
+                        if (!raw.isCommitted()) {
+                          raw.resetBuffer();
+                          raw.setContentType("application/json");
+                          raw.setHeader("Content-Disposition", null);
+                        }
+                        throw e;
+                      }
+                      return "";
+                    });
+                post(
+                    "/restore",
+                    (request, response) -> {
+                      authenticateAdmin(request);
+                      Part part = uploadedFile(request);
+                      try (InputStream input =
+                          part == null
+                              ? request.raw().getInputStream()
+                              : part.getInputStream()) {
+                        Backup.restore(input);
+                      } catch (IOException e) {
+                        throw new IllegalArgumentException(
+                            "Could not restore backup: " + e.getMessage(), e);
+                      }
+                      log.warn("Restored the database from a backup");
+                      return ok(null);
+                    },
+                    gson::toJson);
                 path(
                     "/groups/:group",
                     () -> {
@@ -364,7 +790,7 @@ public class Server {
                           (request, response) -> {
                             authenticateAdmin(request);
                             long id = Long.parseLong(request.params(":group"));
-                            ContentGroup.getByID(id).setEnabled(true);
+                            repositories().groups().getByID(id).setEnabled(true);
                             return ok(null);
                           },
                           gson::toJson);
@@ -373,7 +799,7 @@ public class Server {
                           (request, response) -> {
                             authenticateAdmin(request);
                             long id = Long.parseLong(request.params(":group"));
-                            ContentGroup.getByID(id).setEnabled(false);
+                            repositories().groups().getByID(id).setEnabled(false);
                             return ok(null);
                           },
                           gson::toJson);
@@ -390,12 +816,23 @@ public class Server {
                                     request.params("name"), acceptUploadedImage(request)));
                           },
                           gson::toJson);
+                      post(
+                          "/import",
+                          (request, response) -> {
+                            authenticateAdmin(request);
+                            Function<String, Path> images =
+                                Importer.uploadedImages(uploadDir.toPath());
+                            try (ImportReader rows = importRows(request)) {
+                              return ok(Importer.importMaps(rows, images));
+                            }
+                          },
+                          gson::toJson);
                       get(
                           "/setimage/:map",
                           (request, response) -> {
                             authenticateAdmin(request);
                             long id = Long.parseLong(request.params(":map"));
-                            ConferenceMap map = ConferenceMap.getByID(id);
+                            ConferenceMap map = repositories().maps().getByID(id);
                             map.setImage(acceptUploadedImage(request));
                             return ok(null);
                           },
@@ -406,7 +843,7 @@ public class Server {
                             authenticateAdmin(request);
                             long id = Long.parseLong(request.params(":map"));
                             String name = request.params(":name");
-                            ConferenceMap.getByID(id).setName(name);
+                            repositories().maps().getByID(id).setName(name);
                             return ok(null);
                           },
                           gson::toJson);
@@ -415,7 +852,7 @@ public class Server {
                           (request, response) -> {
                             authenticateAdmin(request);
                             long id = Long.parseLong(request.params(":map"));
-                            ConferenceMap map = ConferenceMap.getByID(id);
+                            ConferenceMap map = repositories().maps().getByID(id);
                             String name = request.params(":name");
                             String desc = request.params(":desc");
                             int x = Integer.parseInt(request.params(":x"));
@@ -429,7 +866,7 @@ public class Server {
                           (request, response) -> {
                             authenticateAdmin(request);
                             long id = Long.parseLong(request.params(":map"));
-                            ConferenceMap.getByID(id).delete();
+                            repositories().maps().getByID(id).delete();
                             return ok(null);
                           },
                           gson::toJson);
@@ -437,6 +874,15 @@ public class Server {
                 path(
                     "/markers",
                     () -> {
+                      post(
+                          "/import",
+                          (request, response) -> {
+                            authenticateAdmin(request);
+                            try (ImportReader rows = importRows(request)) {
+                              return ok(Importer.importMarkers(rows));
+                            }
+                          },
+                          gson::toJson);
                       get(
                           "/update/:marker/:name/:desc/:x/:y",
                           (request, response) -> {
@@ -446,7 +892,7 @@ public class Server {
                             String desc = request.params(":desc");
                             int x = Integer.parseInt(request.params(":x"));
                             int y = Integer.parseInt(request.params(":y"));
-                            MapMarker marker = MapMarker.getByID(id);
+                            MapMarker marker = repositories().markers().getByID(id);
                             marker.set(name, desc, x, y);
                             return ok(null);
                           },
@@ -456,7 +902,7 @@ public class Server {
                           (request, response) -> {
                             authenticateAdmin(request);
                             long id = Long.parseLong(request.params(":marker"));
-                            MapMarker.getByID(id).delete();
+                            repositories().markers().getByID(id).delete();
                             return ok(null);
                           },
                           gson::toJson);
@@ -478,6 +924,15 @@ public class Server {
                             return ok(event);
                           },
                           gson::toJson);
+                      post(
+                          "/import",
+                          (request, response) -> {
+                            authenticateAdmin(request);
+                            try (ImportReader rows = importRows(request)) {
+                              return ok(Importer.importEvents(rows));
+                            }
+                          },
+                          gson::toJson);
                       get(
                           "/update/:event/:name/:desc/:start/:end",
                           (request, response) -> {
@@ -489,7 +944,7 @@ public class Server {
                                 Instant.ofEpochSecond(Long.parseLong(request.params(":start")));
                             Instant end =
                                 Instant.ofEpochSecond(Long.parseLong(request.params(":end")));
-                            Event event = Event.getByID(id);
+                            Event event = repositories().events().getByID(id);
                             event.set(name, desc, start, end);
                             return ok(null);
                           },
@@ -499,17 +954,24 @@ public class Server {
                           (request, response) -> {
                             authenticateAdmin(request);
                             long id = Long.parseLong(request.params(":event"));
-                            Event event = Event.getByID(id);
+                            Event event = repositories().events().getByID(id);
                             event.delete();
                             return ok(null);
                           },
                           gson::toJson);
+                      get(
+                          "/interest",
+                          (request, response) -> {
+                            authenticateAdmin(request);
+                            return ok(Database.getInstance().getInterestCounts());
+                          },
+                          gson::toJson);
                       get(
                           "/interest/:event",
                           (request, response) -> {
                             authenticateAdmin(request);
                             long id = Long.parseLong(request.params(":event"));
-                            Event event = Event.getByID(id);
+                            Event event = repositories().events().getByID(id);
                             return ok(event.getInterestedCount());
                           },
                           gson::toJson);
@@ -530,7 +992,8 @@ public class Server {
                       Type type = new TypeToken<Map<String, Object>>() {}.getType();
                       Map<String, Object> json =
                           gson.fromJson(
-                              HttpRequest.get(
+                              fetch(
+                                  HttpRequest.get(
                                       facebookGraphURL + "oauth/access_token",
                                       true,
                                       "client_id",
@@ -540,9 +1003,7 @@ public class Server {
                                       "code",
                                       code,
                                       "redirect_uri",
-                                      "https://" + request.host() + "/api/oauth/callback")
-                                  .accept("application/json")
-                                  .body(),
+                                      "https://" + request.host() + "/api/oauth/callback")),
                               type);
                       if (json.containsKey("access_token")) {
                         String token = (String) json.get("access_token");
@@ -551,7 +1012,7 @@ public class Server {
                         long facebookID = Long.parseLong((String) json.get("id"));
                         User user;
                         if (!User.existsWithID(facebookID)) user = new User(facebookID, name);
-                        else user = User.getByID(facebookID);
+                        else user = repositories().users().getByID(facebookID);
                         session.activateFor(user, token);
                         return gson.toJson(ok(facebookID));
                       } else throw new UnauthenticatedException("Could not get access token");
@@ -588,28 +1049,109 @@ public class Server {
                     });
                 get(
                     "/maps",
-                    (request, response) -> ok(Database.getInstance().getMaps()),
-                    gson::toJson);
+                    (request, response) -> {
+                      if (isPaginated(request)) {
+                        Page<ConferenceMap> page =
+                            repositories().maps().getPage(cursor(request), pageSize(request));
+                        return gson.toJson(ok(page));
+                      }
+                      return catalogResponse(
+                          request, response, Catalog.Section.MAPS, Catalog::getMaps, gson);
+                    });
                 get(
                     "/markers/:map",
                     (request, response) -> {
                       long id = Long.parseLong(request.params(":map"));
-                      ConferenceMap map = ConferenceMap.getByID(id);
-                      return ok(map.getMarkers());
+                      // The version of the catalog's maps covers markers, so revalidate against it
+                      Catalog catalog = Database.getInstance().getCatalog();
+                      Instant modified = catalog.getLastModified(Catalog.Section.MAPS);
+                      if (HttpCaching.notModified(
+                          request,
+                          response,
+                          HttpCaching.etag(catalog.getVersion(Catalog.Section.MAPS), modified),
+                          modified)) return "";
+                      ConferenceMap map = repositories().maps().getByID(id);
+                      if (isPaginated(request))
+                        return gson.toJson(ok(map.getMarkers(cursor(request), pageSize(request))));
+                      return streamList(
+                          request, response, gson, MapMarker.class, map::streamMarkers);
+                    });
+                get(
+                    "/events",
+                    (request, response) -> {
+                      if (isPaginated(request)) {
+                        Page<Event> page =
+                            repositories().events().getPage(cursor(request), pageSize(request));
+                        return gson.toJson(ok(page));
+                      }
+                      if (request.queryParams("from") != null
+                          || request.queryParams("to") != null) {
+                        Instant from = instant(request, "from", Instant.MIN);
+                        Instant to = instant(request, "to", Instant.MAX);
+                        EventIndex index = Database.getInstance().getCatalog().getEventIndex();
+                        return gson.toJson(ok(index.getEventsBetween(from, to)));
+                      }
+                      return catalogResponse(
+                          request, response, Catalog.Section.EVENTS, Catalog::getEvents, gson);
+                    });
+                get(
+                    "/events/now",
+                    (request, response) -> {
+                      EventIndex index = Database.getInstance().getCatalog().getEventIndex();
+                      return ok(index.getEventsAt(Instant.now()));
                     },
                     gson::toJson);
                 get(
-                    "/events",
-                    (request, response) -> ok(Database.getInstance().getEvents()),
+                    "/events/next",
+                    (request, response) -> {
+                      String limit = request.queryParams("limit");
+                      int count = limit == null ? 1 : Integer.parseInt(limit);
+                      if (count < 1 || count > MAX_PAGE_SIZE)
+                        throw new IllegalArgumentException(
+                            "Limit must be between 1 and " + MAX_PAGE_SIZE);
+                      EventIndex index = Database.getInstance().getCatalog().getEventIndex();
+                      return ok(index.getEventsAfter(Instant.now(), count));
+                    },
                     gson::toJson);
                 get(
-                    "/achievements",
-                    (request, response) -> ok(Database.getInstance().getAchievements()),
+                    "/leaderboard",
+                    (request, response) -> {
+                      String limit = request.queryParams("limit");
+                      int count =
+                          limit == null ? DEFAULT_LEADERBOARD_SIZE : Integer.parseInt(limit);
+                      if (count < 1 || count > MAX_PAGE_SIZE)
+                        throw new IllegalArgumentException(
+                            "Limit must be between 1 and " + MAX_PAGE_SIZE);
+                      return ok(Database.getInstance().getLeaderboard().getStandings(0, count));
+                    },
                     gson::toJson);
                 get(
-                    "/groups",
-                    (request, response) -> ok(Database.getInstance().getContentGroups()),
+                    "/sync",
+                    (request, response) -> {
+                      String since = request.queryParams("since");
+                      // Clients without a version start from nothing, so must fetch everything
+                      long version = since == null ? Long.MIN_VALUE : Long.parseLong(since);
+                      return ok(Database.getInstance().getChangesSince(version));
+                    },
                     gson::toJson);
+                get(
+                    "/achievements",
+                    (request, response) ->
+                        catalogResponse(
+                            request,
+                            response,
+                            Catalog.Section.ACHIEVEMENTS,
+                            Catalog::getAchievements,
+                            gson));
+                get(
+                    "/groups",
+                    (request, response) ->
+                        catalogResponse(
+                            request,
+                            response,
+                            Catalog.Section.GROUPS,
+                            Catalog::getContentGroups,
+                            gson));
                 path(
                     "/user",
                     () -> {
@@ -625,16 +1167,23 @@ public class Server {
                           (request, response) -> {
                             long achievement = Long.parseLong(request.params(":achievement"));
                             User user = authenticatedUserFor(request);
-                            user.achieve(Achievement.getByID(achievement));
+                            user.achieve(repositories().achievements().getByID(achievement));
                             return ok(null);
                           },
                           gson::toJson);
+                      post(
+                          "/achieved",
+                          (request, response) -> {
+                            User user = authenticatedUserFor(request);
+                            return ok(user.achieveAll(batch(request, gson)));
+                          },
+                          gson::toJson);
                       get(
                           "/interested/:event",
                           (request, response) -> {
                             long event = Long.parseLong(request.params(":event"));
                             User user = authenticatedUserFor(request);
-                            user.markInterestIn(Event.getByID(event));
+                            user.markInterestIn(repositories().events().getByID(event));
                             return ok(null);
                           },
                           gson::toJson);
@@ -642,7 +1191,18 @@ public class Server {
                           "/interested",
                           (request, response) -> {
                             User user = authenticatedUserFor(request);
-                            return ok(user.getMarkedEvents());
+                            if (isPaginated(request)) {
+                              return gson.toJson(
+                                  ok(user.getMarkedEvents(cursor(request), pageSize(request))));
+                            }
+                            return streamList(
+                                request, response, gson, Event.class, user::streamMarkedEvents);
+                          });
+                      post(
+                          "/interested",
+                          (request, response) -> {
+                            User user = authenticatedUserFor(request);
+                            return ok(user.markInterestInAll(batch(request, gson)));
                           },
                           gson::toJson);
                       get(
@@ -650,10 +1210,24 @@ public class Server {
                           (request, response) -> {
                             long event = Long.parseLong(request.params(":event"));
                             User user = authenticatedUserFor(request);
-                            user.unmarkInterestIn(Event.getByID(event));
+                            user.unmarkInterestIn(repositories().events().getByID(event));
                             return ok(null);
                           },
                           gson::toJson);
+                      post(
+                          "/uninterested",
+                          (request, response) -> {
+                            User user = authenticatedUserFor(request);
+                            return ok(user.unmarkInterestInAll(batch(request, gson)));
+                          },
+                          gson::toJson);
+                      get(
+                          "/summary",
+                          (request, response) -> {
+                            User user = authenticatedUserFor(request);
+                            return ok(profile(user, true));
+                          },
+                          gson::toJson);
                       get(
                           "/score",
                           (request, response) -> {
@@ -661,6 +1235,22 @@ public class Server {
                             return ok(user.getScore());
                           },
                           gson::toJson);
+                      get(
+                          "/rank",
+                          (request, response) -> {
+                            User user = authenticatedUserFor(request);
+                            // The user's own queued achievements must be reflected in their rank
+                            Database.getInstance().flushWrites(user.getID());
+                            Leaderboard leaderboard = Database.getInstance().getLeaderboard();
+                            String radius = request.queryParams("radius");
+                            if (radius == null) return ok(leaderboard.getStanding(user.getID()));
+                            int count = Integer.parseInt(radius);
+                            if (count < 0 || count > MAX_PAGE_SIZE)
+                              throw new IllegalArgumentException(
+                                  "Radius must be between 0 and " + MAX_PAGE_SIZE);
+                            return ok(leaderboard.getStandingsAround(user.getID(), count));
+                          },
+                          gson::toJson);
                     });
                 path(
                     "/users",
@@ -677,8 +1267,9 @@ public class Server {
                           "/:user/profile",
                           (request, response) -> {
                             authenticatedUserFor(request);
-                            // TODO
-                            return ok(null);
+                            long id = Long.parseLong(request.params(":user"));
+                            User user = repositories().users().getByID(id);
+                            return ok(profile(user, false));
                           },
                           gson::toJson);
                     });
@@ -686,11 +1277,183 @@ public class Server {
         });
   }
 
+  // Utility method for composing a user's profile, making its independent queries in parallel
+  private static Profile profile(User user, boolean own) throws DatabaseException {
+    CompletableFuture<Integer> score = async.supply(user::getScore);
+    CompletableFuture<List<Achievement>> achievements = async.supply(user::getAchievements);
+    CompletableFuture<List<Event>> interested =
+        own ? async.supply(user::getMarkedEvents) : CompletableFuture.completedFuture(null);
+    CompletableFuture<Leaderboard> leaderboard =
+        async.supply(Database.getInstance()::getLeaderboard);
+    AsyncDatabase.await(CompletableFuture.allOf(score, achievements, interested, leaderboard));
+    // The score was read after the user's queued writes were applied, so the rank reflects them
+    Leaderboard.Standing standing = leaderboard.join().getStanding(user.getID());
+    return new Profile(
+        user,
+        score.join(),
+        standing == null ? null : standing.getRank(),
+        achievements.join(),
+        interested.join());
+  }
+
   // Utility method for wrapping OK responses
   private static ServerResponse ok(Object payload) {
     return new ServerResponse(true, null, payload);
   }
 
+  // Utility method for wrapping OK responses with a page of a listing, giving the cursor for the
+  // next page alongside the payload
+  private static ServerResponse ok(Page<?> page) {
+    ServerResponse response = new ServerResponse(true, null, page.getItems());
+    response.next = page.getNext();
+    return response;
+  }
+
+  // Utility method for getting the repositories of the configured storage engine
+  private static Repositories repositories() {
+    return Database.getInstance().getRepositories();
+  }
+
+  // Utility method for checking whether a listing request asks for a single page
+  private static boolean isPaginated(Request request) {
+    return request.queryParams("after") != null || request.queryParams("limit") != null;
+  }
+
+  // Utility method for getting the cursor of a paginated request, which defaults to the start
+  private static long cursor(Request request) {
+    String after = request.queryParams("after");
+    return after == null ? Long.MIN_VALUE : Long.parseLong(after);
+  }
+
+  // Utility method for getting the page size of a paginated request
+  private static int pageSize(Request request) {
+    String limit = request.queryParams("limit");
+    int size = limit == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+    if (size < 1 || size > MAX_PAGE_SIZE)
+      throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+    return size;
+  }
+
+  // Utility method for getting the IDs in the body of a batch request, given as a JSON array
+  private static List<Long> batch(Request request, Gson gson) {
+    Long[] ids;
+    try {
+      ids = gson.fromJson(request.body(), Long[].class);
+    } catch (JsonParseException e) {
+      throw new IllegalArgumentException("Batch must be a JSON array of IDs", e);
+    }
+    if (ids == null || Arrays.asList(ids).contains(null))
+      throw new IllegalArgumentException("Batch must be a JSON array of IDs");
+    if (ids.length > MAX_BATCH_SIZE)
+      throw new IllegalArgumentException("Batch must contain at most " + MAX_BATCH_SIZE + " IDs");
+    return Arrays.asList(ids);
+  }
+
+  // Utility method for getting an instant, given in epoch seconds, from a query parameter
+  private static Instant instant(Request request, String name, Instant missing) {
+    String seconds = request.queryParams(name);
+    return seconds == null ? missing : Instant.ofEpochSecond(Long.parseLong(seconds));
+  }
+
+  // Utility method for responding with the cached rendering of a section of the catalog
+  private static String catalogResponse(
+      Request request,
+      Response response,
+      Catalog.Section section,
+      Function<Catalog, Object> list,
+      Gson gson)
+      throws DatabaseException, IOException {
+    Catalog catalog = Database.getInstance().getCatalog();
+    long version = catalog.getVersion(section);
+    Instant modified = catalog.getLastModified(section);
+    if (HttpCaching.notModified(request, response, HttpCaching.etag(version, modified), modified))
+      return "";
+    ResponseCache.Entry entry =
+        catalogResponses.get(section.name(), version, () -> gson.toJson(ok(list.apply(catalog))));
+    return send(request, response, entry.getBody(), entry::getBody);
+  }
+
+  // Utility method for sending a body, compressed if it is large enough and the client accepts it
+  private static String send(Request request, Response response, byte[] body) throws IOException {
+    return send(request, response, body, encoding -> Compression.compress(body, encoding));
+  }
+
+  // Utility method for sending a body in the coding negotiated with the client, using the given
+  // function to get it in that coding. The body is written to the raw response, committing it, as
+  // Spark would otherwise gzip it a second time
+  private static String send(
+      Request request,
+      Response response,
+      byte[] body,
+      Function<Compression.Encoding, byte[]> encoder)
+      throws IOException {
+    Compression.Encoding encoding =
+        body.length < Compression.MIN_SIZE
+            ? Compression.Encoding.IDENTITY
+            : Compression.negotiate(request.headers("Accept-Encoding"));
+    byte[] encoded = encoder.apply(encoding);
+    HttpServletResponse raw = response.raw();
+    raw.setHeader("Vary", "Accept-Encoding");
+    if (encoding != Compression.Encoding.IDENTITY)
+      raw.setHeader("Content-Encoding", encoding.getName());
+    raw.setContentLength(encoded.length);
+    raw.getOutputStream().write(encoded);
+    raw.flushBuffer();
+    return "";
+  }
+
+  // Utility method for streaming an OK response with a list payload, writing each entity as it is
+  // read from the database so that the list is never held in memory. The output is buffered, and
+  // compressed if the client accepts it. A database connection is held until the last entity is
+  // written, so a client that stops reading fails the response after STREAM_WRITE_TIMEOUT
+  private static <T> String streamList(
+      Request request, Response response, Gson gson, Class<T> type, EntitySource<T> source)
+      throws DatabaseException, IOException {
+    Compression.Encoding encoding = Compression.negotiate(request.headers("Accept-Encoding"));
+    HttpServletResponse raw = response.raw();
+    raw.setHeader("Vary", "Accept-Encoding");
+    if (encoding != Compression.Encoding.IDENTITY)
+      raw.setHeader("Content-Encoding", encoding.getName());
+    // Jetty's idle timeout, which bounds blocked writes, is otherwise an hour
+    org.eclipse.jetty.server.Request base =
+        org.eclipse.jetty.server.Request.getBaseRequest(request.raw());
+    EndPoint endPoint = base == null ? null : base.getHttpChannel().getEndPoint();
+    long idleTimeout = endPoint == null ? 0 : endPoint.getIdleTimeout();
+    if (endPoint != null) endPoint.setIdleTimeout(STREAM_WRITE_TIMEOUT);
+    OutputStream output = Compression.wrap(raw.getOutputStream(), encoding);
+    JsonWriter writer =
+        new JsonWriter(
+            new BufferedWriter(
+                new OutputStreamWriter(output, StandardCharsets.UTF_8), STREAM_BUFFER_SIZE));
+    boolean closed = false;
+    try {
+      // Matches the serialised form of ServerResponse, which omits the null error
+      writer.beginObject().name("status").value("ok").name("payload").beginArray();
+      source.forEach(entity -> gson.toJson(entity, type, writer));
+      writer.endArray().endObject();
+      closed = true;
+      writer.close();
+      return "";
+    } catch (DatabaseException | IOException | RuntimeException e) {
+      // If nothing has been sent yet, discard the partial response so that the error is reported
+      if (!raw.isCommitted()) {
+        raw.resetBuffer();
+        raw.setHeader("Content-Encoding", null);
+      }
+      throw e;
+    } finally {
+      // Finishing the compressed data of a failed response would only corrupt the error, but the
+      // deflater must still be returned to its pool
+      if (!closed) Compression.discard(output);
+      if (endPoint != null) endPoint.setIdleTimeout(idleTimeout);
+    }
+  }
+
+  /** A source of entities to stream. */
+  private interface EntitySource<T> {
+    void forEach(EntityConsumer<T> consumer) throws DatabaseException, IOException;
+  }
+
   // Utility method for wrapping error messages
   private static ServerResponse err(String error) {
     return new ServerResponse(false, error, null);
@@ -702,13 +1465,56 @@ public class Server {
     Type type = new TypeToken<Map<String, Object>>() {}.getType();
     Map<String, Object> json =
         gson.fromJson(
-            HttpRequest.get(facebookGraphURL + url, true, "access_token", token)
-                .accept("application/json")
-                .body(),
-            type);
+            fetch(HttpRequest.get(facebookGraphURL + url, true, "access_token", token)), type);
     return json;
   }
 
+  // Utility method for fetching the body of a request to Facebook, bounding how many are in flight
+  private static String fetch(HttpRequest request) {
+    outboundPermits.acquireUninterruptibly();
+    try {
+      return request.accept("application/json").body();
+    } finally {
+      outboundPermits.release();
+    }
+  }
+
+  // Utility type used for JSON serialisation of user profiles, where the events the user is
+  // interested in are omitted for other users
+  private static class Profile {
+    @SuppressWarnings("unused")
+    private long id;
+
+    @SuppressWarnings("unused")
+    private String name;
+
+    @SuppressWarnings("unused")
+    private int score;
+
+    @SuppressWarnings("unused")
+    private Integer rank;
+
+    @SuppressWarnings("unused")
+    private List<Achievement> achievements;
+
+    @SuppressWarnings("unused")
+    private List<Event> interested;
+
+    public Profile(
+        User user,
+        int score,
+        Integer rank,
+        List<Achievement> achievements,
+        List<Event> interested) {
+      this.id = user.getID();
+      this.name = user.getName();
+      this.score = score;
+      this.rank = rank;
+      this.achievements = achievements;
+      this.interested = interested;
+    }
+  }
+
   // Utility type used for JSON serialisation of server responses wrapped with response status
   // (unused fields are used by the serialiser so no need for warnings)
   private static class ServerResponse {
@@ -721,6 +1527,10 @@ public class Server {
     @SuppressWarnings("unused")
     private Object payload;
 
+    // The cursor for the next page of a paginated listing, omitted for other responses
+    @SuppressWarnings("unused")
+    private Long next;
+
     /**
      * @param ok true if the response is ok, false otherwise
      * @param error the error message for the wrapper
@@ -0,0 +1,138 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+/**
+ * VirtualThreads.java
+ *
+ * <p>Support for running requests and queries on virtual threads, which are cheap enough to give
+ * every task its own. Virtual threads need Java 21, but the default build targets Java 8, so they
+ * are created through the one factory method looked up at runtime.
+ *
+ * @author Nathan Corbyn
+ */
+final class VirtualThreads {
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+  private VirtualThreads() {}
+
+  /** @return true if the running JVM supports virtual threads, false otherwise */
+  static boolean isSupported() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return an executor that runs each task on a new virtual thread
+   * @throws UnsupportedOperationException if the running JVM doesn't support virtual threads
+   */
+  static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+    }
+  }
+
+  /**
+   * Jetty's acceptors and selectors stay on its pool of platform threads, which also runs handlers
+   * on the selecting thread, so they would starve among thousands of virtual threads. Instead each
+   * request is suspended as soon as it's parsed and handled on a virtual thread of its own, and the
+   * number handled at once is bounded by semaphores around the resources they use rather than by
+   * the size of the pool.
+   *
+   * @return a factory for Jetty servers that handle each request on a new virtual thread
+   * @throws UnsupportedOperationException if the running JVM doesn't support virtual threads
+   */
+  static JettyServerFactory newServerFactory() {
+    ExecutorService executor = newExecutor();
+    return new JettyServerFactory() {
+      @Override
+      public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+        return maxThreads > 0
+            ? create(new QueuedThreadPool(maxThreads, minThreads, threadTimeoutMillis))
+            : create(new QueuedThreadPool());
+      }
+
+      @Override
+      public Server create(ThreadPool pool) {
+        return new Server(pool) {
+          @Override
+          public void setHandler(Handler handler) {
+            Dispatcher dispatcher = new Dispatcher(executor);
+            dispatcher.setHandler(handler);
+            super.setHandler(dispatcher);
+          }
+        };
+      }
+    };
+  }
+
+  private static class Dispatcher extends HandlerWrapper {
+    private final Executor executor;
+
+    private Dispatcher(Executor executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public void handle(
+        String target,
+        Request baseRequest,
+        HttpServletRequest request,
+        HttpServletResponse response)
+        throws IOException, ServletException {
+      if (baseRequest.getDispatcherType() != DispatcherType.REQUEST) {
+        super.handle(target, baseRequest, request, response);
+        return;
+      }
+      AsyncContext context = request.startAsync();
+      context.setTimeout(0);
+      executor.execute(
+          () -> {
+            try {
+              getHandler().handle(target, baseRequest, request, response);
+            } catch (IOException | ServletException | RuntimeException e) {
+              log.error("Failed to handle request", e);
+              if (!response.isCommitted()) response.setStatus(500);
+            } finally {
+              context.complete();
+            }
+          });
+    }
+  }
+}
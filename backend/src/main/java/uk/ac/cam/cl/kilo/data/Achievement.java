@@ -27,7 +27,7 @@ public class Achievement {
       ID_FIELD = "id",
       NAME_FIELD = "name",
       REWARD_FIELD = "reward",
-      COUNT_FIELD = "count";
+      COUNT_FIELD = "unlocks";
   // Auxiliary table parameters for 'has achieved' relation
   public static final String ACHIEVED_TABLE = "achieved",
       ACHIEVED_USER_ID_FIELD = "user_id",
@@ -40,13 +40,18 @@ public class Achievement {
   private Achievement(long id, String name, int reward, int count) {
     assert (name != null && !name.equals(""));
     assert (reward > 0);
-    assert (count > 0);
+    assert (count >= 0);
     this.id = id;
     this.name = name;
     this.reward = reward;
     this.count = count;
   }
 
+  /** @return a copy of the achievement, which may be updated without affecting this one */
+  Achievement copy() {
+    return new Achievement(id, name, reward, count);
+  }
+
   /** @return the ID of the achievement */
   public long getID() {
     return this.id;
@@ -75,38 +80,15 @@ public class Achievement {
    * @throws DatabaseException if the achievement could not be found
    */
   public static Achievement getByID(long id) throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "SELECT *, COUNT("
-                  + ACHIEVED_TABLE
-                  + "."
-                  + ACHIEVED_ACHIEVEMENT_ID_FIELD
-                  + ") AS "
-                  + COUNT_FIELD
-                  + " FROM "
-                  + TABLE
-                  + ", "
-                  + ACHIEVED_TABLE
-                  + " WHERE "
-                  + TABLE
-                  + "."
-                  + ID_FIELD
-                  + " = ? AND "
-                  + ACHIEVED_TABLE
-                  + "."
-                  + ACHIEVED_ACHIEVEMENT_ID_FIELD
-                  + " = "
-                  + TABLE
-                  + "."
-                  + ID_FIELD
-                  + " GROUP BY "
-                  + TABLE
-                  + "."
-                  + ID_FIELD);
+    return Database.getInstance().achievements.get(id, Achievement::load);
+  }
+
+  private static Achievement load(long id) throws DatabaseException {
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.ACHIEVEMENT_BY_ID.prepare(conc)) {
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
-      if (!rs.first()) throw new DatabaseException("No achievement with ID " + id);
+      if (!rs.next()) throw new NotFoundException("No achievement with ID " + id);
       return from(rs);
     } catch (SQLException e) {
       throw new DatabaseException(e);
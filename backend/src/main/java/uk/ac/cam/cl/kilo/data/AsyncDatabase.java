@@ -0,0 +1,144 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AsyncDatabase.java
+ *
+ * <p>Runs reads and writes of the data package on a dedicated, bounded pool of threads, so that
+ * independent queries can be made in parallel and composed as {@link CompletableFuture}s. A
+ * response that needs several queries then takes as long as the slowest of them, rather than their
+ * sum.
+ *
+ * <p>By default, work submitted when every thread is busy and the queue is full is run by the
+ * submitting thread instead, which slows submitters down rather than failing them. Work runs on
+ * behalf of the client of the thread that submitted it, so that clients still read their own
+ * writes.
+ *
+ * @author Nathan Corbyn
+ */
+public final class AsyncDatabase {
+  /** A read or write of the data package. */
+  @FunctionalInterface
+  public interface Call<T> {
+    /**
+     * @return the result of the call
+     * @throws DatabaseException if the database could not be accessed
+     */
+    T call() throws DatabaseException;
+  }
+
+  private final ExecutorService executor;
+
+  /**
+   * @param threads the number of threads, which should not exceed the size of the connection pool
+   * @param capacity the number of calls that may wait for a thread
+   * @throws IllegalArgumentException if either is not positive
+   */
+  public AsyncDatabase(int threads, int capacity) {
+    if (threads < 1 || capacity < 1)
+      throw new IllegalArgumentException("Threads and capacity must be positive");
+    AtomicInteger count = new AtomicInteger();
+    executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(capacity),
+            runnable -> {
+              Thread thread = new Thread(runnable, "database-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * @param executor the executor to make calls on, such as one starting a virtual thread for each,
+   *     where the bound on concurrent calls is left to the connection pool
+   */
+  public AsyncDatabase(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * @param call the call to make
+   * @return a future completed with the result of the call, or exceptionally with the {@link
+   *     DatabaseException} it threw
+   */
+  public <T> CompletableFuture<T> supply(Call<T> call) {
+    Database database = Database.getInstance();
+    String client = database.getClient();
+    return CompletableFuture.supplyAsync(
+        () -> {
+          // The caller may run the call itself, so restore its client afterwards
+          String previous = database.getClient();
+          database.readAs(client);
+          try {
+            return call.call();
+          } catch (DatabaseException e) {
+            throw new CompletionException(e);
+          } finally {
+            database.readAs(previous);
+          }
+        },
+        executor);
+  }
+
+  /**
+   * Wait for a future returned by {@link #supply(Call)}, or composed from them.
+   *
+   * @param future the future to wait for
+   * @return the result of the future
+   * @throws DatabaseException if the call failed
+   */
+  public static <T> T await(CompletableFuture<T> future) throws DatabaseException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatabaseException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      // Composed stages may wrap the cause again
+      while (cause instanceof CompletionException && cause.getCause() != null)
+        cause = cause.getCause();
+      if (cause instanceof DatabaseException) throw (DatabaseException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new DatabaseException((Exception) cause);
+    }
+  }
+
+  /** @return the number of calls waiting for a thread */
+  public int getQueued() {
+    if (executor instanceof ThreadPoolExecutor)
+      return ((ThreadPoolExecutor) executor).getQueue().size();
+    return 0;
+  }
+
+  /** Stop accepting calls, letting those already submitted finish. */
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
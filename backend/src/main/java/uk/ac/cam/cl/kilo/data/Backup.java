@@ -0,0 +1,390 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backup.java
+ *
+ * <p>Backup and restore of every table the data package owns. A backup is a gzipped JSON document
+ * holding, for each table, its column names followed by its rows. Both directions stream a row at
+ * a time: the backup reads each table through a server-side cursor and the restore inserts rows in
+ * fixed-size batches, so memory use does not grow with the size of the data.
+ *
+ * @author Nathan Corbyn
+ */
+public final class Backup {
+  // Tables are listed before the tables that refer to them
+  private static final List<String> TABLES =
+      Arrays.asList(
+          User.TABLE,
+          Session.TABLE,
+          Achievement.TABLE,
+          Achievement.ACHIEVED_TABLE,
+          Event.TABLE,
+          Event.INTERESTED_TABLE,
+          ConferenceMap.TABLE,
+          MapMarker.TABLE,
+          ContentGroup.TABLE,
+          UsageStatistic.TABLE);
+  // The version of the backup format, which changes only if old backups can no longer be read
+  private static final int FORMAT = 1;
+  // The number of rows inserted by each batch of a restore
+  static final int BATCH_SIZE = 1000;
+  private static final int BUFFER_SIZE = 8192;
+
+  private Backup() {}
+
+  /**
+   * Write a backup of every table, read from a single snapshot of the database. Queued writes are
+   * applied first, so that the backup includes them. The output is not closed, so that the caller
+   * may send something after it.
+   *
+   * @param output the stream to write the backup to
+   * @throws IOException if the backup could not be written
+   * @throws DatabaseException if the database could not be read
+   */
+  public static void export(OutputStream output) throws IOException, DatabaseException {
+    Database.getInstance().flushWrites();
+    try (Connection conc = Database.getInstance().getConnection()) {
+      // Read every table in one transaction, so that they are consistent with each other
+      conc.setAutoCommit(false);
+      conc.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+      Dialect dialect = Dialect.of(conc);
+      GZIPOutputStream gzip = new GZIPOutputStream(output, BUFFER_SIZE);
+      JsonWriter writer =
+          new JsonWriter(
+              new BufferedWriter(
+                  new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE));
+      writer.beginObject();
+      writer.name("format").value(FORMAT);
+      writer.name("schema").value(Migrations.getLatestVersion());
+      writer.name("tables").beginArray();
+      for (String table : TABLES) exportTable(conc, dialect, table, writer);
+      writer.endArray().endObject();
+      writer.flush();
+      gzip.finish();
+      conc.commit();
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
+  private static void exportTable(Connection conc, Dialect dialect, String table, JsonWriter writer)
+      throws SQLException, IOException {
+    try (PreparedStatement stmt =
+        conc.prepareStatement(
+            "SELECT * FROM " + table, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+      stmt.setFetchSize(dialect.getStreamingFetchSize());
+      try (ResultSet rs = stmt.executeQuery()) {
+        ResultSetMetaData meta = rs.getMetaData();
+        writer.beginObject().name("name").value(table).name("columns").beginArray();
+        for (int i = 1; i <= meta.getColumnCount(); i++)
+          writer.value(meta.getColumnLabel(i).toLowerCase());
+        writer.endArray().name("rows").beginArray();
+        while (rs.next()) {
+          writer.beginArray();
+          for (int i = 1; i <= meta.getColumnCount(); i++)
+            writeValue(writer, rs, i, meta.getColumnType(i));
+          writer.endArray();
+        }
+        writer.endArray().endObject();
+      }
+    }
+  }
+
+  private static void writeValue(JsonWriter writer, ResultSet rs, int column, int type)
+      throws SQLException, IOException {
+    switch (type) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+        boolean bool = rs.getBoolean(column);
+        if (rs.wasNull()) writer.nullValue();
+        else writer.value(bool);
+        break;
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        long number = rs.getLong(column);
+        if (rs.wasNull()) writer.nullValue();
+        else writer.value(number);
+        break;
+      case Types.DATE:
+      case Types.TIMESTAMP:
+        Timestamp time = rs.getTimestamp(column);
+        if (time == null) writer.nullValue();
+        else writer.value(time.toInstant().toString());
+        break;
+      default:
+        writer.value(rs.getString(column));
+    }
+  }
+
+  /**
+   * Write a backup of every table to a file, replacing any earlier backup in it only once the new
+   * one is complete, so that a failure never leaves half a backup.
+   *
+   * @param file the file to write the backup to
+   * @throws IOException if the backup could not be written
+   * @throws DatabaseException if the database could not be read
+   */
+  public static void save(Path file) throws IOException, DatabaseException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (OutputStream output = Files.newOutputStream(temp)) {
+      export(output);
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Restore the backup in a file, if there is one.
+   *
+   * @param file the file to read the backup from
+   * @return true if the file existed and was restored, false if there was no file
+   * @throws IOException if the backup could not be read, or is not a backup this version can
+   *     restore, in which case the database is unchanged
+   * @throws DatabaseException if the database could not be written, in which case it is unchanged
+   */
+  public static boolean load(Path file) throws IOException, DatabaseException {
+    if (!Files.exists(file)) return false;
+    try (InputStream input = Files.newInputStream(file)) {
+      restore(input);
+    }
+    return true;
+  }
+
+  /**
+   * Replace the contents of every table with a backup, in a single transaction. Foreign keys are
+   * not checked while the tables are loaded, so the rows of a table may refer to rows later in the
+   * backup. Every client must fetch everything again after a restore.
+   *
+   * <p>Writes queued behind before the restore are discarded rather than applied, since they were
+   * made to the data the backup replaces. No queued writes are applied while it runs, and if it
+   * fails the writes set aside are queued again.
+   *
+   * <p>On HSQLDB, including the in-memory engine, foreign keys stop being checked for the whole
+   * database rather than just the restore's connection. Writes of interest and of queued writes
+   * are held off for the duration, but other writes are not, so a restore must only be run with
+   * the server otherwise quiesced.
+   *
+   * @param input the stream to read the backup from
+   * @throws IOException if the backup could not be read, or is not a backup this version can
+   *     restore, in which case the database is unchanged
+   * @throws DatabaseException if the database could not be written, in which case it is unchanged
+   */
+  public static void restore(InputStream input) throws IOException, DatabaseException {
+    JsonReader reader =
+        new JsonReader(
+            new BufferedReader(
+                new InputStreamReader(
+                    new GZIPInputStream(input, BUFFER_SIZE), StandardCharsets.UTF_8),
+                BUFFER_SIZE));
+    WriteBehind queue = Database.getInstance().getWriteBehind();
+    if (queue != null) queue.suspend();
+    boolean restored = false;
+    Lock writers = Database.getInstance().interest.replacing();
+    writers.lock();
+    try {
+      replace(reader);
+      restored = true;
+      Database.getInstance().restored();
+    } finally {
+      writers.unlock();
+      if (queue != null) queue.resume(restored);
+    }
+  }
+
+  // Replace the contents of every table in a single transaction
+  private static void replace(JsonReader reader) throws IOException, DatabaseException {
+    try (Connection conc = Database.getInstance().getConnection()) {
+      Dialect dialect = Dialect.of(conc);
+      execute(conc, dialect.getDeferConstraints());
+      try {
+        replaceTables(conc, reader);
+      } catch (SQLException | IOException | RuntimeException e) {
+        // Failing to check the constraints again must not hide why the restore failed
+        try {
+          execute(conc, dialect.getCheckConstraints());
+        } catch (SQLException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+        throw e;
+      }
+      execute(conc, dialect.getCheckConstraints());
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
+  private static void replaceTables(Connection conc, JsonReader reader)
+      throws SQLException, IOException {
+    try {
+      conc.setAutoCommit(false);
+      reader.beginObject();
+      expect(reader, "format");
+      if (reader.nextInt() != FORMAT) throw new IOException("Unsupported backup format");
+      expect(reader, "schema");
+      if (reader.nextInt() > Migrations.getLatestVersion())
+        throw new IOException("Backup is of a newer schema than the database");
+      expect(reader, "tables");
+      // Tables missing from the backup are left empty
+      for (int i = TABLES.size() - 1; i >= 0; i--)
+        execute(conc, "DELETE FROM " + TABLES.get(i));
+      reader.beginArray();
+      while (reader.hasNext()) restoreTable(conc, reader);
+      reader.endArray();
+      reader.endObject();
+      conc.commit();
+    } catch (IllegalStateException e) {
+      // Thrown by the reader when the backup is well formed JSON of the wrong shape
+      conc.rollback();
+      throw new IOException("Malformed backup: " + e.getMessage(), e);
+    } catch (SQLException | IOException | RuntimeException e) {
+      conc.rollback();
+      throw e;
+    }
+  }
+
+  private static void execute(Connection conc, String sql) throws SQLException {
+    try (Statement stmt = conc.createStatement()) {
+      stmt.execute(sql);
+    }
+  }
+
+  private static void restoreTable(Connection conc, JsonReader reader)
+      throws SQLException, IOException {
+    reader.beginObject();
+    expect(reader, "name");
+    String table = reader.nextString();
+    // Names from the backup are checked against the schema before they are used in SQL
+    if (!TABLES.contains(table)) throw new IOException("Unknown table " + table);
+    Map<String, Integer> types = getColumnTypes(conc, table);
+    expect(reader, "columns");
+    List<String> columns = new ArrayList<>();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      String column = reader.nextString().toLowerCase();
+      if (!types.containsKey(column)) throw new IOException("Unknown column " + column);
+      columns.add(column);
+    }
+    reader.endArray();
+    expect(reader, "rows");
+    try (PreparedStatement stmt = conc.prepareStatement(insertInto(table, columns))) {
+      int pending = 0;
+      reader.beginArray();
+      while (reader.hasNext()) {
+        reader.beginArray();
+        for (int i = 0; i < columns.size(); i++)
+          readValue(reader, stmt, i + 1, types.get(columns.get(i)));
+        reader.endArray();
+        stmt.addBatch();
+        if (++pending == BATCH_SIZE) {
+          stmt.executeBatch();
+          pending = 0;
+        }
+      }
+      reader.endArray();
+      if (pending > 0) stmt.executeBatch();
+    }
+    reader.endObject();
+  }
+
+  private static Map<String, Integer> getColumnTypes(Connection conc, String table)
+      throws SQLException {
+    try (Statement stmt = conc.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + " WHERE 1 = 0")) {
+      ResultSetMetaData meta = rs.getMetaData();
+      Map<String, Integer> types = new HashMap<>();
+      for (int i = 1; i <= meta.getColumnCount(); i++)
+        types.put(meta.getColumnLabel(i).toLowerCase(), meta.getColumnType(i));
+      return types;
+    }
+  }
+
+  private static String insertInto(String table, List<String> columns) {
+    StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+    sql.append(String.join(", ", columns)).append(") VALUES (");
+    for (int i = 0; i < columns.size(); i++) sql.append(i == 0 ? "?" : ", ?");
+    return sql.append(")").toString();
+  }
+
+  private static void readValue(JsonReader reader, PreparedStatement stmt, int index, int type)
+      throws SQLException, IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      stmt.setNull(index, type);
+      return;
+    }
+    switch (type) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+        stmt.setBoolean(index, reader.nextBoolean());
+        break;
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        stmt.setLong(index, reader.nextLong());
+        break;
+      case Types.DATE:
+      case Types.TIMESTAMP:
+        String time = reader.nextString();
+        try {
+          stmt.setTimestamp(index, Timestamp.from(Instant.parse(time)));
+        } catch (DateTimeException e) {
+          throw new IOException("Malformed time " + time, e);
+        }
+        break;
+      default:
+        stmt.setString(index, reader.nextString());
+    }
+  }
+
+  private static void expect(JsonReader reader, String name) throws IOException {
+    String next = reader.nextName();
+    if (!next.equals(name)) throw new IOException("Expected " + name + " but found " + next);
+  }
+}
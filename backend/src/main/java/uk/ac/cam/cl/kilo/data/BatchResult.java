@@ -0,0 +1,51 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+/**
+ * BatchResult.java
+ *
+ * <p>The outcome of applying a batch write to one of the entities named in the batch.
+ *
+ * @author Nathan Corbyn
+ */
+public class BatchResult {
+  /** What happened to an entity named in a batch. */
+  public enum Status {
+    /** The write was applied */
+    APPLIED,
+    /** The write had already been applied, so nothing changed */
+    UNCHANGED,
+    /** No entity has the given ID */
+    NOT_FOUND
+  }
+
+  private final long id;
+  private final Status status;
+
+  BatchResult(long id, Status status) {
+    assert (status != null);
+    this.id = id;
+    this.status = status;
+  }
+
+  /** @return the ID of the entity */
+  public long getID() {
+    return id;
+  }
+
+  /** @return the outcome of the write */
+  public Status getStatus() {
+    return status;
+  }
+}
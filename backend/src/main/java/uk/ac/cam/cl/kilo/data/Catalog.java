@@ -0,0 +1,188 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Catalog.java
+ *
+ * <p>An immutable snapshot of the conference's maps, events, achievements and content groups.
+ * Snapshots are published by {@link Database#getCatalog()} and are never modified once built, so
+ * they may be read from any thread without locking. Each {@link Section} of a snapshot is versioned
+ * separately, and a new snapshot only reloads the sections that have changed since the last, so
+ * frequent writes to one section, such as unlocks of achievements, don't invalidate the others.
+ * The version of the maps also covers their markers, which are not held in the snapshot itself.
+ * Each snapshot carries an {@link EventIndex} over its events, which is only rebuilt when an event
+ * changes. Its entities are shared by every reader and must not be updated; entities to be updated
+ * should be fetched by ID, which gives the caller its own copy.
+ *
+ * @author Nathan Corbyn
+ */
+public final class Catalog {
+  /** The sections of the catalog, which are versioned separately. */
+  public enum Section {
+    MAPS,
+    EVENTS,
+    ACHIEVEMENTS,
+    GROUPS
+  }
+
+  private final long[] versions;
+  private final Instant[] lastModified;
+  private final List<ConferenceMap> maps;
+  private final List<Event> events;
+  private final List<Achievement> achievements;
+  private final List<ContentGroup> groups;
+  private final EventIndex eventIndex;
+
+  private Catalog(
+      long[] versions,
+      Instant[] lastModified,
+      List<ConferenceMap> maps,
+      List<Event> events,
+      EventIndex eventIndex,
+      List<Achievement> achievements,
+      List<ContentGroup> groups) {
+    this.versions = versions;
+    this.lastModified = lastModified;
+    this.maps = maps;
+    this.events = events;
+    this.eventIndex = eventIndex;
+    this.achievements = achievements;
+    this.groups = groups;
+  }
+
+  /**
+   * Build a snapshot at the given section versions, sharing the sections of the previous snapshot
+   * that are still at the same version and reloading the rest from the database.
+   *
+   * @param previous the previous snapshot, or null if there was none
+   * @param versions the version of each section, indexed by ordinal
+   * @param database the database to reload sections from
+   * @return the snapshot
+   * @throws DatabaseException if a section could not be reloaded
+   */
+  static Catalog build(Catalog previous, long[] versions, Database database)
+      throws DatabaseException {
+    Instant now = Instant.now();
+    Instant[] lastModified = new Instant[versions.length];
+    for (Section section : Section.values()) {
+      int i = section.ordinal();
+      if (previous == null) lastModified[i] = now;
+      else if (current(previous, versions, section)) lastModified[i] = previous.lastModified[i];
+      else lastModified[i] = later(previous.lastModified[i], now);
+    }
+    List<ConferenceMap> maps =
+        current(previous, versions, Section.MAPS) ? previous.maps : copy(database.getMaps());
+    List<Event> events;
+    EventIndex eventIndex;
+    if (current(previous, versions, Section.EVENTS)) {
+      events = previous.events;
+      eventIndex = previous.eventIndex;
+    } else {
+      events = copy(database.getEvents());
+      eventIndex = new EventIndex(events);
+    }
+    List<Achievement> achievements =
+        current(previous, versions, Section.ACHIEVEMENTS)
+            ? previous.achievements
+            : copy(database.getAchievements());
+    List<ContentGroup> groups =
+        current(previous, versions, Section.GROUPS)
+            ? previous.groups
+            : copy(database.getContentGroups());
+    return new Catalog(
+        versions.clone(), lastModified, maps, events, eventIndex, achievements, groups);
+  }
+
+  // HTTP dates are whole seconds, so a section rebuilt in the same second as it was last must be
+  // dated the second after, or a client sending only If-Modified-Since would keep stale data
+  private static Instant later(Instant previous, Instant now) {
+    Instant next = previous.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+    return now.isBefore(next) ? next : now;
+  }
+
+  // Utility method for checking whether a section of a snapshot is at the given version
+  private static boolean current(Catalog catalog, long[] versions, Section section) {
+    return catalog != null && catalog.versions[section.ordinal()] == versions[section.ordinal()];
+  }
+
+  // Utility method for taking an unmodifiable copy of a list
+  private static <T> List<T> copy(List<T> list) {
+    return Collections.unmodifiableList(new ArrayList<>(list));
+  }
+
+  /** @return the latest version of any section of the snapshot */
+  public long getVersion() {
+    long version = Long.MIN_VALUE;
+    for (long v : versions) version = Math.max(version, v);
+    return version;
+  }
+
+  /**
+   * @param section the section to get the version of
+   * @return the version of the data the section was built from
+   */
+  public long getVersion(Section section) {
+    return versions[section.ordinal()];
+  }
+
+  /**
+   * @return the time the latest section was loaded, which is no earlier than any write reflected in
+   *     the snapshot
+   */
+  public Instant getLastModified() {
+    Instant latest = Instant.MIN;
+    for (Instant modified : lastModified) if (modified.isAfter(latest)) latest = modified;
+    return latest;
+  }
+
+  /**
+   * @param section the section to get the time of
+   * @return the time the section was loaded, which is no earlier than any write reflected in it
+   *     and, in whole seconds, strictly later than the time of the previous version of the section
+   */
+  public Instant getLastModified(Section section) {
+    return lastModified[section.ordinal()];
+  }
+
+  /** @return the list of maps */
+  public List<ConferenceMap> getMaps() {
+    return maps;
+  }
+
+  /** @return the list of events */
+  public List<Event> getEvents() {
+    return events;
+  }
+
+  /** @return the list of achievements */
+  public List<Achievement> getAchievements() {
+    return achievements;
+  }
+
+  /** @return the list of content groups */
+  public List<ContentGroup> getContentGroups() {
+    return groups;
+  }
+
+  /** @return the index of the events by time */
+  public EventIndex getEventIndex() {
+    return eventIndex;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ChangeLog.java
+ *
+ * <p>A versioned log of the writes made to synchronised entities. Each write is given the next
+ * version, and only the latest write to each entity is retained, so the log never holds more than
+ * one entry per entity. The oldest entries are discarded once the log is full, after which clients
+ * that last synchronised before them must fetch everything again.
+ *
+ * @author Nathan Corbyn
+ */
+class ChangeLog {
+  /** The ID recorded when every entity of a kind may have changed. */
+  static final long ALL = -1;
+
+  /** The kinds of entity whose writes are logged. */
+  enum Kind {
+    EVENT,
+    MAP,
+    MARKER,
+    ACHIEVEMENT,
+    GROUP
+  }
+
+  /** The latest write to an entity. */
+  static class Entry {
+    private final Kind kind;
+    private final long id, version;
+    private final boolean deleted;
+
+    private Entry(Kind kind, long id, long version, boolean deleted) {
+      this.kind = kind;
+      this.id = id;
+      this.version = version;
+      this.deleted = deleted;
+    }
+
+    Kind getKind() {
+      return kind;
+    }
+
+    long getID() {
+      return id;
+    }
+
+    long getVersion() {
+      return version;
+    }
+
+    boolean isDeleted() {
+      return deleted;
+    }
+  }
+
+  private final int capacity;
+  // Keyed by kind and ID, in order of version, as each write removes and re-adds its entry
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+  private long version, floor;
+
+  /**
+   * @param start the version to start from, which should exceed any version issued by a previous
+   *     run of the server
+   * @param capacity the maximum number of entries to retain
+   */
+  ChangeLog(long start, int capacity) {
+    if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+    this.capacity = capacity;
+    this.version = start;
+    this.floor = start;
+  }
+
+  /**
+   * @param kind the kind of entity written
+   * @param id the ID of the entity written, or {@link #ALL}
+   * @param deleted true if the entity was deleted, false if it was created or updated
+   * @return the version of the write
+   */
+  synchronized long record(Kind kind, long id, boolean deleted) {
+    if (id == ALL) {
+      // Subsumes every entry for the kind
+      entries.values().removeIf(entry -> entry.kind == kind);
+    }
+    String key = kind + ":" + id;
+    entries.remove(key);
+    entries.put(key, new Entry(kind, id, ++version, deleted));
+    // Compact by discarding the oldest entries, which clients behind them can no longer replay
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (entries.size() > capacity) {
+      floor = iterator.next().getValue().version;
+      iterator.remove();
+    }
+    return version;
+  }
+
+  /** Discard every entry, so that every client must fetch everything again. */
+  synchronized void reset() {
+    entries.clear();
+    floor = ++version;
+  }
+
+  /** @return the version of the latest write */
+  synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * @param since the version a client last synchronised at
+   * @return the latest writes to each entity written after the given version, in order of version,
+   *     or null if the log can no longer say what has changed since then
+   */
+  synchronized List<Entry> since(long since) {
+    // Versions outside this range were compacted away or issued by a previous run of the server
+    if (since < floor || since > version) return null;
+    List<Entry> result = new ArrayList<>();
+    for (Entry entry : entries.values()) if (entry.version > since) result.add(entry);
+    return result;
+  }
+}
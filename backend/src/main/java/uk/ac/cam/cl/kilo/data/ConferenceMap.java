@@ -12,6 +12,7 @@
  */
 package uk.ac.cam.cl.kilo.data;
 
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
@@ -19,6 +20,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -50,17 +52,15 @@ public class ConferenceMap {
     if (image == null) throw new IllegalArgumentException("Image must not be null");
     this.name = name;
     this.image = image;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "INSERT INTO " + TABLE + "(" + NAME_FIELD + ", " + IMAGE_FIELD + ") VALUES (?, ?)",
-              PreparedStatement.RETURN_GENERATED_KEYS);
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.MAP_INSERT.prepare(conc)) {
       stmt.setString(1, name);
       stmt.setString(2, image.toString());
       stmt.executeUpdate();
       ResultSet rs = stmt.getGeneratedKeys();
-      if (!rs.first()) throw new DatabaseException("Failed to generate ID for map");
+      if (!rs.next()) throw new DatabaseException("Failed to generate ID for map");
       id = rs.getLong(ID_FIELD);
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -75,6 +75,11 @@ public class ConferenceMap {
     this.image = image;
   }
 
+  /** @return a copy of the map, which may be updated without affecting this one */
+  ConferenceMap copy() {
+    return new ConferenceMap(id, name, image);
+  }
+
   /** @return the ID of the map */
   public long getID() {
     return this.id;
@@ -94,15 +99,14 @@ public class ConferenceMap {
     if (name == null || name.equals(""))
       throw new IllegalArgumentException("Name must not be null or empty");
     if (name.equals(this.name)) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE " + TABLE + " SET " + NAME_FIELD + " = ? WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.MAP_SET_NAME.prepare(conc)) {
       stmt.setString(1, name);
       stmt.setLong(2, id);
       stmt.executeUpdate();
       // Only update if transaction is successful
       this.name = name;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -121,39 +125,62 @@ public class ConferenceMap {
   public void setImage(Path image) throws DatabaseException {
     if (image == null) throw new IllegalArgumentException("Image must not be null");
     if (image.equals(this.image)) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE " + TABLE + " SET " + IMAGE_FIELD + " = ? WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.MAP_SET_IMAGE.prepare(conc)) {
       stmt.setString(1, image.toString());
       stmt.setLong(2, id);
       stmt.executeUpdate();
       // Only update if transaction is successful
       this.image = image;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
   }
 
   /**
-   * @return the markers of the map
+   * @return the unmodifiable list of the markers of the map
    * @throws DatabaseException if the database could not be accessed
    */
   public List<MapMarker> getMarkers() throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
+    return Database.getInstance().coalesce(Database.key(Query.MAP_MARKERS, id), this::loadMarkers);
+  }
+
+  private List<MapMarker> loadMarkers() throws DatabaseException {
+    try (Connection conc = Database.getInstance().getReadConnection();
+        PreparedStatement stmt = Query.MAP_MARKERS.prepare(conc)) {
       List<MapMarker> result = new ArrayList<>();
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "SELECT * FROM " + MapMarker.TABLE + " WHERE " + MapMarker.MAP_FIELD + " = ?");
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
       while (rs.next()) result.add(MapMarker.from(rs));
-      return result;
+      return Collections.unmodifiableList(result);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
   }
 
+  /**
+   * @param after the cursor to list from, which is the ID of the last marker of the previous page
+   * @param limit the maximum number of markers in the page
+   * @return the page of the map's markers with IDs greater than the cursor
+   * @throws IllegalArgumentException if the limit is not positive
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public Page<MapMarker> getMarkers(long after, int limit) throws DatabaseException {
+    return Database.page(
+        Query.MAP_MARKERS_AFTER, MapMarker::from, MapMarker.ID_FIELD, limit, id, after);
+  }
+
+  /**
+   * @param consumer the consumer to pass each of the map's markers to as it is read
+   * @throws DatabaseException if the database could not be accessed
+   * @throws IOException if the consumer failed
+   */
+  public void streamMarkers(EntityConsumer<? super MapMarker> consumer)
+      throws DatabaseException, IOException {
+    Database.stream(Query.MAP_MARKERS, MapMarker::from, consumer, id);
+  }
+
   /**
    * Add a map marker to the map.
    *
@@ -174,17 +201,22 @@ public class ConferenceMap {
       try {
         // Need to execute two transactions atomically, so disable auto-commit
         conc.setAutoCommit(false);
-        PreparedStatement stmt =
-            conc.prepareStatement("DELETE FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
-        stmt.setLong(1, id);
-        stmt.executeUpdate();
-        stmt =
-            conc.prepareStatement(
-                "DELETE FROM " + MapMarker.TABLE + " WHERE " + MapMarker.MAP_FIELD + " = ?");
-        stmt.setLong(1, id);
-        stmt.executeUpdate();
+        // Note the markers deleted along with the map, so that clients are told of them
+        List<Long> markers = new ArrayList<>();
+        try (PreparedStatement stmt = Query.MARKER_IDS_FOR_MAP.prepare(conc)) {
+          stmt.setLong(1, id);
+          ResultSet rs = stmt.executeQuery();
+          while (rs.next()) markers.add(rs.getLong(MapMarker.ID_FIELD));
+        }
+        for (Query query : new Query[] {Query.MARKER_DELETE_FOR_MAP, Query.MAP_DELETE}) {
+          try (PreparedStatement stmt = query.prepare(conc)) {
+            stmt.setLong(1, id);
+            stmt.executeUpdate();
+          }
+        }
         // Commit if both transactions were successful
         conc.commit();
+        Database.getInstance().deleted(this, markers);
       } catch (SQLException e) {
         conc.rollback();
         throw e;
@@ -202,12 +234,15 @@ public class ConferenceMap {
    * @throws DatabaseException if the map could not be found
    */
   public static ConferenceMap getByID(long id) throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement("SELECT * FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
+    return Database.getInstance().maps.get(id, ConferenceMap::load);
+  }
+
+  private static ConferenceMap load(long id) throws DatabaseException {
+    try (Connection conc = Database.getInstance().getReadConnection();
+        PreparedStatement stmt = Query.MAP_BY_ID.prepare(conc)) {
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
-      if (!rs.first()) throw new DatabaseException("No map with ID " + id);
+      if (!rs.next()) throw new NotFoundException("No map with ID " + id);
       return from(rs);
     } catch (SQLException e) {
       throw new DatabaseException(e);
@@ -39,6 +39,11 @@ public class ContentGroup {
     this.enabled = enabled;
   }
 
+  /** @return a copy of the content group, which may be updated without affecting this one */
+  ContentGroup copy() {
+    return new ContentGroup(id, name, enabled);
+  }
+
   /** @return the ID of the content group */
   public long getID() {
     return this.id;
@@ -50,15 +55,14 @@ public class ContentGroup {
    */
   public void setEnabled(boolean enabled) throws DatabaseException {
     if (enabled == this.enabled) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE " + TABLE + " SET " + ENABLED_FIELD + " = ? WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.GROUP_SET_ENABLED.prepare(conc)) {
       stmt.setBoolean(1, enabled);
       stmt.setLong(2, id);
       stmt.executeUpdate();
       // Only update if transaction is successful
       this.enabled = enabled;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -82,12 +86,15 @@ public class ContentGroup {
    * @throws DatabaseException if the content group could not be found
    */
   public static ContentGroup getByID(long id) throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement("SELECT * FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
+    return Database.getInstance().groups.get(id, ContentGroup::load);
+  }
+
+  private static ContentGroup load(long id) throws DatabaseException {
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.GROUP_BY_ID.prepare(conc)) {
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
-      if (!rs.first()) throw new DatabaseException("No content group with ID " + id);
+      if (!rs.next()) throw new NotFoundException("No content group with ID " + id);
       ContentGroup group = from(rs);
       return group;
     } catch (SQLException e) {
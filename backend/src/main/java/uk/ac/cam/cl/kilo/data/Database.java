@@ -12,12 +12,28 @@
  */
 package uk.ac.cam.cl.kilo.data;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.sql.DataSource;
 
 /**
@@ -26,9 +42,90 @@ import javax.sql.DataSource;
  * @author Nathan Corbyn
  */
 public class Database {
+  // The maximum number of entities of each type held by the read-through caches
+  private static final int CACHE_CAPACITY = 1024;
+  // The number of rows fetched from the database at a time when streaming
+  private static final int STREAM_FETCH_SIZE = 256;
+  // The maximum number of writes retained by the change log
+  private static final int CHANGE_LOG_CAPACITY = 4096;
+  // How long reads go to the primary after a write, which must exceed the replicas' lag
+  private static final long REPLICA_PIN_MILLIS = 5000;
+  // How long a replica that failed to provide a connection is skipped for
+  private static final long REPLICA_RETRY_MILLIS = 30000;
+  // The number of clients with recent writes above which expired pins are purged
+  private static final int PIN_CAPACITY = 4096;
+  // How long a read may be shared with identical reads made while it is in flight
+  private static final long COALESCE_TIMEOUT_MILLIS = 5000;
+  private static final Catalog.Section[] SECTIONS = Catalog.Section.values();
+  // The number of locks ordering leaderboard updates, shared between users by ID, a power of two
+  private static final int SCORE_LOCK_STRIPES = 64;
+  // The list and page reads shared between identical concurrent callers
+  private static final Set<Query> COALESCED_QUERIES =
+      EnumSet.of(
+          Query.EVENTS,
+          Query.EVENTS_AFTER,
+          Query.USER_MARKED_EVENTS_AFTER,
+          Query.MAPS,
+          Query.MAPS_AFTER,
+          Query.MAP_MARKERS,
+          Query.MAP_MARKERS_AFTER);
+  // The shared reads of each kind of data, which a write to it stops the sharing of
+  private static final Query[] EVENT_READS = {
+    Query.EVENTS, Query.EVENTS_AFTER, Query.USER_MARKED_EVENTS_AFTER
+  };
+  private static final Query[] INTEREST_READS = {Query.USER_MARKED_EVENTS_AFTER};
+  private static final Query[] MAP_READS = {Query.MAPS, Query.MAPS_AFTER};
+  private static final Query[] MARKER_READS = {Query.MAP_MARKERS, Query.MAP_MARKERS_AFTER};
+  // The paged and streamed queries that may be served by a replica
+  private static final Set<Query> REPLICA_QUERIES =
+      EnumSet.of(
+          Query.EVENTS_AFTER, Query.MAPS_AFTER, Query.MAP_MARKERS, Query.MAP_MARKERS_AFTER);
+
   private static Database instance;
 
   private DataSource source;
+  private final ReplicaSet replicas;
+  private final Repositories repositories = new JdbcRepositories(this);
+  private final long pinNanos = TimeUnit.MILLISECONDS.toNanos(REPLICA_PIN_MILLIS);
+  // The client on whose behalf each thread is reading and writing, if known
+  private final ThreadLocal<String> client = new ThreadLocal<>();
+  // The System.nanoTime() of each client's last write
+  private final Map<String, Long> pins = new ConcurrentHashMap<>();
+  // The System.nanoTime() of the last write to data that replicas serve into the shared caches
+  private volatile long catalogWritten = System.nanoTime() - pinNanos;
+
+  final EntityCache<Event> events =
+      new EntityCache<>(Event.TABLE, CACHE_CAPACITY, Event::copy);
+  final EntityCache<ConferenceMap> maps =
+      new EntityCache<>(ConferenceMap.TABLE, CACHE_CAPACITY, ConferenceMap::copy);
+  final EntityCache<MapMarker> markers =
+      new EntityCache<>(MapMarker.TABLE, CACHE_CAPACITY, MapMarker::copy);
+  final EntityCache<Achievement> achievements =
+      new EntityCache<>(Achievement.TABLE, CACHE_CAPACITY, Achievement::copy);
+  final EntityCache<ContentGroup> groups =
+      new EntityCache<>(ContentGroup.TABLE, CACHE_CAPACITY, ContentGroup::copy);
+  // Users aren't cached, being read far less often than the catalog, but their reads are shared
+  final SingleFlight<Long, User> users = new SingleFlight<>(User.TABLE, COALESCE_TIMEOUT_MILLIS);
+  // Shares list and page reads, keyed by query and parameters, with a flight for each query so
+  // that a write only stops the sharing of reads of the data it wrote
+  private final Map<Query, SingleFlight<List<Object>, Object>> queries = new EnumMap<>(Query.class);
+
+  private final AtomicReference<Catalog> catalog = new AtomicReference<>();
+  // Incremented by every write to catalogued data, and stamped on the sections it wrote, so that
+  // stale sections of a snapshot can be detected
+  private final AtomicLong catalogVersion = new AtomicLong();
+  private final AtomicLongArray sectionVersions = new AtomicLongArray(SECTIONS.length);
+  private final Object catalogLock = new Object();
+  // Versions start from the time of startup, so that they keep increasing across restarts
+  private final ChangeLog changes = new ChangeLog(System.currentTimeMillis(), CHANGE_LOG_CAPACITY);
+  // Loaded on first use, and replaced whole when rebuilt
+  private volatile Leaderboard leaderboard;
+  private final Object leaderboardLock = new Object();
+  // Order the leaderboard updates made for each user, striped by user ID
+  private final Object[] scoreLocks = new Object[SCORE_LOCK_STRIPES];
+  final InterestCounters interest = new InterestCounters();
+  // Null unless write-behind has been enabled
+  private volatile WriteBehind writeBehind;
 
   /**
    * Configure the database to work with the given source of data. Please note, calling {@link
@@ -38,7 +135,18 @@ public class Database {
    * @param dataSource the JDBC data source to work with
    */
   public static void configure(DataSource dataSource) {
-    if (instance == null) instance = new Database(dataSource);
+    configure(dataSource, Collections.emptyList());
+  }
+
+  /**
+   * Configure the database to write to the given primary source of data, and to serve reads of
+   * events, maps, markers and usage statistics from the given read replicas where it is safe to.
+   *
+   * @param dataSource the JDBC data source of the primary
+   * @param replicas the JDBC data sources of the replicas
+   */
+  public static void configure(DataSource dataSource, List<DataSource> replicas) {
+    if (instance == null) instance = new Database(dataSource, replicas);
     else throw new RuntimeException("Database may not be reconfigured at runtime");
   }
 
@@ -48,9 +156,34 @@ public class Database {
     return instance;
   }
 
-  private Database(DataSource source) {
+  private Database(DataSource source, List<DataSource> replicas) {
     if (source == null) throw new RuntimeException("Data source must be non null");
     this.source = source;
+    this.replicas = new ReplicaSet(replicas, REPLICA_RETRY_MILLIS);
+    for (int i = 0; i < scoreLocks.length; i++) scoreLocks[i] = new Object();
+    for (Query query : COALESCED_QUERIES)
+      queries.put(query, new SingleFlight<>(query.name(), COALESCE_TIMEOUT_MILLIS));
+  }
+
+  /**
+   * Note the client on whose behalf the current thread is working. Reads by a client that has
+   * written recently are served by the primary, so that clients always see their own writes.
+   *
+   * @param client the identity of the client, or null once the thread has finished working for it
+   */
+  public void readAs(String client) {
+    if (client == null) this.client.remove();
+    else this.client.set(client);
+  }
+
+  // The client the current thread is working for, or null if unknown
+  String getClient() {
+    return client.get();
+  }
+
+  /** @return the repositories of the entities served to clients */
+  public Repositories getRepositories() {
+    return repositories;
   }
 
   /**
@@ -58,32 +191,9 @@ public class Database {
    * @throws DatabaseException if the database could not be accessed
    */
   public List<Achievement> getAchievements() throws DatabaseException {
-    try (Connection conc = getConnection()) {
+    try (Connection conc = getConnection();
+        PreparedStatement stmt = Query.ACHIEVEMENTS.prepare(conc)) {
       List<Achievement> result = new ArrayList<>();
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "SELECT *, COUNT("
-                  + Achievement.ACHIEVED_TABLE
-                  + "."
-                  + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
-                  + ") AS "
-                  + Achievement.COUNT_FIELD
-                  + " FROM "
-                  + Achievement.TABLE
-                  + ", "
-                  + Achievement.ACHIEVED_TABLE
-                  + " WHERE "
-                  + Achievement.ACHIEVED_TABLE
-                  + "."
-                  + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
-                  + " = "
-                  + Achievement.TABLE
-                  + "."
-                  + Achievement.ID_FIELD
-                  + " GROUP BY "
-                  + Achievement.TABLE
-                  + "."
-                  + Achievement.ID_FIELD);
       ResultSet rs = stmt.executeQuery();
       while (rs.next()) result.add(Achievement.from(rs));
       return result;
@@ -93,29 +203,44 @@ public class Database {
   }
 
   /**
-   * @return the list of events
+   * @return the unmodifiable list of events
    * @throws DatabaseException if the database could not be accessed
    */
   public List<Event> getEvents() throws DatabaseException {
-    try (Connection conc = getConnection()) {
+    return coalesce(key(Query.EVENTS), this::loadEvents);
+  }
+
+  private List<Event> loadEvents() throws DatabaseException {
+    try (Connection conc = getReadConnection();
+        PreparedStatement stmt = Query.EVENTS.prepare(conc)) {
       List<Event> result = new ArrayList<>();
-      PreparedStatement stmt = conc.prepareStatement("SELECT * FROM " + Event.TABLE);
       ResultSet rs = stmt.executeQuery();
       while (rs.next()) result.add(Event.from(rs));
-      return result;
+      return Collections.unmodifiableList(result);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
   }
 
+  /**
+   * @param after the cursor to list from, which is the ID of the last event of the previous page
+   * @param limit the maximum number of events in the page
+   * @return the page of events with IDs greater than the cursor
+   * @throws IllegalArgumentException if the limit is not positive
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public Page<Event> getEvents(long after, int limit) throws DatabaseException {
+    return page(Query.EVENTS_AFTER, Event::from, Event.ID_FIELD, limit, after);
+  }
+
   /**
    * @return the list of content groups
    * @throws DatabaseException if the database could not be accessed
    */
   public List<ContentGroup> getContentGroups() throws DatabaseException {
-    try (Connection conc = getConnection()) {
+    try (Connection conc = getConnection();
+        PreparedStatement stmt = Query.CONTENT_GROUPS.prepare(conc)) {
       List<ContentGroup> result = new ArrayList<>();
-      PreparedStatement stmt = conc.prepareStatement("SELECT * FROM " + ContentGroup.TABLE);
       ResultSet rs = stmt.executeQuery();
       while (rs.next()) result.add(ContentGroup.from(rs));
       return result;
@@ -129,15 +254,9 @@ public class Database {
    * @throws DatabaseException if the database could not be accessed
    */
   public List<ContentGroup> getEnabledContentGroups() throws DatabaseException {
-    try (Connection conc = getConnection()) {
+    try (Connection conc = getConnection();
+        PreparedStatement stmt = Query.ENABLED_CONTENT_GROUPS.prepare(conc)) {
       List<ContentGroup> result = new ArrayList<>();
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "SELECT * FROM "
-                  + ContentGroup.TABLE
-                  + " WHERE "
-                  + ContentGroup.ENABLED_FIELD
-                  + " = ?");
       stmt.setBoolean(1, true);
       ResultSet rs = stmt.executeQuery();
       while (rs.next()) result.add(ContentGroup.from(rs));
@@ -148,35 +267,46 @@ public class Database {
   }
 
   /**
-   * @return the list of maps
+   * @return the unmodifiable list of maps
    * @throws DatabaseException if the database could not be accessed
    */
   public List<ConferenceMap> getMaps() throws DatabaseException {
-    try (Connection conc = getConnection()) {
+    return coalesce(key(Query.MAPS), this::loadMaps);
+  }
+
+  private List<ConferenceMap> loadMaps() throws DatabaseException {
+    try (Connection conc = getReadConnection();
+        PreparedStatement stmt = Query.MAPS.prepare(conc)) {
       List<ConferenceMap> result = new ArrayList<>();
-      PreparedStatement stmt = conc.prepareStatement("SELECT * FROM " + ConferenceMap.TABLE);
       ResultSet rs = stmt.executeQuery();
       while (rs.next()) result.add(ConferenceMap.from(rs));
-      return result;
+      return Collections.unmodifiableList(result);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
   }
 
+  /**
+   * @param after the cursor to list from, which is the ID of the last map of the previous page
+   * @param limit the maximum number of maps in the page
+   * @return the page of maps with IDs greater than the cursor
+   * @throws IllegalArgumentException if the limit is not positive
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public Page<ConferenceMap> getMaps(long after, int limit) throws DatabaseException {
+    return page(Query.MAPS_AFTER, ConferenceMap::from, ConferenceMap.ID_FIELD, limit, after);
+  }
+
   /**
    * @return the usage statistics for the last 24 hours
    * @throws DatabaseException if the database could not be accessed
    */
   public List<UsageStatistic> getUsage() throws DatabaseException {
-    try (Connection conc = getConnection()) {
+    try (Connection conc = getReadConnection();
+        PreparedStatement stmt = Query.USAGE_LAST_DAY.prepare(conc)) {
       List<UsageStatistic> result = new ArrayList<>();
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "SELECT * FROM "
-                  + UsageStatistic.TABLE
-                  + " WHERE "
-                  + UsageStatistic.TIME_FIELD
-                  + " >= DATE_SUB(NOW(), INTERVAL 1 DAY)");
+      // The cutoff is computed here rather than in SQL, whose date arithmetic varies by dialect
+      stmt.setTimestamp(1, Timestamp.from(Instant.now().minus(1, ChronoUnit.DAYS)));
       ResultSet rs = stmt.executeQuery();
       while (rs.next()) result.add(UsageStatistic.from(rs));
       return result;
@@ -190,16 +320,610 @@ public class Database {
    * @throws DatabaseException if the database could not be accessed
    */
   public int getUserCount() throws DatabaseException {
-    try (Connection conc = getConnection()) {
-      PreparedStatement stmt = conc.prepareStatement("SELECT COUNT(*) FROM " + User.TABLE);
+    try (Connection conc = getConnection();
+        PreparedStatement stmt = Query.USER_COUNT.prepare(conc)) {
       ResultSet rs = stmt.executeQuery();
-      if (!rs.first()) throw new DatabaseException("COUNT(*) returned no records");
+      if (!rs.next()) throw new DatabaseException("COUNT(*) returned no records");
       return rs.getInt(1);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
   }
 
+  /**
+   * Get the current catalog snapshot, rebuilding it first if catalogued data has been written since
+   * it was built. Reads of an up-to-date snapshot take no locks and make no queries.
+   *
+   * @return the catalog snapshot
+   * @throws DatabaseException if the snapshot had to be rebuilt and the database could not be
+   *     accessed
+   */
+  public Catalog getCatalog() throws DatabaseException {
+    Catalog current = catalog.get();
+    if (isCurrent(current)) return current;
+    // Only one thread rebuilds, the rest wait for and then share its snapshot
+    synchronized (catalogLock) {
+      current = catalog.get();
+      if (isCurrent(current)) return current;
+      long[] versions = new long[SECTIONS.length];
+      for (int i = 0; i < versions.length; i++) versions[i] = sectionVersions.get(i);
+      // A write during the rebuild bumps its section again, so the next read rebuilds it once more
+      current = Catalog.build(current, versions, this);
+      catalog.set(current);
+      return current;
+    }
+  }
+
+  // Utility method for checking whether every section of a snapshot is up to date
+  private boolean isCurrent(Catalog snapshot) {
+    if (snapshot == null) return false;
+    for (Catalog.Section section : SECTIONS)
+      if (snapshot.getVersion(section) != sectionVersions.get(section.ordinal())) return false;
+    return true;
+  }
+
+  /**
+   * Recount the unlocks of every achievement from the achievements recorded, repairing any counts
+   * that have drifted from them.
+   *
+   * @return the number of achievements whose counts were repaired
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public int reconcileAchievementCounts() throws DatabaseException {
+    try (Connection conc = getConnection();
+        PreparedStatement stmt = Query.ACHIEVEMENT_COUNTS_RECONCILE.prepare(conc)) {
+      int repaired = stmt.executeUpdate();
+      if (repaired > 0) changedAchievements();
+      return repaired;
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
+  /**
+   * Recompute the score of every user from their achievements, repairing any scores that have
+   * drifted from them, then check the leaderboard, if it has been loaded, against the scores and
+   * rebuild it if it has drifted from them.
+   *
+   * @return the number of scores repaired, in the database or on the leaderboard
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public int reconcileScores() throws DatabaseException {
+    int repaired;
+    try (Connection conc = getConnection();
+        PreparedStatement stmt = Query.USER_SCORES_RECONCILE.prepare(conc)) {
+      repaired = stmt.executeUpdate();
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+    synchronized (leaderboardLock) {
+      if (leaderboard == null) return repaired;
+      Leaderboard loaded = loadLeaderboard();
+      int drifted = leaderboard.countDifferences(loaded);
+      if (repaired > 0 || drifted > 0) leaderboard = loaded;
+      return repaired + drifted;
+    }
+  }
+
+  /**
+   * Get the number of users interested in each event. The counts are loaded on first use and then
+   * maintained in memory as interest is marked and unmarked.
+   *
+   * @return the number of interested users, keyed by event ID, for every event
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public Map<Long, Long> getInterestCounts() throws DatabaseException {
+    Map<Long, Long> counts = interest.get(this::loadInterestCounts);
+    Map<Long, Long> result = new HashMap<>();
+    for (Event event : getCatalog().getEvents())
+      result.put(event.getID(), counts.getOrDefault(event.getID(), 0L));
+    return result;
+  }
+
+  /**
+   * @param event the ID of the event
+   * @return the number of users interested in the event
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public long getInterestCount(long event) throws DatabaseException {
+    return interest.get(this::loadInterestCounts).getOrDefault(event, 0L);
+  }
+
+  /**
+   * Recount the users interested in each event, repairing any counters that have drifted.
+   *
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public void reconcileInterestCounts() throws DatabaseException {
+    interest.reload(this::loadInterestCounts);
+  }
+
+  private Map<Long, Long> loadInterestCounts() throws DatabaseException {
+    try (Connection conc = getConnection();
+        PreparedStatement stmt = Query.INTERESTED_COUNTS.prepare(conc)) {
+      Map<Long, Long> result = new HashMap<>();
+      ResultSet rs = stmt.executeQuery();
+      while (rs.next()) result.put(rs.getLong(1), rs.getLong(2));
+      return result;
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
+  /**
+   * Queue users' interest and achievement writes, rather than applying each as it is made. Queued
+   * writes are applied in groups by {@link #flushWrites()}, which should be called regularly.
+   *
+   * @param capacity the number of writes that may be queued before the queue must be flushed
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  public void enableWriteBehind(int capacity) {
+    if (writeBehind != null) throw new RuntimeException("Write-behind is already enabled");
+    writeBehind = new WriteBehind(capacity);
+  }
+
+  /** @return true if users' interest and achievement writes are being queued, false otherwise */
+  public boolean isWritingBehind() {
+    return writeBehind != null;
+  }
+
+  /**
+   * Apply every queued write.
+   *
+   * @return the number of writes applied
+   * @throws DatabaseException if the database could not be accessed, in which case the writes
+   *     remain queued
+   */
+  public int flushWrites() throws DatabaseException {
+    WriteBehind queue = writeBehind;
+    return queue == null ? 0 : queue.flush();
+  }
+
+  /**
+   * Apply the writes queued by the given user, so that they can be read back.
+   *
+   * @param user the ID of the user
+   * @throws DatabaseException if the database could not be accessed, in which case the writes
+   *     remain queued
+   */
+  public void flushWrites(long user) throws DatabaseException {
+    WriteBehind queue = writeBehind;
+    if (queue != null) queue.flush(user);
+  }
+
+  // Null unless write-behind has been enabled
+  WriteBehind getWriteBehind() {
+    return writeBehind;
+  }
+
+  /**
+   * Get the leaderboard, loading it from the database on first use. The leaderboard is kept up to
+   * date as users are created, deleted and scored.
+   *
+   * @return the leaderboard
+   * @throws DatabaseException if the leaderboard had to be loaded and the database could not be
+   *     accessed
+   */
+  public Leaderboard getLeaderboard() throws DatabaseException {
+    Leaderboard current = leaderboard;
+    if (current != null) return current;
+    synchronized (leaderboardLock) {
+      if (leaderboard == null) leaderboard = loadLeaderboard();
+      return leaderboard;
+    }
+  }
+
+  /**
+   * Rebuild the leaderboard from the scores in the database.
+   *
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public void rebuildLeaderboard() throws DatabaseException {
+    // Scores written during the rebuild wait for it, then are applied to the new leaderboard
+    synchronized (leaderboardLock) {
+      leaderboard = loadLeaderboard();
+    }
+  }
+
+  private Leaderboard loadLeaderboard() throws DatabaseException {
+    Leaderboard result = new Leaderboard();
+    try (Connection conc = getConnection();
+        PreparedStatement stmt = Query.USERS.prepare(conc)) {
+      stmt.setFetchSize(STREAM_FETCH_SIZE);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          result.put(
+              rs.getLong(User.ID_FIELD),
+              rs.getString(User.NAME_FIELD),
+              rs.getInt(User.SCORE_FIELD));
+        }
+      }
+      return result;
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
+  /**
+   * Get the entities written since a client last synchronised. Only the latest state of each
+   * entity is included, however many times it was written. An entity deleted after its write was
+   * logged, but before it could be read, is listed as deleted.
+   *
+   * @param since the version returned by the client's last synchronisation
+   * @return the changes since that version
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public Delta getChangesSince(long since) throws DatabaseException {
+    long version = changes.getVersion();
+    List<ChangeLog.Entry> entries = changes.since(since);
+    if (entries == null) return new Delta(version, true);
+    if (!entries.isEmpty()) version = entries.get(entries.size() - 1).getVersion();
+    Delta delta = new Delta(version, false);
+    for (ChangeLog.Entry entry : entries) {
+      long id = entry.getID();
+      try {
+        switch (entry.getKind()) {
+          case EVENT:
+            if (entry.isDeleted()) delta.getDeletedEvents().add(id);
+            else delta.getEvents().add(Event.getByID(id));
+            break;
+          case MAP:
+            if (entry.isDeleted()) delta.getDeletedMaps().add(id);
+            else delta.getMaps().add(ConferenceMap.getByID(id));
+            break;
+          case MARKER:
+            if (entry.isDeleted()) delta.getDeletedMarkers().add(id);
+            else delta.getMarkers().add(MapMarker.getByID(id));
+            break;
+          case ACHIEVEMENT:
+            if (id == ChangeLog.ALL) delta.getAchievements().addAll(getAchievements());
+            else delta.getAchievements().add(Achievement.getByID(id));
+            break;
+          case GROUP:
+            delta.getContentGroups().add(ContentGroup.getByID(id));
+            break;
+        }
+      } catch (NotFoundException e) {
+        // Deleted since the write was logged. Achievements and groups are never deleted
+        switch (entry.getKind()) {
+          case EVENT:
+            delta.getDeletedEvents().add(id);
+            break;
+          case MAP:
+            delta.getDeletedMaps().add(id);
+            break;
+          case MARKER:
+            delta.getDeletedMarkers().add(id);
+            break;
+          default:
+            throw e;
+        }
+      }
+    }
+    return delta;
+  }
+
+  /** @return the statistics of the entity caches */
+  public List<EntityCache.Statistics> getCacheStatistics() {
+    return Arrays.asList(
+        events.getStatistics(),
+        maps.getStatistics(),
+        markers.getStatistics(),
+        achievements.getStatistics(),
+        groups.getStatistics());
+  }
+
+  /** @return the statistics of the sharing of identical concurrent reads */
+  public List<SingleFlight.Statistics> getCoalescingStatistics() {
+    List<SingleFlight.Statistics> result =
+        new ArrayList<>(
+            Arrays.asList(
+                events.getLoadStatistics(),
+                maps.getLoadStatistics(),
+                markers.getLoadStatistics(),
+                achievements.getLoadStatistics(),
+                groups.getLoadStatistics(),
+                users.getStatistics()));
+    for (SingleFlight<List<Object>, Object> flight : queries.values())
+      result.add(flight.getStatistics());
+    return result;
+  }
+
+  // Notifications from the entity classes, made after each successful write
+
+  /** @param event the event that has been created or updated */
+  void changed(Event event) {
+    wrote(true, EVENT_READS);
+    changedCatalog(Catalog.Section.EVENTS);
+    changes.record(ChangeLog.Kind.EVENT, event.getID(), false);
+    events.invalidate(event.getID());
+  }
+
+  /** @param event the event that has been deleted, along with the interest in it */
+  void deleted(Event event) {
+    wrote(true, EVENT_READS);
+    interest.remove(event.getID());
+    changedCatalog(Catalog.Section.EVENTS);
+    changes.record(ChangeLog.Kind.EVENT, event.getID(), true);
+    events.invalidate(event.getID());
+  }
+
+  /** @param map the map that has been created or updated */
+  void changed(ConferenceMap map) {
+    wrote(true, MAP_READS);
+    changedCatalog(Catalog.Section.MAPS);
+    changes.record(ChangeLog.Kind.MAP, map.getID(), false);
+    maps.invalidate(map.getID());
+  }
+
+  /**
+   * @param map the map that has been deleted
+   * @param deletedMarkers the IDs of the markers deleted along with it
+   */
+  void deleted(ConferenceMap map, List<Long> deletedMarkers) {
+    wrote(true, Query.MAPS, Query.MAPS_AFTER, Query.MAP_MARKERS, Query.MAP_MARKERS_AFTER);
+    changedCatalog(Catalog.Section.MAPS);
+    changes.record(ChangeLog.Kind.MAP, map.getID(), true);
+    maps.invalidate(map.getID());
+    for (long marker : deletedMarkers) {
+      changes.record(ChangeLog.Kind.MARKER, marker, true);
+      markers.invalidate(marker);
+    }
+  }
+
+  /** @param marker the marker that has been created or updated */
+  void changed(MapMarker marker) {
+    wrote(true, MARKER_READS);
+    changedCatalog(Catalog.Section.MAPS);
+    changes.record(ChangeLog.Kind.MARKER, marker.getID(), false);
+    markers.invalidate(marker.getID());
+  }
+
+  /** @param marker the marker that has been deleted */
+  void deleted(MapMarker marker) {
+    wrote(true, MARKER_READS);
+    changedCatalog(Catalog.Section.MAPS);
+    changes.record(ChangeLog.Kind.MARKER, marker.getID(), true);
+    markers.invalidate(marker.getID());
+  }
+
+  /**
+   * @param kind the kind of the entities that have been imported
+   * @param ids the IDs of the entities created by the import
+   */
+  void imported(ChangeLog.Kind kind, List<Long> ids) {
+    wrote(true, reads(kind));
+    // The entities are new, so none of them can be cached
+    changedCatalog(section(kind));
+    for (long id : ids) changes.record(kind, id, false);
+  }
+
+  /**
+   * Notes that every table has been replaced by a restore. Clients must fetch everything again, and
+   * the interest counts and leaderboard are reloaded.
+   *
+   * @throws DatabaseException if the restored data could not be loaded
+   */
+  void restored() throws DatabaseException {
+    wrote(true, COALESCED_QUERIES.toArray(new Query[0]));
+    users.invalidate();
+    changedCatalog(SECTIONS);
+    changes.reset();
+    events.clear();
+    maps.clear();
+    markers.clear();
+    achievements.clear();
+    groups.clear();
+    reconcileInterestCounts();
+    if (leaderboard != null) rebuildLeaderboard();
+  }
+
+  /** @param group the content group that has been updated */
+  void changed(ContentGroup group) {
+    // Content groups aren't read through shared reads
+    wrote(false);
+    changedCatalog(Catalog.Section.GROUPS);
+    changes.record(ChangeLog.Kind.GROUP, group.getID(), false);
+    groups.invalidate(group.getID());
+  }
+
+  /** @param achievement the achievement that has been achieved or revoked */
+  void changed(Achievement achievement) {
+    wrote(false);
+    changedCatalog(Catalog.Section.ACHIEVEMENTS);
+    changes.record(ChangeLog.Kind.ACHIEVEMENT, achievement.getID(), false);
+    achievements.invalidate(achievement.getID());
+  }
+
+  /**
+   * @param user the user that has been created, or has achieved or had revoked an achievement
+   * @param conc the connection the write was committed on, which is used to read the new score
+   */
+  void scored(User user, Connection conc) {
+    wrote(false);
+    // Concurrent writes to a user may notify us in any order, so rather than each applying the
+    // score it wrote, the latest committed score is read, one notification at a time per user
+    synchronized (scoreLocks[(int) (user.getID() & (SCORE_LOCK_STRIPES - 1))]) {
+      // A leaderboard loaded later will read the write, so only a loaded one needs the score
+      synchronized (leaderboardLock) {
+        if (leaderboard == null) return;
+      }
+      int score;
+      try {
+        score = user.getScore(conc);
+        // End the read's transaction, if the write left one open
+        if (!conc.getAutoCommit()) conc.commit();
+      } catch (SQLException e) {
+        // The write has been committed, so leave the score to be repaired by reconcileScores()
+        return;
+      }
+      synchronized (leaderboardLock) {
+        leaderboard.put(user.getID(), user.getName(), score);
+      }
+    }
+  }
+
+  /**
+   * @param event the ID of the event whose interest has been marked or unmarked
+   * @param delta the change in the number of interested users
+   */
+  void interestChanged(long event, int delta) {
+    wrote(false, INTEREST_READS);
+    interest.add(event, delta);
+  }
+
+  /** @param user the user that has been created */
+  void created(User user) {
+    wrote(false);
+    // A read in flight may have found no such user
+    users.invalidate();
+  }
+
+  /** @param user the user that has been deleted, along with their achievements and interests */
+  void deleted(User user) {
+    wrote(false, INTEREST_READS);
+    users.invalidate();
+    synchronized (leaderboardLock) {
+      if (leaderboard != null) leaderboard.remove(user.getID());
+    }
+    // The user's achievements are no longer counted, but we don't know which they were
+    changedAchievements();
+  }
+
+  // Notes that any number of achievements may have changed
+  private void changedAchievements() {
+    changedCatalog(Catalog.Section.ACHIEVEMENTS);
+    changes.record(ChangeLog.Kind.ACHIEVEMENT, ChangeLog.ALL, false);
+    achievements.clear();
+  }
+
+  // Notes a write to the given sections of the catalog, so that only they are reloaded
+  private void changedCatalog(Catalog.Section... written) {
+    long version = catalogVersion.incrementAndGet();
+    for (Catalog.Section section : written)
+      sectionVersions.accumulateAndGet(section.ordinal(), version, Math::max);
+  }
+
+  // Utility method for getting the shared reads of entities of the given kind
+  private static Query[] reads(ChangeLog.Kind kind) {
+    switch (kind) {
+      case EVENT:
+        return EVENT_READS;
+      case MAP:
+        return MAP_READS;
+      case MARKER:
+        return MARKER_READS;
+      default:
+        return new Query[0];
+    }
+  }
+
+  // Utility method for getting the section of the catalog holding entities of the given kind
+  private static Catalog.Section section(ChangeLog.Kind kind) {
+    switch (kind) {
+      case EVENT:
+        return Catalog.Section.EVENTS;
+      case MAP:
+      case MARKER:
+        return Catalog.Section.MAPS;
+      case ACHIEVEMENT:
+        return Catalog.Section.ACHIEVEMENTS;
+      default:
+        return Catalog.Section.GROUPS;
+    }
+  }
+
+  /**
+   * @param e the exception thrown by a write
+   * @return true if the write failed because it would have duplicated a unique key, false
+   *     otherwise
+   */
+  static boolean isDuplicate(SQLException e) {
+    // The standard state for unique violations, and the state and error code MySQL uses instead
+    return "23505".equals(e.getSQLState())
+        || ("23000".equals(e.getSQLState()) && e.getErrorCode() == 1062);
+  }
+
+  /** Constructs an entity from the current row of a {@link java.sql#ResultSet}. */
+  interface Mapper<T> {
+    T from(ResultSet rs) throws DatabaseException;
+  }
+
+  /**
+   * Run a query and pass each entity to the consumer as its row is read, rather than collecting
+   * them into a list. Rows are fetched from the database in bounded batches.
+   *
+   * @param query the query to run
+   * @param mapper constructs an entity from each row
+   * @param consumer the consumer to pass each entity to
+   * @param parameters the parameters of the query
+   * @throws DatabaseException if the database could not be accessed
+   * @throws IOException if the consumer failed
+   */
+  static <T> void stream(
+      Query query, Mapper<T> mapper, EntityConsumer<? super T> consumer, long... parameters)
+      throws DatabaseException, IOException {
+    try (Connection conc = getInstance().getConnection(query);
+        PreparedStatement stmt = query.prepare(conc)) {
+      for (int i = 0; i < parameters.length; i++) stmt.setLong(i + 1, parameters[i]);
+      stmt.setFetchSize(STREAM_FETCH_SIZE);
+      try (ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) consumer.accept(mapper.from(rs));
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
+  /**
+   * Run a keyset query, whose last parameter is the limit, and collect a page of its results.
+   * Identical pages read at the same time share one query.
+   *
+   * @param query the query to run, which must be ordered by ID
+   * @param mapper constructs an entity from each row
+   * @param idField the label of the ID column in the results
+   * @param limit the maximum number of entities in the page
+   * @param parameters the parameters of the query, other than the limit
+   * @return the page of entities
+   * @throws IllegalArgumentException if the limit is not positive
+   * @throws DatabaseException if the database could not be accessed
+   */
+  static <T> Page<T> page(
+      Query query, Mapper<T> mapper, String idField, int limit, long... parameters)
+      throws DatabaseException {
+    if (limit < 1) throw new IllegalArgumentException("Limit must be positive");
+    List<Object> key = key(query, parameters);
+    key.add(limit);
+    return getInstance().coalesce(key, () -> loadPage(query, mapper, idField, limit, parameters));
+  }
+
+  private static <T> Page<T> loadPage(
+      Query query, Mapper<T> mapper, String idField, int limit, long... parameters)
+      throws DatabaseException {
+    try (Connection conc = getInstance().getConnection(query);
+        PreparedStatement stmt = query.prepare(conc)) {
+      for (int i = 0; i < parameters.length; i++) stmt.setLong(i + 1, parameters[i]);
+      // Fetch one more row than we need, to find out whether there is another page
+      stmt.setInt(parameters.length + 1, limit + 1);
+      List<T> items = new ArrayList<>();
+      Long next = null;
+      try (ResultSet rs = stmt.executeQuery()) {
+        long last = 0;
+        while (rs.next()) {
+          if (items.size() == limit) {
+            next = last;
+            break;
+          }
+          last = rs.getLong(idField);
+          items.add(mapper.from(rs));
+        }
+      }
+      return new Page<>(items, next);
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
   /**
    * @return the database connection
    * @throws DatabaseException if no connection could be made
@@ -211,4 +935,74 @@ public class Database {
       throw new DatabaseException(e);
     }
   }
+
+  /**
+   * Get a connection for a read that a replica may serve. The primary serves the read instead if
+   * there are no healthy replicas, or if the replicas may not yet have a write that the read must
+   * see: one made by the current client, or one to data the read may add to the shared caches.
+   *
+   * @return the database connection
+   * @throws DatabaseException if no connection could be made
+   */
+  Connection getReadConnection() throws DatabaseException {
+    if (replicas.size() == 0) return getConnection();
+    if (System.nanoTime() - catalogWritten < pinNanos || isPinned()) return getConnection();
+    Connection conc = replicas.getConnection();
+    return conc == null ? getConnection() : conc;
+  }
+
+  // True if the current client has written within the time it takes replicas to catch up
+  private boolean isPinned() {
+    String current = client.get();
+    Long written = current == null ? null : pins.get(current);
+    return written != null && System.nanoTime() - written < pinNanos;
+  }
+
+  private Connection getConnection(Query query) throws DatabaseException {
+    return REPLICA_QUERIES.contains(query) ? getReadConnection() : getConnection();
+  }
+
+  /**
+   * Get the result of a read, sharing that of an identical read already in flight. Reads by a
+   * client that has written recently aren't shared, as the read in flight may be served by a
+   * replica that doesn't have the write yet.
+   *
+   * @param key the query and parameters of the read
+   * @param loader makes the read if it must be made
+   * @return the result of the read, which must not be modified
+   * @throws DatabaseException if the read failed
+   */
+  @SuppressWarnings("unchecked")
+  <T> T coalesce(List<Object> key, SingleFlight.Loader<T> loader) throws DatabaseException {
+    SingleFlight<List<Object>, Object> flight = queries.get(key.get(0));
+    if (flight == null)
+      throw new IllegalArgumentException("Reads of " + key.get(0) + " aren't shared");
+    if (isPinned()) return loader.load();
+    return (T) flight.get(key, loader::load);
+  }
+
+  /**
+   * @param query the query of a read
+   * @param parameters the parameters of the query
+   * @return a key identifying the read, to which further parameters may be added
+   */
+  static List<Object> key(Query query, long... parameters) {
+    List<Object> key = new ArrayList<>(parameters.length + 2);
+    key.add(query);
+    for (long parameter : parameters) key.add(parameter);
+    return key;
+  }
+
+  // Notes a write, so that reads that must see it go to the primary until the replicas have it,
+  // and that the given reads already in flight, which may have missed it, aren't shared with later
+  // callers
+  private void wrote(boolean catalogued, Query... invalidated) {
+    for (Query query : invalidated) queries.get(query).invalidate();
+    long now = System.nanoTime();
+    if (catalogued) catalogWritten = now;
+    String current = client.get();
+    if (current == null) return;
+    pins.put(current, now);
+    if (pins.size() > PIN_CAPACITY) pins.values().removeIf(written -> now - written >= pinNanos);
+  }
 }
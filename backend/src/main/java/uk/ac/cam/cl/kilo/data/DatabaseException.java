@@ -27,4 +27,8 @@ public class DatabaseException extends Exception {
   public DatabaseException(String msg) {
     super(msg);
   }
+
+  public DatabaseException(String msg, Exception e) {
+    super(msg, e);
+  }
 }
@@ -0,0 +1,93 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delta.java
+ *
+ * <p>The entities created, updated and deleted since a client last synchronised. A delta with
+ * {@link #isReset()} set carries no changes, and the client must fetch everything again. Markers
+ * deleted along with their map are listed as deleted themselves.
+ *
+ * @author Nathan Corbyn
+ */
+public class Delta {
+  private final long version;
+  private final boolean reset;
+  private final List<Event> events = new ArrayList<>();
+  private final List<ConferenceMap> maps = new ArrayList<>();
+  private final List<MapMarker> markers = new ArrayList<>();
+  private final List<Achievement> achievements = new ArrayList<>();
+  private final List<ContentGroup> groups = new ArrayList<>();
+  private final List<Long> deletedEvents = new ArrayList<>();
+  private final List<Long> deletedMaps = new ArrayList<>();
+  private final List<Long> deletedMarkers = new ArrayList<>();
+
+  Delta(long version, boolean reset) {
+    this.version = version;
+    this.reset = reset;
+  }
+
+  /** @return the version to synchronise from next time */
+  public long getVersion() {
+    return version;
+  }
+
+  /** @return true if the client must fetch everything again, false otherwise */
+  public boolean isReset() {
+    return reset;
+  }
+
+  /** @return the events created or updated */
+  public List<Event> getEvents() {
+    return events;
+  }
+
+  /** @return the maps created or updated */
+  public List<ConferenceMap> getMaps() {
+    return maps;
+  }
+
+  /** @return the markers created or updated */
+  public List<MapMarker> getMarkers() {
+    return markers;
+  }
+
+  /** @return the achievements created or updated */
+  public List<Achievement> getAchievements() {
+    return achievements;
+  }
+
+  /** @return the content groups updated */
+  public List<ContentGroup> getContentGroups() {
+    return groups;
+  }
+
+  /** @return the IDs of the events deleted */
+  public List<Long> getDeletedEvents() {
+    return deletedEvents;
+  }
+
+  /** @return the IDs of the maps deleted */
+  public List<Long> getDeletedMaps() {
+    return deletedMaps;
+  }
+
+  /** @return the IDs of the markers deleted */
+  public List<Long> getDeletedMarkers() {
+    return deletedMarkers;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Dialect.java
+ *
+ * <p>The SQL and driver settings that differ between the databases we run on.
+ *
+ * @author Nathan Corbyn
+ */
+enum Dialect {
+  // MySQL's driver only streams a result set, rather than reading it all, given this fetch size
+  MYSQL(
+      "AUTO_INCREMENT",
+      "datetime",
+      Integer.MIN_VALUE,
+      "SET FOREIGN_KEY_CHECKS = 0",
+      "SET FOREIGN_KEY_CHECKS = 1"),
+  HSQLDB(
+      "GENERATED BY DEFAULT AS IDENTITY (START WITH 0, INCREMENT BY 1)",
+      "timestamp",
+      1000,
+      "SET DATABASE REFERENTIAL INTEGRITY FALSE",
+      "SET DATABASE REFERENTIAL INTEGRITY TRUE");
+
+  private final String autoIncrement, timestamp, deferConstraints, checkConstraints;
+  private final int streamingFetchSize;
+
+  Dialect(
+      String autoIncrement,
+      String timestamp,
+      int streamingFetchSize,
+      String deferConstraints,
+      String checkConstraints) {
+    this.autoIncrement = autoIncrement;
+    this.timestamp = timestamp;
+    this.streamingFetchSize = streamingFetchSize;
+    this.deferConstraints = deferConstraints;
+    this.checkConstraints = checkConstraints;
+  }
+
+  /**
+   * @param conc a connection to the database
+   * @return the dialect of the database
+   * @throws SQLException if the database could not be identified
+   */
+  static Dialect of(Connection conc) throws SQLException {
+    String product = conc.getMetaData().getDatabaseProductName().toUpperCase();
+    return product.contains("HSQL") ? HSQLDB : MYSQL;
+  }
+
+  /** @return the column option that generates IDs */
+  String getAutoIncrement() {
+    return autoIncrement;
+  }
+
+  /** @return the column type for instants */
+  String getTimestamp() {
+    return timestamp;
+  }
+
+  /** @return the fetch size that streams a result set through a server-side cursor */
+  int getStreamingFetchSize() {
+    return streamingFetchSize;
+  }
+
+  /**
+   * @return the statement that stops foreign keys being checked. On MySQL this affects only the
+   *     connection it runs on, but on HSQLDB it affects the whole database, so every other writer
+   *     must be held off until {@link #getCheckConstraints()} has run.
+   */
+  String getDeferConstraints() {
+    return deferConstraints;
+  }
+
+  /** @return the statement that resumes checking foreign keys */
+  String getCheckConstraints() {
+    return checkConstraints;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * EntityCache.java
+ *
+ * <p>A bounded, least-recently-used, read-through cache of entities keyed by ID. Concurrent misses
+ * on the same ID share one load. Entities have setters, so every caller is given its own copy and
+ * the cached instances are never seen outside the cache.
+ *
+ * @author Nathan Corbyn
+ */
+class EntityCache<T> {
+  /** Loads an entity from the database on a cache miss. */
+  interface Loader<T> {
+    T load(long id) throws DatabaseException;
+  }
+
+  /** Copies an entity, so that the copy may be updated independently. */
+  interface Copier<T> {
+    T copy(T entity);
+  }
+
+  // How long a load may be shared with the other callers missing on the same ID, in milliseconds
+  private static final long LOAD_TIMEOUT_MILLIS = 5000;
+
+  private final String name;
+  private final int capacity;
+  private final Map<Long, T> entries;
+  private final SingleFlight<Long, T> loads;
+  private final Copier<T> copier;
+  private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+  // Incremented by every invalidation so that loads racing with a write are not cached
+  private long generation;
+
+  /**
+   * @param name the name to report statistics under
+   * @param capacity the maximum number of entities to hold
+   * @param copier copies the cached entities for callers
+   */
+  EntityCache(String name, int capacity, Copier<T> copier) {
+    if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+    this.name = name;
+    this.capacity = capacity;
+    this.loads = new SingleFlight<>(name, LOAD_TIMEOUT_MILLIS);
+    this.copier = copier;
+    this.entries =
+        new LinkedHashMap<Long, T>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Long, T> eldest) {
+            return size() > EntityCache.this.capacity;
+          }
+        };
+  }
+
+  /**
+   * Get the entity with the given ID, loading it with the given loader if it is not cached.
+   *
+   * @param id the ID of the entity
+   * @param loader the loader to use on a miss
+   * @return a copy of the entity
+   * @throws DatabaseException if the entity could not be loaded
+   */
+  T get(long id, Loader<T> loader) throws DatabaseException {
+    long observed;
+    synchronized (this) {
+      T entity = entries.get(id);
+      if (entity != null) {
+        hits.increment();
+        return copier.copy(entity);
+      }
+      observed = generation;
+    }
+    misses.increment();
+    // Shared with any other callers that missed on the same ID, so copied like a cached entity
+    T entity = loads.get(id, () -> loader.load(id));
+    synchronized (this) {
+      if (observed == generation) entries.put(id, entity);
+    }
+    return copier.copy(entity);
+  }
+
+  /** @param id the ID of the entity to evict */
+  synchronized void invalidate(long id) {
+    generation++;
+    loads.invalidate();
+    entries.remove(id);
+  }
+
+  /** Evict every entity. */
+  synchronized void clear() {
+    generation++;
+    loads.invalidate();
+    entries.clear();
+  }
+
+  /** @return a snapshot of the statistics of the loads made on misses */
+  SingleFlight.Statistics getLoadStatistics() {
+    return loads.getStatistics();
+  }
+
+  /** @return a snapshot of the cache's statistics */
+  Statistics getStatistics() {
+    int size;
+    synchronized (this) {
+      size = entries.size();
+    }
+    return new Statistics(name, size, capacity, hits.sum(), misses.sum());
+  }
+
+  /** Point-in-time statistics for a cache. */
+  public static class Statistics {
+    private final String name;
+    private final int size, capacity;
+    private final long hits, misses;
+    private final double hitRatio;
+
+    private Statistics(String name, int size, int capacity, long hits, long misses) {
+      this.name = name;
+      this.size = size;
+      this.capacity = capacity;
+      this.hits = hits;
+      this.misses = misses;
+      this.hitRatio = hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+    }
+
+    /** @return the name of the cache */
+    public String getName() {
+      return name;
+    }
+
+    /** @return the number of cached entities */
+    public int getSize() {
+      return size;
+    }
+
+    /** @return the maximum number of cached entities */
+    public int getCapacity() {
+      return capacity;
+    }
+
+    /** @return the number of lookups served from the cache */
+    public long getHits() {
+      return hits;
+    }
+
+    /** @return the number of lookups that went to the database */
+    public long getMisses() {
+      return misses;
+    }
+
+    /** @return the fraction of lookups served from the cache */
+    public double getHitRatio() {
+      return hitRatio;
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.io.IOException;
+
+/**
+ * EntityConsumer.java
+ *
+ * <p>Receives entities one at a time as they are read from the database, so that large lists need
+ * never be held in memory.
+ *
+ * @author Nathan Corbyn
+ */
+public interface EntityConsumer<T> {
+  /**
+   * @param entity the entity read from the database
+   * @throws IOException if the entity could not be written out
+   */
+  void accept(T entity) throws IOException;
+}
@@ -18,6 +18,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Event.java
@@ -63,29 +64,17 @@ public class Event {
     this.desc = desc;
     this.start = start;
     this.end = end;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "INSERT INTO "
-                  + TABLE
-                  + "("
-                  + NAME_FIELD
-                  + ", "
-                  + DESC_FIELD
-                  + ", "
-                  + START_FIELD
-                  + ", "
-                  + END_FIELD
-                  + ") VALUES (?, ?, ?, ?)",
-              PreparedStatement.RETURN_GENERATED_KEYS);
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.EVENT_INSERT.prepare(conc)) {
       stmt.setString(1, name);
       stmt.setString(2, desc);
       stmt.setTimestamp(3, Timestamp.from(start));
       stmt.setTimestamp(4, Timestamp.from(end));
       stmt.executeUpdate();
       ResultSet rs = stmt.getGeneratedKeys();
-      if (!rs.first()) throw new DatabaseException("Failed to generate ID for event");
+      if (!rs.next()) throw new DatabaseException("Failed to generate ID for event");
       id = rs.getLong(1);
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -104,6 +93,11 @@ public class Event {
     this.end = end;
   }
 
+  /** @return a copy of the event, which may be updated without affecting this one */
+  Event copy() {
+    return new Event(id, name, desc, start, end);
+  }
+
   /** @return the ID of the event */
   public long getID() {
     return this.id;
@@ -123,15 +117,14 @@ public class Event {
     if (name == null || name.length() < 4)
       throw new IllegalArgumentException("Name must not be null or less than four characters");
     if (name.equals(this.name)) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE " + TABLE + " SET " + NAME_FIELD + " = ? WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.EVENT_SET_NAME.prepare(conc)) {
       stmt.setString(1, name);
       stmt.setLong(2, id);
       stmt.executeUpdate();
       // Only update if transaction is successful
       this.name = name;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -149,15 +142,14 @@ public class Event {
   public void setDescription(String desc) throws DatabaseException {
     if (desc == null) desc = "";
     if (desc.equals(this.desc)) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE " + TABLE + " SET " + DESC_FIELD + " = ? WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.EVENT_SET_DESC.prepare(conc)) {
       stmt.setString(1, desc);
       stmt.setLong(2, id);
       stmt.executeUpdate();
       // Only update if transaction is successful
       this.desc = desc;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -184,18 +176,8 @@ public class Event {
       throw new IllegalArgumentException("The start and end times must not be null");
     if (start.isAfter(end)) throw new IllegalArgumentException("Event ends before it starts");
     if (start.equals(this.start) && end.equals(this.end)) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE "
-                  + TABLE
-                  + " SET "
-                  + START_FIELD
-                  + " = ?, "
-                  + END_FIELD
-                  + " = ? WHERE "
-                  + ID_FIELD
-                  + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.EVENT_SET_TIMING.prepare(conc)) {
       stmt.setTimestamp(1, Timestamp.from(start));
       stmt.setTimestamp(2, Timestamp.from(end));
       stmt.setLong(3, id);
@@ -203,6 +185,7 @@ public class Event {
       // Only update if transaction is successful
       this.start = start;
       this.end = end;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -227,22 +210,8 @@ public class Event {
         && this.desc.equals(desc)
         && this.start.equals(start)
         && this.end.equals(end)) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE "
-                  + TABLE
-                  + " SET "
-                  + NAME_FIELD
-                  + " = ?, "
-                  + DESC_FIELD
-                  + " = ?, "
-                  + START_FIELD
-                  + " = ?, "
-                  + END_FIELD
-                  + " = ? WHERE "
-                  + ID_FIELD
-                  + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.EVENT_SET.prepare(conc)) {
       stmt.setString(1, name);
       stmt.setString(2, desc);
       stmt.setTimestamp(3, Timestamp.from(start));
@@ -254,6 +223,7 @@ public class Event {
       this.desc = desc;
       this.start = start;
       this.end = end;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -264,22 +234,7 @@ public class Event {
    * @throws DatabaseException if the database could not be accessed
    */
   public int getInterestedCount() throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "SELECT COUNT(*) FROM "
-                  + INTERESTED_TABLE
-                  + " WHERE "
-                  + INTERESTED_EVENT_ID_FIELD
-                  + " = ?");
-      stmt.setLong(1, id);
-      ResultSet rs = stmt.executeQuery();
-      // We assert here because a COUNT(*) query should always return a single row
-      assert (rs.first());
-      return rs.getInt(1);
-    } catch (SQLException e) {
-      throw new DatabaseException(e);
-    }
+    return (int) Database.getInstance().getInterestCount(id);
   }
 
   /**
@@ -289,27 +244,30 @@ public class Event {
    * @throws DatabaseException if the event could not be deleted
    */
   public void delete() throws DatabaseException {
+    // Deletes interest in the event, so must not race with a load of the interest counters
+    Lock lock = Database.getInstance().interest.writing();
+    lock.lock();
     try (Connection conc = Database.getInstance().getConnection()) {
       try {
         // Need to execute two transactions atomically, so disable auto-commit
         conc.setAutoCommit(false);
-        PreparedStatement stmt =
-            conc.prepareStatement("DELETE FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
-        stmt.setLong(1, id);
-        stmt.executeUpdate();
-        stmt =
-            conc.prepareStatement(
-                "DELETE FROM " + INTERESTED_TABLE + " WHERE " + INTERESTED_EVENT_ID_FIELD + " = ?");
-        stmt.setLong(1, id);
-        stmt.executeUpdate();
+        for (Query query : new Query[] {Query.INTERESTED_DELETE_FOR_EVENT, Query.EVENT_DELETE}) {
+          try (PreparedStatement stmt = query.prepare(conc)) {
+            stmt.setLong(1, id);
+            stmt.executeUpdate();
+          }
+        }
         // Commit if both transactions were successful
         conc.commit();
+        Database.getInstance().deleted(this);
       } catch (SQLException e) {
         conc.rollback();
         throw e;
       }
     } catch (SQLException e) {
       throw new DatabaseException(e);
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -321,12 +279,15 @@ public class Event {
    * @throws DatabaseException if the event could not be found
    */
   public static Event getByID(long id) throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement("SELECT * FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
+    return Database.getInstance().events.get(id, Event::load);
+  }
+
+  private static Event load(long id) throws DatabaseException {
+    try (Connection conc = Database.getInstance().getReadConnection();
+        PreparedStatement stmt = Query.EVENT_BY_ID.prepare(conc)) {
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
-      if (!rs.first()) throw new DatabaseException("No event with ID " + id);
+      if (!rs.next()) throw new NotFoundException("No event with ID " + id);
       return from(rs);
     } catch (SQLException e) {
       throw new DatabaseException(e);
@@ -0,0 +1,107 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * EventIndex.java
+ *
+ * <p>An immutable index of events by time. Events are held sorted by start time and treated as an
+ * implicit balanced binary search tree, in which each node also records the latest end time in its
+ * subtree. This lets window queries skip every subtree that ends too early or starts too late, so
+ * they take O(log n + k) time for k results.
+ *
+ * @author Nathan Corbyn
+ */
+public final class EventIndex {
+  private final Event[] events;
+  // Latest end time of the subtree rooted at each index
+  private final Instant[] maxEnd;
+
+  EventIndex(List<Event> events) {
+    this.events = events.toArray(new Event[0]);
+    Arrays.sort(this.events, Comparator.comparing(Event::getStart).thenComparing(Event::getEnd));
+    this.maxEnd = new Instant[this.events.length];
+    build(0, this.events.length);
+  }
+
+  private Instant build(int lo, int hi) {
+    if (lo >= hi) return Instant.MIN;
+    int mid = (lo + hi) >>> 1;
+    Instant end = events[mid].getEnd(), left = build(lo, mid), right = build(mid + 1, hi);
+    if (left.isAfter(end)) end = left;
+    if (right.isAfter(end)) end = right;
+    maxEnd[mid] = end;
+    return end;
+  }
+
+  /**
+   * @param from the start of the window
+   * @param to the end of the window
+   * @return the events that overlap the window, in order of start time
+   * @throws IllegalArgumentException if the window ends before it starts
+   */
+  public List<Event> getEventsBetween(Instant from, Instant to) {
+    if (from.isAfter(to)) throw new IllegalArgumentException("Window ends before it starts");
+    List<Event> result = new ArrayList<>();
+    collect(0, events.length, from, to, result);
+    return result;
+  }
+
+  /**
+   * @param instant the instant to query
+   * @return the events in progress at the given instant, in order of start time
+   */
+  public List<Event> getEventsAt(Instant instant) {
+    List<Event> result = new ArrayList<>();
+    // An event that starts at the instant is in progress, but getEventsBetween excludes it
+    collect(0, events.length, instant, instant.plusNanos(1), result);
+    return result;
+  }
+
+  /**
+   * @param instant the instant to query
+   * @param limit the maximum number of events to return
+   * @return the first events to start after the given instant, in order of start time
+   */
+  public List<Event> getEventsAfter(Instant instant, int limit) {
+    // Binary search for the first event to start after the instant
+    int lo = 0, hi = events.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (events[mid].getStart().isAfter(instant)) hi = mid;
+      else lo = mid + 1;
+    }
+    List<Event> result = new ArrayList<>();
+    for (int i = lo; i < events.length && result.size() < limit; i++) result.add(events[i]);
+    return result;
+  }
+
+  // In-order traversal of the events overlapping [from, to), pruning subtrees that cannot overlap
+  private void collect(int lo, int hi, Instant from, Instant to, List<Event> result) {
+    if (lo >= hi) return;
+    int mid = (lo + hi) >>> 1;
+    // Nothing in this subtree ends after the window starts
+    if (!maxEnd[mid].isAfter(from)) return;
+    collect(lo, mid, from, to, result);
+    // This event, and everything to its right, starts after the window ends
+    if (!events[mid].getStart().isBefore(to)) return;
+    if (events[mid].getEnd().isAfter(from)) result.add(events[mid]);
+    collect(mid + 1, hi, from, to, result);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ImportReport.java
+ *
+ * <p>The outcome of a bulk import: the IDs of the entities created and the rows that were rejected.
+ *
+ * @author Nathan Corbyn
+ */
+public class ImportReport {
+  // Rejected rows beyond this many are counted but not described
+  private static final int MAX_ERRORS = 1000;
+
+  /** A row that was rejected, and why. */
+  public static class RowError {
+    private final int row;
+    private final String error;
+
+    RowError(int row, String error) {
+      this.row = row;
+      this.error = error;
+    }
+
+    /** @return the number of the row, counting from one and excluding any header */
+    public int getRow() {
+      return row;
+    }
+
+    /** @return why the row was rejected */
+    public String getError() {
+      return error;
+    }
+  }
+
+  private final List<Long> ids = new ArrayList<>();
+  private final List<RowError> errors = new ArrayList<>();
+  private int failed;
+
+  ImportReport() {}
+
+  void imported(List<Long> created) {
+    ids.addAll(created);
+  }
+
+  void failed(int row, String error) {
+    if (failed++ < MAX_ERRORS) errors.add(new RowError(row, error));
+  }
+
+  /** @return the number of entities created */
+  public int getImported() {
+    return ids.size();
+  }
+
+  /** @return the IDs of the entities created, in the order of their rows */
+  public List<Long> getIDs() {
+    return ids;
+  }
+
+  /** @return the number of rows rejected */
+  public int getFailed() {
+    return failed;
+  }
+
+  /** @return the first of the rows rejected, in order */
+  public List<RowError> getErrors() {
+    return errors;
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Importer.java
+ *
+ * <p>Bulk import of events, maps and markers. Rows are validated as they are read, and the valid
+ * rows are inserted in chunks, each chunk a single batch in its own transaction. If the database
+ * rejects a batch, its rows are inserted one at a time so that only the offending rows are lost.
+ *
+ * @author Nathan Corbyn
+ */
+public final class Importer {
+  // The number of rows inserted in each transaction
+  static final int CHUNK_SIZE = 500;
+  // The lengths of the columns in the schema
+  private static final int NAME_LENGTH = 255, DESC_LENGTH = 4096;
+
+  /** A source of rows to import, each a map from column names to values. */
+  public interface Rows {
+    /**
+     * @return the next row, or null if there are no more rows
+     * @throws IOException if the next row could not be read
+     */
+    Map<String, String> next() throws IOException;
+  }
+
+  // Validates a row, returning the parameters to insert it with
+  private interface Parser {
+    Object[] parse(Map<String, String> row);
+  }
+
+  private Importer() {}
+
+  /**
+   * Import events from rows with the columns 'name', 'description', 'start' and 'end'. Times are
+   * given in seconds since the epoch or in ISO-8601 format, and the description may be omitted.
+   *
+   * @param rows the rows to import
+   * @return the outcome of the import
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public static ImportReport importEvents(Rows rows) throws DatabaseException {
+    return run(
+        rows,
+        ChangeLog.Kind.EVENT,
+        Query.EVENT_INSERT,
+        row -> {
+          Instant start = instant(row, Event.START_FIELD), end = instant(row, Event.END_FIELD);
+          if (start.isAfter(end)) throw new IllegalArgumentException("Event ends before it starts");
+          return new Object[] {
+            name(row, Event.NAME_FIELD),
+            description(row, Event.DESC_FIELD),
+            Timestamp.from(start),
+            Timestamp.from(end)
+          };
+        });
+  }
+
+  /**
+   * Import maps from rows with the columns 'name' and 'image'.
+   *
+   * @param rows the rows to import
+   * @param images resolves the image named by a row, throwing {@link IllegalArgumentException} if
+   *     there is no such image
+   * @return the outcome of the import
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public static ImportReport importMaps(Rows rows, Function<String, Path> images)
+      throws DatabaseException {
+    return run(
+        rows,
+        ChangeLog.Kind.MAP,
+        Query.MAP_INSERT,
+        row ->
+            new Object[] {
+              name(row, ConferenceMap.NAME_FIELD),
+              images.apply(value(row, ConferenceMap.IMAGE_FIELD)).toString()
+            });
+  }
+
+  /**
+   * Resolve the images named by imported maps to files already uploaded to the given directory.
+   * The resolved paths are relative to the working directory, as those of images uploaded one at a
+   * time are, so they never reveal where the server is installed.
+   *
+   * @param uploadDir the directory of uploaded files
+   * @return the resolver, which throws {@link IllegalArgumentException} if there is no uploaded
+   *     file with the given name, including if the name leads out of the directory
+   */
+  public static Function<String, Path> uploadedImages(Path uploadDir) {
+    return name -> {
+      Path dir = uploadDir.toAbsolutePath().normalize();
+      Path file = dir.resolve(name).normalize();
+      if (!file.startsWith(dir) || !Files.isRegularFile(file))
+        throw new IllegalArgumentException("No uploaded image " + name);
+      return uploadDir.resolve(dir.relativize(file));
+    };
+  }
+
+  /**
+   * Import markers from rows with the columns 'map_id', 'name', 'description', 'x' and 'y'. The
+   * description may be omitted.
+   *
+   * @param rows the rows to import
+   * @return the outcome of the import
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public static ImportReport importMarkers(Rows rows) throws DatabaseException {
+    Set<Long> maps = new HashSet<>();
+    for (ConferenceMap map : Database.getInstance().getMaps()) maps.add(map.getID());
+    return run(
+        rows,
+        ChangeLog.Kind.MARKER,
+        Query.MARKER_INSERT,
+        row -> {
+          long map = id(row, MapMarker.MAP_FIELD);
+          if (!maps.contains(map)) throw new IllegalArgumentException("No map with ID " + map);
+          return new Object[] {
+            map,
+            name(row, MapMarker.NAME_FIELD),
+            description(row, MapMarker.DESC_FIELD),
+            integer(row, MapMarker.X_FIELD),
+            integer(row, MapMarker.Y_FIELD)
+          };
+        });
+  }
+
+  private static ImportReport run(Rows rows, ChangeLog.Kind kind, Query insert, Parser parser)
+      throws DatabaseException {
+    ImportReport report = new ImportReport();
+    List<Integer> numbers = new ArrayList<>();
+    List<Object[]> chunk = new ArrayList<>();
+    int number = 0;
+    while (true) {
+      Map<String, String> row;
+      try {
+        row = rows.next();
+      } catch (IOException e) {
+        // The rest of the file can't be read, but the rows before it are still imported
+        report.failed(number + 1, e.getMessage());
+        break;
+      }
+      if (row == null) break;
+      number++;
+      try {
+        chunk.add(parser.parse(row));
+        numbers.add(number);
+      } catch (IllegalArgumentException e) {
+        report.failed(number, e.getMessage());
+      }
+      if (chunk.size() == CHUNK_SIZE) {
+        insert(kind, insert, numbers, chunk, report);
+        numbers.clear();
+        chunk.clear();
+      }
+    }
+    if (!chunk.isEmpty()) insert(kind, insert, numbers, chunk, report);
+    return report;
+  }
+
+  private static void insert(
+      ChangeLog.Kind kind,
+      Query insert,
+      List<Integer> numbers,
+      List<Object[]> chunk,
+      ImportReport report)
+      throws DatabaseException {
+    List<Long> ids = new ArrayList<>();
+    try (Connection conc = Database.getInstance().getConnection()) {
+      try {
+        conc.setAutoCommit(false);
+        try (PreparedStatement stmt = insert.prepare(conc)) {
+          for (Object[] row : chunk) {
+            bind(stmt, row);
+            stmt.addBatch();
+          }
+          stmt.executeBatch();
+          ResultSet rs = stmt.getGeneratedKeys();
+          while (rs.next()) ids.add(rs.getLong(1));
+        }
+        conc.commit();
+      } catch (BatchUpdateException e) {
+        conc.rollback();
+        ids.clear();
+        // Find the rows the database rejected by inserting them one at a time
+        conc.setAutoCommit(true);
+        for (int i = 0; i < chunk.size(); i++) {
+          try (PreparedStatement stmt = insert.prepare(conc)) {
+            bind(stmt, chunk.get(i));
+            stmt.executeUpdate();
+            ResultSet rs = stmt.getGeneratedKeys();
+            if (rs.next()) ids.add(rs.getLong(1));
+          } catch (SQLException f) {
+            report.failed(numbers.get(i), f.getMessage());
+          }
+        }
+      } catch (SQLException e) {
+        conc.rollback();
+        throw e;
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+    report.imported(ids);
+    if (!ids.isEmpty()) Database.getInstance().imported(kind, ids);
+  }
+
+  private static void bind(PreparedStatement stmt, Object[] row) throws SQLException {
+    for (int i = 0; i < row.length; i++) stmt.setObject(i + 1, row[i]);
+  }
+
+  // Utility methods for validating the columns of a row
+
+  private static String value(Map<String, String> row, String column) {
+    String value = row.get(column);
+    if (value == null || value.trim().isEmpty())
+      throw new IllegalArgumentException("Missing " + column);
+    return value.trim();
+  }
+
+  private static String name(Map<String, String> row, String column) {
+    String name = value(row, column);
+    if (name.length() > NAME_LENGTH)
+      throw new IllegalArgumentException(column + " is longer than " + NAME_LENGTH);
+    return name;
+  }
+
+  private static String description(Map<String, String> row, String column) {
+    String desc = row.get(column);
+    if (desc == null) return "";
+    if (desc.length() > DESC_LENGTH)
+      throw new IllegalArgumentException(column + " is longer than " + DESC_LENGTH);
+    return desc;
+  }
+
+  private static long id(Map<String, String> row, String column) {
+    String value = value(row, column);
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(column + " is not an ID: " + value);
+    }
+  }
+
+  private static int integer(Map<String, String> row, String column) {
+    String value = value(row, column);
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(column + " is not an integer: " + value);
+    }
+  }
+
+  private static Instant instant(Map<String, String> row, String column) {
+    String value = value(row, column);
+    try {
+      if (value.matches("-?\\d+")) return Instant.ofEpochSecond(Long.parseLong(value));
+      return Instant.parse(value);
+    } catch (NumberFormatException | DateTimeException e) {
+      throw new IllegalArgumentException(column + " is not a time: " + value);
+    }
+  }
+}
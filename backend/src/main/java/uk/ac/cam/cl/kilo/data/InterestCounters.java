@@ -0,0 +1,115 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * InterestCounters.java
+ *
+ * <p>The number of users interested in each event, held in memory. Each counter is a {@link
+ * LongAdder}, which spreads concurrent updates over several cells, so marking interest in a popular
+ * event does not contend on a single value.
+ *
+ * <p>Writes to the 'is interested in' relation hold the shared {@link #writing()} lock from before
+ * they write until they have updated the counters. Loading the counters takes the exclusive side
+ * of the lock, so no write can be counted both by the load and by its own update.
+ *
+ * @author Nathan Corbyn
+ */
+class InterestCounters {
+  /** Loads the count for each event with at least one interested user. */
+  interface Loader {
+    Map<Long, Long> load() throws DatabaseException;
+  }
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  // Null until first loaded, after which updates are applied to it
+  private volatile Map<Long, LongAdder> counts;
+
+  /** @return the lock to hold while writing to the relation and updating the counters */
+  Lock writing() {
+    return lock.readLock();
+  }
+
+  /** @return the lock to hold to keep every writer of the relation out, such as for a restore */
+  Lock replacing() {
+    return lock.writeLock();
+  }
+
+  /**
+   * @param event the ID of the event
+   * @param delta the change in the number of interested users
+   */
+  void add(long event, long delta) {
+    Map<Long, LongAdder> current = counts;
+    if (current != null && delta != 0)
+      current.computeIfAbsent(event, id -> new LongAdder()).add(delta);
+  }
+
+  /** @param event the ID of the event that has been deleted, along with its interest */
+  void remove(long event) {
+    Map<Long, LongAdder> current = counts;
+    if (current != null) current.remove(event);
+  }
+
+  /**
+   * @param loader loads the counts if they have not been loaded
+   * @return the count for each event with at least one interested user
+   * @throws DatabaseException if the counts had to be loaded and could not be
+   */
+  Map<Long, Long> get(Loader loader) throws DatabaseException {
+    Map<Long, LongAdder> current = counts;
+    if (current == null) current = load(loader, false);
+    Map<Long, Long> result = new HashMap<>();
+    for (Map.Entry<Long, LongAdder> entry : current.entrySet()) {
+      long count = entry.getValue().sum();
+      if (count > 0) result.put(entry.getKey(), count);
+    }
+    return result;
+  }
+
+  /**
+   * Replace the counters with fresh counts, repairing any drift.
+   *
+   * @param loader loads the counts
+   * @throws DatabaseException if the counts could not be loaded
+   */
+  void reload(Loader loader) throws DatabaseException {
+    load(loader, true);
+  }
+
+  private Map<Long, LongAdder> load(Loader loader, boolean force) throws DatabaseException {
+    Lock exclusive = lock.writeLock();
+    exclusive.lock();
+    try {
+      if (counts != null && !force) return counts;
+      Map<Long, LongAdder> fresh = new ConcurrentHashMap<>();
+      for (Map.Entry<Long, Long> entry : loader.load().entrySet()) {
+        LongAdder adder = new LongAdder();
+        adder.add(entry.getValue());
+        fresh.put(entry.getKey(), adder);
+      }
+      counts = fresh;
+      return fresh;
+    } finally {
+      exclusive.unlock();
+    }
+  }
+}
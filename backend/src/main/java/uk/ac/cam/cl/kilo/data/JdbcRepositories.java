@@ -0,0 +1,123 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.List;
+
+/**
+ * JdbcRepositories.java
+ *
+ * <p>The repositories backed by the JDBC data source of the {@link Database}. The same SQL runs
+ * against MySQL and the embedded in-memory engine, so this serves both.
+ *
+ * @author Nathan Corbyn
+ */
+final class JdbcRepositories implements Repositories {
+  private final Database database;
+
+  private final PagedRepository<Event> events =
+      new PagedRepository<Event>() {
+        @Override
+        public Event getByID(long id) throws DatabaseException {
+          return Event.getByID(id);
+        }
+
+        @Override
+        public List<Event> getAll() throws DatabaseException {
+          return database.getEvents();
+        }
+
+        @Override
+        public Page<Event> getPage(long after, int limit) throws DatabaseException {
+          return database.getEvents(after, limit);
+        }
+      };
+
+  private final PagedRepository<ConferenceMap> maps =
+      new PagedRepository<ConferenceMap>() {
+        @Override
+        public ConferenceMap getByID(long id) throws DatabaseException {
+          return ConferenceMap.getByID(id);
+        }
+
+        @Override
+        public List<ConferenceMap> getAll() throws DatabaseException {
+          return database.getMaps();
+        }
+
+        @Override
+        public Page<ConferenceMap> getPage(long after, int limit) throws DatabaseException {
+          return database.getMaps(after, limit);
+        }
+      };
+
+  private final ListRepository<Achievement> achievements =
+      new ListRepository<Achievement>() {
+        @Override
+        public Achievement getByID(long id) throws DatabaseException {
+          return Achievement.getByID(id);
+        }
+
+        @Override
+        public List<Achievement> getAll() throws DatabaseException {
+          return database.getAchievements();
+        }
+      };
+
+  private final ListRepository<ContentGroup> groups =
+      new ListRepository<ContentGroup>() {
+        @Override
+        public ContentGroup getByID(long id) throws DatabaseException {
+          return ContentGroup.getByID(id);
+        }
+
+        @Override
+        public List<ContentGroup> getAll() throws DatabaseException {
+          return database.getContentGroups();
+        }
+      };
+
+  JdbcRepositories(Database database) {
+    this.database = database;
+  }
+
+  @Override
+  public PagedRepository<Event> events() {
+    return events;
+  }
+
+  @Override
+  public PagedRepository<ConferenceMap> maps() {
+    return maps;
+  }
+
+  @Override
+  public Repository<MapMarker> markers() {
+    return MapMarker::getByID;
+  }
+
+  @Override
+  public ListRepository<Achievement> achievements() {
+    return achievements;
+  }
+
+  @Override
+  public ListRepository<ContentGroup> groups() {
+    return groups;
+  }
+
+  @Override
+  public Repository<User> users() {
+    return User::getByID;
+  }
+}
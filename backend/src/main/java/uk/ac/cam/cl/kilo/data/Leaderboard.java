@@ -0,0 +1,255 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Leaderboard.java
+ *
+ * <p>The users ordered by score, held in memory. Users are kept in a treap ordered by descending
+ * score and then by ID, in which each node records the size of its subtree. This lets a user's
+ * rank, and the standings from any position, be found in O(log n) time without sorting the users.
+ * The leaderboard is safe for use by multiple threads.
+ *
+ * @author Nathan Corbyn
+ */
+public class Leaderboard {
+  /** A user's position on the leaderboard. */
+  public static class Standing {
+    private final long id;
+    private final String name;
+    private final int score, rank;
+
+    private Standing(long id, String name, int score, int rank) {
+      this.id = id;
+      this.name = name;
+      this.score = score;
+      this.rank = rank;
+    }
+
+    /** @return the ID of the user */
+    public long getID() {
+      return id;
+    }
+
+    /** @return the name of the user */
+    public String getName() {
+      return name;
+    }
+
+    /** @return the score of the user */
+    public int getScore() {
+      return score;
+    }
+
+    /** @return the rank of the user, where users with equal scores share a rank */
+    public int getRank() {
+      return rank;
+    }
+  }
+
+  private static class Node {
+    private final long id;
+    private final String name;
+    private final int score, priority;
+    private Node left, right;
+    private int size = 1;
+
+    private Node(long id, String name, int score, int priority) {
+      this.id = id;
+      this.name = name;
+      this.score = score;
+      this.priority = priority;
+    }
+  }
+
+  private final Map<Long, Node> nodes = new HashMap<>();
+  private final Random random = new Random();
+  private Node root;
+
+  /**
+   * Add a user to the leaderboard, or move them if they are already on it.
+   *
+   * @param id the ID of the user
+   * @param name the name of the user
+   * @param score the current score of the user
+   */
+  public synchronized void put(long id, String name, int score) {
+    remove(id);
+    Node node = new Node(id, name, score, random.nextInt());
+    nodes.put(id, node);
+    root = insert(root, node);
+  }
+
+  /** @param id the ID of the user to remove from the leaderboard */
+  public synchronized void remove(long id) {
+    Node node = nodes.remove(id);
+    if (node != null) root = delete(root, node);
+  }
+
+  /**
+   * @param other a leaderboard not visible to other threads, so that locking both can't deadlock
+   * @return the number of users whose scores differ between the leaderboards, or who are only on
+   *     one of them
+   */
+  synchronized int countDifferences(Leaderboard other) {
+    int count = 0;
+    synchronized (other) {
+      for (Node node : nodes.values()) {
+        Node match = other.nodes.get(node.id);
+        if (match == null || match.score != node.score) count++;
+      }
+      for (long id : other.nodes.keySet()) if (!nodes.containsKey(id)) count++;
+    }
+    return count;
+  }
+
+  /** @return the number of users on the leaderboard */
+  public synchronized int size() {
+    return size(root);
+  }
+
+  /**
+   * @param id the ID of the user
+   * @return the standing of the user, or null if they are not on the leaderboard
+   */
+  public synchronized Standing getStanding(long id) {
+    Node node = nodes.get(id);
+    return node == null ? null : standing(node);
+  }
+
+  /**
+   * @param offset the number of users to skip from the top of the leaderboard
+   * @param limit the maximum number of standings to return
+   * @return the standings from the given position, best first
+   */
+  public synchronized List<Standing> getStandings(int offset, int limit) {
+    List<Standing> result = new ArrayList<>();
+    collect(root, Math.max(offset, 0), limit, result);
+    return result;
+  }
+
+  /**
+   * @param id the ID of the user
+   * @param radius the number of users to include either side of the user
+   * @return the standings of the user and those around them, best first, or an empty list if the
+   *     user is not on the leaderboard
+   */
+  public synchronized List<Standing> getStandingsAround(long id, int radius) {
+    Node node = nodes.get(id);
+    if (node == null) return new ArrayList<>();
+    int position = countBefore(root, node.score, node.id);
+    int offset = Math.max(position - radius, 0);
+    return getStandings(offset, position - offset + radius + 1);
+  }
+
+  private Standing standing(Node node) {
+    // Users with higher scores are exactly those before the first user with this score
+    int rank = countBefore(root, node.score, Long.MIN_VALUE) + 1;
+    return new Standing(node.id, node.name, node.score, rank);
+  }
+
+  private static int size(Node node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private static void update(Node node) {
+    node.size = size(node.left) + size(node.right) + 1;
+  }
+
+  // Whether a user with the given score and ID comes before the node
+  private static boolean before(int score, long id, Node node) {
+    return score > node.score || (score == node.score && id < node.id);
+  }
+
+  // The number of users that come before a user with the given score and ID
+  private static int countBefore(Node node, int score, long id) {
+    int count = 0;
+    while (node != null) {
+      if (before(score, id, node) || (score == node.score && id == node.id)) node = node.left;
+      else {
+        count += size(node.left) + 1;
+        node = node.right;
+      }
+    }
+    return count;
+  }
+
+  private static Node insert(Node node, Node inserted) {
+    if (node == null) return inserted;
+    if (before(inserted.score, inserted.id, node)) {
+      node.left = insert(node.left, inserted);
+      if (node.left.priority > node.priority) node = rotateRight(node);
+    } else {
+      node.right = insert(node.right, inserted);
+      if (node.right.priority > node.priority) node = rotateLeft(node);
+    }
+    update(node);
+    return node;
+  }
+
+  private static Node delete(Node node, Node deleted) {
+    if (node == deleted) return merge(node.left, node.right);
+    if (before(deleted.score, deleted.id, node)) node.left = delete(node.left, deleted);
+    else node.right = delete(node.right, deleted);
+    update(node);
+    return node;
+  }
+
+  // Joins two treaps, where every node of the first comes before every node of the second
+  private static Node merge(Node left, Node right) {
+    if (left == null) return right;
+    if (right == null) return left;
+    if (left.priority > right.priority) {
+      left.right = merge(left.right, right);
+      update(left);
+      return left;
+    }
+    right.left = merge(left, right.left);
+    update(right);
+    return right;
+  }
+
+  private static Node rotateRight(Node node) {
+    Node left = node.left;
+    node.left = left.right;
+    left.right = node;
+    update(node);
+    update(left);
+    return left;
+  }
+
+  private static Node rotateLeft(Node node) {
+    Node right = node.right;
+    node.right = right.left;
+    right.left = node;
+    update(node);
+    update(right);
+    return right;
+  }
+
+  // In-order traversal from the given position, skipping whole subtrees before it
+  private void collect(Node node, int offset, int limit, List<Standing> result) {
+    if (node == null || result.size() >= limit) return;
+    int left = size(node.left);
+    if (offset < left) collect(node.left, offset, limit, result);
+    if (result.size() >= limit) return;
+    if (offset <= left) result.add(standing(node));
+    collect(node.right, Math.max(offset - left - 1, 0), limit, result);
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.List;
+
+/**
+ * ListRepository.java
+ *
+ * <p>A repository whose entities are few enough to be listed in full.
+ *
+ * @author Nathan Corbyn
+ */
+public interface ListRepository<T> extends Repository<T> {
+  /**
+   * @return every entity in the repository
+   * @throws DatabaseException if the entities could not be read
+   */
+  List<T> getAll() throws DatabaseException;
+}
@@ -56,23 +56,8 @@ public class MapMarker {
     this.map = map.getID();
     this.x = x;
     this.y = y;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "INSERT INTO "
-                  + TABLE
-                  + "("
-                  + MAP_FIELD
-                  + ", "
-                  + NAME_FIELD
-                  + ", "
-                  + DESC_FIELD
-                  + ", "
-                  + X_FIELD
-                  + ", "
-                  + Y_FIELD
-                  + ") VALUES (?, ?, ?, ? , ?)",
-              PreparedStatement.RETURN_GENERATED_KEYS);
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.MARKER_INSERT.prepare(conc)) {
       stmt.setLong(1, this.map);
       stmt.setString(2, name);
       stmt.setString(3, desc);
@@ -80,8 +65,9 @@ public class MapMarker {
       stmt.setInt(5, y);
       stmt.executeUpdate();
       ResultSet rs = stmt.getGeneratedKeys();
-      if (!rs.first()) throw new DatabaseException("Failed to generate ID for marker");
+      if (!rs.next()) throw new DatabaseException("Failed to generate ID for marker");
       id = rs.getLong(1);
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -99,6 +85,11 @@ public class MapMarker {
     this.y = y;
   }
 
+  /** @return a copy of the marker, which may be updated without affecting this one */
+  MapMarker copy() {
+    return new MapMarker(id, map, name, desc, x, y);
+  }
+
   /** @return the ID of the marker */
   public long getID() {
     return id;
@@ -118,15 +109,14 @@ public class MapMarker {
     if (name == null || name.equals(""))
       throw new IllegalArgumentException("Name must not be null or empty");
     if (name.equals(this.name)) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE " + TABLE + " SET " + NAME_FIELD + " = ? WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.MARKER_SET_NAME.prepare(conc)) {
       stmt.setString(1, name);
       stmt.setLong(2, id);
       stmt.executeUpdate();
       // Only update if transaction is successful
       this.name = name;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -144,15 +134,14 @@ public class MapMarker {
   public void setDescription(String desc) throws DatabaseException {
     if (desc == null) desc = "";
     if (desc.equals(this.desc)) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE " + TABLE + " SET " + DESC_FIELD + " = ? WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.MARKER_SET_DESC.prepare(conc)) {
       stmt.setString(1, desc);
       stmt.setLong(2, id);
       stmt.executeUpdate();
       // Only update if transaction is successful
       this.desc = desc;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -170,22 +159,8 @@ public class MapMarker {
       throw new IllegalArgumentException("Name must not be null or empty");
     if (desc == null) desc = "";
     if (this.name.equals(name) && this.desc.equals(desc) && this.x == x && this.y == y) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE "
-                  + TABLE
-                  + " SET "
-                  + NAME_FIELD
-                  + " = ?, "
-                  + DESC_FIELD
-                  + " = ?, "
-                  + X_FIELD
-                  + " = ?, "
-                  + Y_FIELD
-                  + " = ? WHERE "
-                  + ID_FIELD
-                  + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.MARKER_SET.prepare(conc)) {
       stmt.setString(1, name);
       stmt.setString(2, desc);
       stmt.setInt(3, x);
@@ -197,6 +172,7 @@ public class MapMarker {
       this.desc = desc;
       this.x = x;
       this.y = y;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -219,24 +195,15 @@ public class MapMarker {
    */
   public void setPosition(int x, int y) throws DatabaseException {
     if (x == this.x && y == this.y) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "UPDATE "
-                  + TABLE
-                  + " SET "
-                  + X_FIELD
-                  + " = ?, "
-                  + Y_FIELD
-                  + " = ? WHERE "
-                  + ID_FIELD
-                  + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.MARKER_SET_POSITION.prepare(conc)) {
       stmt.setInt(1, x);
       stmt.setInt(2, y);
       stmt.setLong(3, id);
       stmt.executeUpdate();
       this.x = x;
       this.y = y;
+      Database.getInstance().changed(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -256,11 +223,11 @@ public class MapMarker {
    * @throws DatabaseException if the marker could not be deleted
    */
   public void delete() throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement("DELETE FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.MARKER_DELETE.prepare(conc)) {
       stmt.setLong(1, id);
       stmt.executeUpdate();
+      Database.getInstance().deleted(this);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -274,12 +241,15 @@ public class MapMarker {
    * @throws DatabaseException if the marker could not be found
    */
   public static MapMarker getByID(long id) throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement("SELECT * FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
+    return Database.getInstance().markers.get(id, MapMarker::load);
+  }
+
+  private static MapMarker load(long id) throws DatabaseException {
+    try (Connection conc = Database.getInstance().getReadConnection();
+        PreparedStatement stmt = Query.MARKER_BY_ID.prepare(conc)) {
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
-      if (!rs.first()) throw new DatabaseException("No marker with ID " + id);
+      if (!rs.next()) throw new NotFoundException("No marker with ID " + id);
       return from(rs);
     } catch (SQLException e) {
       throw new DatabaseException(e);
@@ -0,0 +1,515 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Migrations.java
+ *
+ * <p>The ordered migrations that build the schema. Each migration is applied at most once, and the
+ * migrations applied are recorded in the database, so the same runner brings a new database, an
+ * existing production database and the test database to the same schema. Migrations check for the
+ * objects they create, so that one interrupted part way through can be applied again.
+ *
+ * @author Nathan Corbyn
+ */
+public final class Migrations {
+  public static final String TABLE = "migrations",
+      VERSION_FIELD = "version",
+      DESC_FIELD = "description",
+      APPLIED_FIELD = "applied";
+
+  /** A change to the schema. */
+  private interface Step {
+    void apply(Connection conc, Dialect dialect) throws SQLException;
+  }
+
+  private static class Migration {
+    private final int version;
+    private final String description;
+    private final Step step;
+
+    private Migration(int version, String description, Step step) {
+      this.version = version;
+      this.description = description;
+      this.step = step;
+    }
+  }
+
+  // Never reorder, edit or remove a migration once it has been released, only append new ones
+  private static final List<Migration> MIGRATIONS =
+      Arrays.asList(
+          new Migration(1, "Create tables", Migrations::createTables),
+          new Migration(2, "Remove duplicate relations", Migrations::removeDuplicates),
+          new Migration(3, "Add unique constraints", Migrations::addUniqueConstraints),
+          new Migration(4, "Add indexes", Migrations::addIndexes),
+          new Migration(5, "Materialise achievement counts", Migrations::addAchievementCounts),
+          new Migration(6, "Materialise user scores", Migrations::addUserScores));
+
+  private Migrations() {}
+
+  /** @return the version of the schema once every migration has been applied */
+  static int getLatestVersion() {
+    return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+  }
+
+  /**
+   * Apply every migration that has not yet been applied to the database, in order.
+   *
+   * @param conc the connection to the database to migrate
+   * @return the versions of the migrations applied
+   * @throws DatabaseException if a migration could not be applied, in which case the migrations
+   *     before it remain applied
+   */
+  public static List<Integer> migrate(Connection conc) throws DatabaseException {
+    List<Integer> applied = new ArrayList<>();
+    try {
+      Dialect dialect = Dialect.of(conc);
+      if (!hasTable(conc, TABLE)) {
+        execute(
+            conc,
+            "CREATE TABLE "
+                + TABLE
+                + " ("
+                + VERSION_FIELD
+                + " int NOT NULL, "
+                + DESC_FIELD
+                + " varchar(255) NOT NULL, "
+                + APPLIED_FIELD
+                + " "
+                + dialect.getTimestamp()
+                + " NOT NULL, PRIMARY KEY ("
+                + VERSION_FIELD
+                + "))");
+      }
+      Set<Integer> done = getApplied(conc);
+      for (Migration migration : MIGRATIONS) {
+        if (done.contains(migration.version)) continue;
+        boolean autoCommit = conc.getAutoCommit();
+        try {
+          // Data changes and the record of the migration commit together. Some databases commit
+          // implicitly after schema changes, which is why migrations check what already exists
+          conc.setAutoCommit(false);
+          migration.step.apply(conc, dialect);
+          try (PreparedStatement stmt =
+              conc.prepareStatement(
+                  "INSERT INTO "
+                      + TABLE
+                      + " ("
+                      + VERSION_FIELD
+                      + ", "
+                      + DESC_FIELD
+                      + ", "
+                      + APPLIED_FIELD
+                      + ") VALUES (?, ?, ?)")) {
+            stmt.setInt(1, migration.version);
+            stmt.setString(2, migration.description);
+            stmt.setTimestamp(3, Timestamp.from(Instant.now()));
+            stmt.executeUpdate();
+          }
+          conc.commit();
+          applied.add(migration.version);
+        } catch (SQLException e) {
+          conc.rollback();
+          throw new DatabaseException(
+              "Migration " + migration.version + " (" + migration.description + ") failed", e);
+        } finally {
+          conc.setAutoCommit(autoCommit);
+        }
+      }
+      return applied;
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
+  private static Set<Integer> getApplied(Connection conc) throws SQLException {
+    Set<Integer> result = new HashSet<>();
+    try (PreparedStatement stmt =
+            conc.prepareStatement("SELECT " + VERSION_FIELD + " FROM " + TABLE);
+        ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) result.add(rs.getInt(1));
+    }
+    return result;
+  }
+
+  // Migration 1: the schema as it stood before migrations were introduced
+  private static void createTables(Connection conc, Dialect dialect) throws SQLException {
+    String id = " bigint NOT NULL " + dialect.getAutoIncrement() + ", ";
+    createTable(
+        conc,
+        ContentGroup.TABLE,
+        ContentGroup.ID_FIELD
+            + id
+            + ContentGroup.NAME_FIELD
+            + " varchar(255) NOT NULL, "
+            + ContentGroup.ENABLED_FIELD
+            + " bit NOT NULL, PRIMARY KEY ("
+            + ContentGroup.ID_FIELD
+            + ")");
+    createTable(
+        conc,
+        User.TABLE,
+        User.ID_FIELD
+            + id
+            + User.NAME_FIELD
+            + " varchar(255) NOT NULL, PRIMARY KEY ("
+            + User.ID_FIELD
+            + ")");
+    createTable(
+        conc,
+        Achievement.TABLE,
+        Achievement.ID_FIELD
+            + id
+            + Achievement.NAME_FIELD
+            + " varchar(255) NOT NULL, "
+            + Achievement.REWARD_FIELD
+            + " int NOT NULL, PRIMARY KEY ("
+            + Achievement.ID_FIELD
+            + ")");
+    createTable(
+        conc,
+        Achievement.ACHIEVED_TABLE,
+        Achievement.ACHIEVED_USER_ID_FIELD
+            + " bigint NOT NULL, "
+            + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+            + " bigint NOT NULL, "
+            + foreignKey(Achievement.ACHIEVED_USER_ID_FIELD, User.TABLE, User.ID_FIELD)
+            + ", "
+            + foreignKey(
+                Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD,
+                Achievement.TABLE,
+                Achievement.ID_FIELD));
+    createTable(
+        conc,
+        Event.TABLE,
+        Event.ID_FIELD
+            + id
+            + Event.NAME_FIELD
+            + " varchar(255) NOT NULL, "
+            + Event.DESC_FIELD
+            + " varchar(4096), "
+            + Event.START_FIELD
+            + " "
+            + dialect.getTimestamp()
+            + " NOT NULL, "
+            + Event.END_FIELD
+            + " "
+            + dialect.getTimestamp()
+            + " NOT NULL, PRIMARY KEY ("
+            + Event.ID_FIELD
+            + ")");
+    createTable(
+        conc,
+        Event.INTERESTED_TABLE,
+        Event.INTERESTED_USER_ID_FIELD
+            + " bigint NOT NULL, "
+            + Event.INTERESTED_EVENT_ID_FIELD
+            + " bigint NOT NULL, "
+            + foreignKey(Event.INTERESTED_USER_ID_FIELD, User.TABLE, User.ID_FIELD)
+            + ", "
+            + foreignKey(Event.INTERESTED_EVENT_ID_FIELD, Event.TABLE, Event.ID_FIELD));
+    createTable(
+        conc,
+        ConferenceMap.TABLE,
+        ConferenceMap.ID_FIELD
+            + id
+            + ConferenceMap.NAME_FIELD
+            + " varchar(255) NOT NULL, "
+            + ConferenceMap.IMAGE_FIELD
+            + " varchar(4351) NOT NULL, PRIMARY KEY ("
+            + ConferenceMap.ID_FIELD
+            + ")");
+    createTable(
+        conc,
+        MapMarker.TABLE,
+        MapMarker.ID_FIELD
+            + id
+            + MapMarker.MAP_FIELD
+            + " bigint NOT NULL, "
+            + MapMarker.NAME_FIELD
+            + " varchar(255) NOT NULL, "
+            + MapMarker.DESC_FIELD
+            + " varchar(4096), "
+            + MapMarker.X_FIELD
+            + " int NOT NULL, "
+            + MapMarker.Y_FIELD
+            + " int NOT NULL, PRIMARY KEY ("
+            + MapMarker.ID_FIELD
+            + "), "
+            + foreignKey(MapMarker.MAP_FIELD, ConferenceMap.TABLE, ConferenceMap.ID_FIELD));
+    createTable(
+        conc,
+        Session.TABLE,
+        Session.ID_FIELD
+            + " varchar(255) NOT NULL, "
+            + Session.TOKEN_FIELD
+            + " varchar(4096), "
+            + Session.USER_FIELD
+            + " bigint, "
+            + Session.ACTIVATED_FIELD
+            + " bit NOT NULL, "
+            + Session.EXPIRES_FIELD
+            + " "
+            + dialect.getTimestamp()
+            + ", PRIMARY KEY ("
+            + Session.ID_FIELD
+            + ")");
+    createTable(
+        conc,
+        UsageStatistic.TABLE,
+        UsageStatistic.TIME_FIELD
+            + " "
+            + dialect.getTimestamp()
+            + " NOT NULL, "
+            + UsageStatistic.USAGE_FIELD
+            + " int NOT NULL");
+  }
+
+  // Migration 2: relations were inserted without checking for duplicates, which would prevent the
+  // unique constraints from being added
+  private static void removeDuplicates(Connection conc, Dialect dialect) throws SQLException {
+    removeDuplicates(
+        conc,
+        Achievement.ACHIEVED_TABLE,
+        Achievement.ACHIEVED_USER_ID_FIELD,
+        Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD);
+    removeDuplicates(
+        conc,
+        Event.INTERESTED_TABLE,
+        Event.INTERESTED_USER_ID_FIELD,
+        Event.INTERESTED_EVENT_ID_FIELD);
+  }
+
+  // Migration 3
+  private static void addUniqueConstraints(Connection conc, Dialect dialect) throws SQLException {
+    createIndex(
+        conc,
+        "achieved_unique",
+        true,
+        Achievement.ACHIEVED_TABLE,
+        Achievement.ACHIEVED_USER_ID_FIELD,
+        Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD);
+    createIndex(
+        conc,
+        "interested_unique",
+        true,
+        Event.INTERESTED_TABLE,
+        Event.INTERESTED_USER_ID_FIELD,
+        Event.INTERESTED_EVENT_ID_FIELD);
+  }
+
+  // Migration 4: indexes for the columns the hot queries filter, join and sort on
+  private static void addIndexes(Connection conc, Dialect dialect) throws SQLException {
+    createIndex(
+        conc, "interested_user", false, Event.INTERESTED_TABLE, Event.INTERESTED_USER_ID_FIELD);
+    createIndex(
+        conc, "interested_event", false, Event.INTERESTED_TABLE, Event.INTERESTED_EVENT_ID_FIELD);
+    createIndex(
+        conc,
+        "achieved_user",
+        false,
+        Achievement.ACHIEVED_TABLE,
+        Achievement.ACHIEVED_USER_ID_FIELD);
+    createIndex(
+        conc,
+        "achieved_achievement",
+        false,
+        Achievement.ACHIEVED_TABLE,
+        Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD);
+    createIndex(conc, "markers_map", false, MapMarker.TABLE, MapMarker.MAP_FIELD);
+    createIndex(conc, "sessions_expires", false, Session.TABLE, Session.EXPIRES_FIELD);
+    createIndex(conc, "usagedata_taken", false, UsageStatistic.TABLE, UsageStatistic.TIME_FIELD);
+  }
+
+  // Migration 5: counts are maintained by User, rather than aggregated on each read
+  private static void addAchievementCounts(Connection conc, Dialect dialect) throws SQLException {
+    addColumn(conc, Achievement.TABLE, Achievement.COUNT_FIELD, "int DEFAULT 0 NOT NULL");
+    execute(
+        conc,
+        "UPDATE "
+            + Achievement.TABLE
+            + " SET "
+            + Achievement.COUNT_FIELD
+            + " = (SELECT COUNT(*) FROM "
+            + Achievement.ACHIEVED_TABLE
+            + " WHERE "
+            + Achievement.ACHIEVED_TABLE
+            + "."
+            + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+            + " = "
+            + Achievement.TABLE
+            + "."
+            + Achievement.ID_FIELD
+            + ")");
+  }
+
+  // Migration 6: scores are maintained by User, rather than summed on each read
+  private static void addUserScores(Connection conc, Dialect dialect) throws SQLException {
+    addColumn(conc, User.TABLE, User.SCORE_FIELD, "int DEFAULT 0 NOT NULL");
+    execute(
+        conc,
+        "UPDATE "
+            + User.TABLE
+            + " SET "
+            + User.SCORE_FIELD
+            + " = (SELECT COALESCE(SUM("
+            + Achievement.TABLE
+            + "."
+            + Achievement.REWARD_FIELD
+            + "), 0) FROM "
+            + Achievement.ACHIEVED_TABLE
+            + " JOIN "
+            + Achievement.TABLE
+            + " ON "
+            + Achievement.ACHIEVED_TABLE
+            + "."
+            + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+            + " = "
+            + Achievement.TABLE
+            + "."
+            + Achievement.ID_FIELD
+            + " WHERE "
+            + Achievement.ACHIEVED_TABLE
+            + "."
+            + Achievement.ACHIEVED_USER_ID_FIELD
+            + " = "
+            + User.TABLE
+            + "."
+            + User.ID_FIELD
+            + ")");
+  }
+
+  private static String foreignKey(String field, String table, String referenced) {
+    return "FOREIGN KEY (" + field + ") REFERENCES " + table + "(" + referenced + ")";
+  }
+
+  private static void createTable(Connection conc, String table, String columns)
+      throws SQLException {
+    if (!hasTable(conc, table)) execute(conc, "CREATE TABLE " + table + " (" + columns + ")");
+  }
+
+  private static void addColumn(Connection conc, String table, String column, String definition)
+      throws SQLException {
+    if (!hasColumn(conc, table, column))
+      execute(conc, "ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+  }
+
+  private static void createIndex(
+      Connection conc, String name, boolean unique, String table, String... fields)
+      throws SQLException {
+    if (hasIndex(conc, table, name)) return;
+    execute(
+        conc,
+        "CREATE "
+            + (unique ? "UNIQUE " : "")
+            + "INDEX "
+            + name
+            + " ON "
+            + table
+            + " ("
+            + String.join(", ", fields)
+            + ")");
+  }
+
+  private static void removeDuplicates(Connection conc, String table, String first, String second)
+      throws SQLException {
+    List<long[]> duplicates = new ArrayList<>();
+    try (PreparedStatement stmt =
+            conc.prepareStatement(
+                "SELECT "
+                    + first
+                    + ", "
+                    + second
+                    + " FROM "
+                    + table
+                    + " GROUP BY "
+                    + first
+                    + ", "
+                    + second
+                    + " HAVING COUNT(*) > 1");
+        ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) duplicates.add(new long[] {rs.getLong(1), rs.getLong(2)});
+    }
+    if (duplicates.isEmpty()) return;
+    try (PreparedStatement delete =
+            conc.prepareStatement(
+                "DELETE FROM " + table + " WHERE " + first + " = ? AND " + second + " = ?");
+        PreparedStatement insert =
+            conc.prepareStatement(
+                "INSERT INTO " + table + " (" + first + ", " + second + ") VALUES (?, ?)")) {
+      // Replace each set of duplicates with a single row
+      for (long[] duplicate : duplicates) {
+        delete.setLong(1, duplicate[0]);
+        delete.setLong(2, duplicate[1]);
+        delete.executeUpdate();
+        insert.setLong(1, duplicate[0]);
+        insert.setLong(2, duplicate[1]);
+        insert.executeUpdate();
+      }
+    }
+  }
+
+  private static void execute(Connection conc, String sql) throws SQLException {
+    try (Statement stmt = conc.createStatement()) {
+      stmt.execute(sql);
+    }
+  }
+
+  // Identifiers are looked up in the case the database stores them in
+  private static String identifier(DatabaseMetaData meta, String name) throws SQLException {
+    if (meta.storesUpperCaseIdentifiers()) return name.toUpperCase();
+    if (meta.storesLowerCaseIdentifiers()) return name.toLowerCase();
+    return name;
+  }
+
+  private static boolean hasTable(Connection conc, String table) throws SQLException {
+    DatabaseMetaData meta = conc.getMetaData();
+    try (ResultSet rs =
+        meta.getTables(conc.getCatalog(), null, identifier(meta, table), new String[] {"TABLE"})) {
+      return rs.next();
+    }
+  }
+
+  private static boolean hasColumn(Connection conc, String table, String column)
+      throws SQLException {
+    DatabaseMetaData meta = conc.getMetaData();
+    try (ResultSet rs =
+        meta.getColumns(
+            conc.getCatalog(), null, identifier(meta, table), identifier(meta, column))) {
+      return rs.next();
+    }
+  }
+
+  private static boolean hasIndex(Connection conc, String table, String name) throws SQLException {
+    DatabaseMetaData meta = conc.getMetaData();
+    try (ResultSet rs =
+        meta.getIndexInfo(conc.getCatalog(), null, identifier(meta, table), false, true)) {
+      while (rs.next()) if (name.equalsIgnoreCase(rs.getString("INDEX_NAME"))) return true;
+    }
+    return false;
+  }
+}
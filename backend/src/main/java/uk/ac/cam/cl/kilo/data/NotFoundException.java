@@ -0,0 +1,29 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+/**
+ * NotFoundException.java
+ *
+ * <p>Thrown when an entity is looked up by an ID that no entity has, which may be because it has
+ * been deleted.
+ *
+ * @author Nathan Corbyn
+ */
+public class NotFoundException extends DatabaseException {
+  private static final long serialVersionUID = 1L;
+
+  public NotFoundException(String msg) {
+    super(msg);
+  }
+}
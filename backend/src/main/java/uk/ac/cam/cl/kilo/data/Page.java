@@ -0,0 +1,44 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Page.java
+ *
+ * <p>One page of a listing ordered by ID, along with the cursor to fetch the page after it.
+ *
+ * @author Nathan Corbyn
+ */
+public class Page<T> {
+  private final List<T> items;
+  private final Long next;
+
+  Page(List<T> items, Long next) {
+    assert (items != null);
+    this.items = Collections.unmodifiableList(items);
+    this.next = next;
+  }
+
+  /** @return the entities in the page, in order of ID */
+  public List<T> getItems() {
+    return items;
+  }
+
+  /** @return the cursor for the next page, or null if this is the last page */
+  public Long getNext() {
+    return next;
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+/**
+ * PagedRepository.java
+ *
+ * <p>A repository whose entities may also be read a page at a time, in order of ID.
+ *
+ * @author Nathan Corbyn
+ */
+public interface PagedRepository<T> extends ListRepository<T> {
+  /**
+   * @param after the cursor to list from, which is the ID of the last entity of the previous page
+   * @param limit the maximum number of entities in the page
+   * @return the page of entities with IDs greater than the cursor
+   * @throws IllegalArgumentException if the limit is not positive
+   * @throws DatabaseException if the entities could not be read
+   */
+  Page<T> getPage(long after, int limit) throws DatabaseException;
+}
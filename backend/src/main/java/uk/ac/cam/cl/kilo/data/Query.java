@@ -0,0 +1,789 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Query.java
+ *
+ * <p>Registry of every statement issued by the data package. The SQL for each statement is built
+ * exactly once, when this class is loaded, so that the text handed to the driver is identical
+ * between calls and can be served from the pool's and the driver's prepared statement caches.
+ *
+ * @author Nathan Corbyn
+ */
+enum Query {
+  // Database
+  ACHIEVEMENTS("SELECT * FROM " + Achievement.TABLE),
+  EVENTS("SELECT * FROM " + Event.TABLE),
+  EVENTS_AFTER(
+      "SELECT * FROM "
+          + Event.TABLE
+          + " WHERE "
+          + Event.ID_FIELD
+          + " > ? ORDER BY "
+          + Event.ID_FIELD
+          + " LIMIT ?"),
+  CONTENT_GROUPS("SELECT * FROM " + ContentGroup.TABLE),
+  ENABLED_CONTENT_GROUPS(
+      "SELECT * FROM " + ContentGroup.TABLE + " WHERE " + ContentGroup.ENABLED_FIELD + " = ?"),
+  MAPS("SELECT * FROM " + ConferenceMap.TABLE),
+  MAPS_AFTER(
+      "SELECT * FROM "
+          + ConferenceMap.TABLE
+          + " WHERE "
+          + ConferenceMap.ID_FIELD
+          + " > ? ORDER BY "
+          + ConferenceMap.ID_FIELD
+          + " LIMIT ?"),
+  USAGE_LAST_DAY(
+      "SELECT * FROM "
+          + UsageStatistic.TABLE
+          + " WHERE "
+          + UsageStatistic.TIME_FIELD
+          + " >= ?"),
+  USER_COUNT("SELECT COUNT(*) FROM " + User.TABLE),
+  USERS("SELECT * FROM " + User.TABLE),
+
+  // Session
+  SESSION_INSERT(
+      "INSERT INTO "
+          + Session.TABLE
+          + "("
+          + Session.ID_FIELD
+          + ", "
+          + Session.ACTIVATED_FIELD
+          + ") VALUES (?, ?)"),
+  SESSION_ACTIVATE(
+      "UPDATE "
+          + Session.TABLE
+          + " SET "
+          + Session.USER_FIELD
+          + " = ?, "
+          + Session.TOKEN_FIELD
+          + " = ?, "
+          + Session.ACTIVATED_FIELD
+          + " = ?, "
+          + Session.EXPIRES_FIELD
+          + " = ? WHERE "
+          + Session.ID_FIELD
+          + " = ?"),
+  SESSION_BY_ID("SELECT * FROM " + Session.TABLE + " WHERE " + Session.ID_FIELD + " = ?"),
+  SESSION_DELETE_FOR_USER("DELETE FROM " + Session.TABLE + " WHERE " + Session.USER_FIELD + " = ?"),
+
+  // User
+  USER_INSERT(
+      "INSERT INTO "
+          + User.TABLE
+          + "("
+          + User.ID_FIELD
+          + ", "
+          + User.NAME_FIELD
+          + ") VALUES (?, ?)"),
+  USER_BY_ID("SELECT * FROM " + User.TABLE + " WHERE " + User.ID_FIELD + " = ?"),
+  USER_DELETE("DELETE FROM " + User.TABLE + " WHERE " + User.ID_FIELD + " = ?"),
+  USER_SCORE(
+      "SELECT " + User.SCORE_FIELD + " FROM " + User.TABLE + " WHERE " + User.ID_FIELD + " = ?"),
+  USER_SCORE_ADD(
+      "UPDATE "
+          + User.TABLE
+          + " SET "
+          + User.SCORE_FIELD
+          + " = "
+          + User.SCORE_FIELD
+          + " + (SELECT "
+          + Achievement.REWARD_FIELD
+          + " FROM "
+          + Achievement.TABLE
+          + " WHERE "
+          + Achievement.ID_FIELD
+          + " = ?) WHERE "
+          + User.ID_FIELD
+          + " = ?"),
+  USER_SCORE_SUBTRACT(
+      "UPDATE "
+          + User.TABLE
+          + " SET "
+          + User.SCORE_FIELD
+          + " = "
+          + User.SCORE_FIELD
+          + " - (SELECT "
+          + Achievement.REWARD_FIELD
+          + " FROM "
+          + Achievement.TABLE
+          + " WHERE "
+          + Achievement.ID_FIELD
+          + " = ?) WHERE "
+          + User.ID_FIELD
+          + " = ?"),
+  USER_SCORES_RECONCILE(
+      "UPDATE "
+          + User.TABLE
+          + " SET "
+          + User.SCORE_FIELD
+          + " = (SELECT COALESCE(SUM("
+          + Achievement.TABLE
+          + "."
+          + Achievement.REWARD_FIELD
+          + "), 0) FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " JOIN "
+          + Achievement.TABLE
+          + " ON "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " = "
+          + Achievement.TABLE
+          + "."
+          + Achievement.ID_FIELD
+          + " WHERE "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + " = "
+          + User.TABLE
+          + "."
+          + User.ID_FIELD
+          + ") WHERE "
+          + User.SCORE_FIELD
+          + " <> (SELECT COALESCE(SUM("
+          + Achievement.TABLE
+          + "."
+          + Achievement.REWARD_FIELD
+          + "), 0) FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " JOIN "
+          + Achievement.TABLE
+          + " ON "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " = "
+          + Achievement.TABLE
+          + "."
+          + Achievement.ID_FIELD
+          + " WHERE "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + " = "
+          + User.TABLE
+          + "."
+          + User.ID_FIELD
+          + ")"),
+  USER_SCORE_RECOUNT(
+      "UPDATE "
+          + User.TABLE
+          + " SET "
+          + User.SCORE_FIELD
+          + " = (SELECT COALESCE(SUM("
+          + Achievement.TABLE
+          + "."
+          + Achievement.REWARD_FIELD
+          + "), 0) FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " JOIN "
+          + Achievement.TABLE
+          + " ON "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " = "
+          + Achievement.TABLE
+          + "."
+          + Achievement.ID_FIELD
+          + " WHERE "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + " = "
+          + User.TABLE
+          + "."
+          + User.ID_FIELD
+          + ") WHERE "
+          + User.ID_FIELD
+          + " = ?"),
+  USER_ACHIEVEMENTS(
+      "SELECT "
+          + Achievement.TABLE
+          + ".* FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " JOIN "
+          + Achievement.TABLE
+          + " ON "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " = "
+          + Achievement.TABLE
+          + "."
+          + Achievement.ID_FIELD
+          + " WHERE "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + " = ?"),
+  USER_MARKED_EVENTS(
+      "SELECT "
+          + Event.TABLE
+          + "."
+          + Event.ID_FIELD
+          + ", "
+          + Event.TABLE
+          + "."
+          + Event.NAME_FIELD
+          + ", "
+          + Event.TABLE
+          + "."
+          + Event.DESC_FIELD
+          + ", "
+          + Event.TABLE
+          + "."
+          + Event.START_FIELD
+          + ", "
+          + Event.TABLE
+          + "."
+          + Event.END_FIELD
+          + " FROM "
+          + Event.INTERESTED_TABLE
+          + " JOIN "
+          + Event.TABLE
+          + " ON "
+          + Event.INTERESTED_TABLE
+          + "."
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + " = "
+          + Event.TABLE
+          + "."
+          + Event.ID_FIELD
+          + " WHERE "
+          + Event.INTERESTED_TABLE
+          + "."
+          + Event.INTERESTED_USER_ID_FIELD
+          + " = ?"),
+  USER_MARKED_EVENTS_AFTER(
+      USER_MARKED_EVENTS.sql
+          + " AND "
+          + Event.TABLE
+          + "."
+          + Event.ID_FIELD
+          + " > ? ORDER BY "
+          + Event.TABLE
+          + "."
+          + Event.ID_FIELD
+          + " LIMIT ?"),
+
+  // Achieved relation
+  ACHIEVED_INSERT(
+      "INSERT INTO "
+          + Achievement.ACHIEVED_TABLE
+          + "("
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + ", "
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + ") VALUES (?, ?)"),
+  // Inserts nothing if the user or achievement no longer exists, or the user already has it
+  ACHIEVED_INSERT_IF_ABSENT(
+      "INSERT INTO "
+          + Achievement.ACHIEVED_TABLE
+          + "("
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + ", "
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + ") SELECT "
+          + User.TABLE
+          + "."
+          + User.ID_FIELD
+          + ", "
+          + Achievement.TABLE
+          + "."
+          + Achievement.ID_FIELD
+          + " FROM "
+          + User.TABLE
+          + ", "
+          + Achievement.TABLE
+          + " WHERE "
+          + User.TABLE
+          + "."
+          + User.ID_FIELD
+          + " = ? AND "
+          + Achievement.TABLE
+          + "."
+          + Achievement.ID_FIELD
+          + " = ? AND NOT EXISTS (SELECT * FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " WHERE "
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + " = ? AND "
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " = ?)"),
+  ACHIEVED_DELETE(
+      "DELETE FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " WHERE "
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + " = ? AND "
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " = ?"),
+  ACHIEVED_DELETE_FOR_USER(
+      "DELETE FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " WHERE "
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + " = ?"),
+  ACHIEVED_FOR_USER_IN(
+      "SELECT "
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " WHERE "
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + " = ? AND "
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " IN (?)"),
+
+  // Interested relation
+  INTERESTED_INSERT(
+      "INSERT INTO "
+          + Event.INTERESTED_TABLE
+          + "("
+          + Event.INTERESTED_USER_ID_FIELD
+          + ", "
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + ") VALUES (?, ?)"),
+  // Inserts nothing if the user or event no longer exists, or the user is already interested
+  INTERESTED_INSERT_IF_ABSENT(
+      "INSERT INTO "
+          + Event.INTERESTED_TABLE
+          + "("
+          + Event.INTERESTED_USER_ID_FIELD
+          + ", "
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + ") SELECT "
+          + User.TABLE
+          + "."
+          + User.ID_FIELD
+          + ", "
+          + Event.TABLE
+          + "."
+          + Event.ID_FIELD
+          + " FROM "
+          + User.TABLE
+          + ", "
+          + Event.TABLE
+          + " WHERE "
+          + User.TABLE
+          + "."
+          + User.ID_FIELD
+          + " = ? AND "
+          + Event.TABLE
+          + "."
+          + Event.ID_FIELD
+          + " = ? AND NOT EXISTS (SELECT * FROM "
+          + Event.INTERESTED_TABLE
+          + " WHERE "
+          + Event.INTERESTED_USER_ID_FIELD
+          + " = ? AND "
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + " = ?)"),
+  INTERESTED_DELETE(
+      "DELETE FROM "
+          + Event.INTERESTED_TABLE
+          + " WHERE "
+          + Event.INTERESTED_USER_ID_FIELD
+          + " = ? AND "
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + " = ?"),
+  INTERESTED_DELETE_FOR_USER(
+      "DELETE FROM "
+          + Event.INTERESTED_TABLE
+          + " WHERE "
+          + Event.INTERESTED_USER_ID_FIELD
+          + " = ?"),
+  INTERESTED_DELETE_FOR_EVENT(
+      "DELETE FROM "
+          + Event.INTERESTED_TABLE
+          + " WHERE "
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + " = ?"),
+  INTERESTED_COUNTS(
+      "SELECT "
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + ", COUNT(*) FROM "
+          + Event.INTERESTED_TABLE
+          + " GROUP BY "
+          + Event.INTERESTED_EVENT_ID_FIELD),
+  INTERESTED_EVENTS_FOR_USER(
+      "SELECT "
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + " FROM "
+          + Event.INTERESTED_TABLE
+          + " WHERE "
+          + Event.INTERESTED_USER_ID_FIELD
+          + " = ?"),
+  INTERESTED_FOR_USER_IN(
+      "SELECT "
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + " FROM "
+          + Event.INTERESTED_TABLE
+          + " WHERE "
+          + Event.INTERESTED_USER_ID_FIELD
+          + " = ? AND "
+          + Event.INTERESTED_EVENT_ID_FIELD
+          + " IN (?)"),
+
+  // Event
+  EVENT_INSERT(
+      "INSERT INTO "
+          + Event.TABLE
+          + "("
+          + Event.NAME_FIELD
+          + ", "
+          + Event.DESC_FIELD
+          + ", "
+          + Event.START_FIELD
+          + ", "
+          + Event.END_FIELD
+          + ") VALUES (?, ?, ?, ?)",
+      true),
+  EVENT_BY_ID("SELECT * FROM " + Event.TABLE + " WHERE " + Event.ID_FIELD + " = ?"),
+  EVENT_IDS_IN(
+      "SELECT "
+          + Event.ID_FIELD
+          + " FROM "
+          + Event.TABLE
+          + " WHERE "
+          + Event.ID_FIELD
+          + " IN (?)"),
+  EVENT_SET_NAME(
+      "UPDATE "
+          + Event.TABLE
+          + " SET "
+          + Event.NAME_FIELD
+          + " = ? WHERE "
+          + Event.ID_FIELD
+          + " = ?"),
+  EVENT_SET_DESC(
+      "UPDATE "
+          + Event.TABLE
+          + " SET "
+          + Event.DESC_FIELD
+          + " = ? WHERE "
+          + Event.ID_FIELD
+          + " = ?"),
+  EVENT_SET_TIMING(
+      "UPDATE "
+          + Event.TABLE
+          + " SET "
+          + Event.START_FIELD
+          + " = ?, "
+          + Event.END_FIELD
+          + " = ? WHERE "
+          + Event.ID_FIELD
+          + " = ?"),
+  EVENT_SET(
+      "UPDATE "
+          + Event.TABLE
+          + " SET "
+          + Event.NAME_FIELD
+          + " = ?, "
+          + Event.DESC_FIELD
+          + " = ?, "
+          + Event.START_FIELD
+          + " = ?, "
+          + Event.END_FIELD
+          + " = ? WHERE "
+          + Event.ID_FIELD
+          + " = ?"),
+  EVENT_DELETE("DELETE FROM " + Event.TABLE + " WHERE " + Event.ID_FIELD + " = ?"),
+
+  // Achievement
+  ACHIEVEMENT_BY_ID(
+      "SELECT * FROM " + Achievement.TABLE + " WHERE " + Achievement.ID_FIELD + " = ?"),
+  ACHIEVEMENTS_IN(
+      "SELECT * FROM " + Achievement.TABLE + " WHERE " + Achievement.ID_FIELD + " IN (?)"),
+  ACHIEVEMENT_UNLOCKED(
+      "UPDATE "
+          + Achievement.TABLE
+          + " SET "
+          + Achievement.COUNT_FIELD
+          + " = "
+          + Achievement.COUNT_FIELD
+          + " + 1 WHERE "
+          + Achievement.ID_FIELD
+          + " = ?"),
+  ACHIEVEMENT_LOCKED(
+      "UPDATE "
+          + Achievement.TABLE
+          + " SET "
+          + Achievement.COUNT_FIELD
+          + " = "
+          + Achievement.COUNT_FIELD
+          + " - 1 WHERE "
+          + Achievement.ID_FIELD
+          + " = ?"),
+  ACHIEVEMENTS_LOCKED_FOR_USER(
+      "UPDATE "
+          + Achievement.TABLE
+          + " SET "
+          + Achievement.COUNT_FIELD
+          + " = "
+          + Achievement.COUNT_FIELD
+          + " - 1 WHERE "
+          + Achievement.ID_FIELD
+          + " IN (SELECT "
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " WHERE "
+          + Achievement.ACHIEVED_USER_ID_FIELD
+          + " = ?)"),
+  ACHIEVEMENT_COUNT_RECOUNT(
+      "UPDATE "
+          + Achievement.TABLE
+          + " SET "
+          + Achievement.COUNT_FIELD
+          + " = (SELECT COUNT(*) FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " WHERE "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " = "
+          + Achievement.TABLE
+          + "."
+          + Achievement.ID_FIELD
+          + ") WHERE "
+          + Achievement.ID_FIELD
+          + " = ?"),
+  ACHIEVEMENT_COUNTS_RECONCILE(
+      "UPDATE "
+          + Achievement.TABLE
+          + " SET "
+          + Achievement.COUNT_FIELD
+          + " = (SELECT COUNT(*) FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " WHERE "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " = "
+          + Achievement.TABLE
+          + "."
+          + Achievement.ID_FIELD
+          + ") WHERE "
+          + Achievement.COUNT_FIELD
+          + " <> (SELECT COUNT(*) FROM "
+          + Achievement.ACHIEVED_TABLE
+          + " WHERE "
+          + Achievement.ACHIEVED_TABLE
+          + "."
+          + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
+          + " = "
+          + Achievement.TABLE
+          + "."
+          + Achievement.ID_FIELD
+          + ")"),
+
+  // Conference map
+  MAP_INSERT(
+      "INSERT INTO "
+          + ConferenceMap.TABLE
+          + "("
+          + ConferenceMap.NAME_FIELD
+          + ", "
+          + ConferenceMap.IMAGE_FIELD
+          + ") VALUES (?, ?)",
+      true),
+  MAP_BY_ID("SELECT * FROM " + ConferenceMap.TABLE + " WHERE " + ConferenceMap.ID_FIELD + " = ?"),
+  MAP_SET_NAME(
+      "UPDATE "
+          + ConferenceMap.TABLE
+          + " SET "
+          + ConferenceMap.NAME_FIELD
+          + " = ? WHERE "
+          + ConferenceMap.ID_FIELD
+          + " = ?"),
+  MAP_SET_IMAGE(
+      "UPDATE "
+          + ConferenceMap.TABLE
+          + " SET "
+          + ConferenceMap.IMAGE_FIELD
+          + " = ? WHERE "
+          + ConferenceMap.ID_FIELD
+          + " = ?"),
+  MAP_DELETE("DELETE FROM " + ConferenceMap.TABLE + " WHERE " + ConferenceMap.ID_FIELD + " = ?"),
+  MAP_MARKERS("SELECT * FROM " + MapMarker.TABLE + " WHERE " + MapMarker.MAP_FIELD + " = ?"),
+  MAP_MARKERS_AFTER(
+      MAP_MARKERS.sql
+          + " AND "
+          + MapMarker.ID_FIELD
+          + " > ? ORDER BY "
+          + MapMarker.ID_FIELD
+          + " LIMIT ?"),
+
+  // Map marker
+  MARKER_INSERT(
+      "INSERT INTO "
+          + MapMarker.TABLE
+          + "("
+          + MapMarker.MAP_FIELD
+          + ", "
+          + MapMarker.NAME_FIELD
+          + ", "
+          + MapMarker.DESC_FIELD
+          + ", "
+          + MapMarker.X_FIELD
+          + ", "
+          + MapMarker.Y_FIELD
+          + ") VALUES (?, ?, ?, ?, ?)",
+      true),
+  MARKER_BY_ID("SELECT * FROM " + MapMarker.TABLE + " WHERE " + MapMarker.ID_FIELD + " = ?"),
+  MARKER_SET_NAME(
+      "UPDATE "
+          + MapMarker.TABLE
+          + " SET "
+          + MapMarker.NAME_FIELD
+          + " = ? WHERE "
+          + MapMarker.ID_FIELD
+          + " = ?"),
+  MARKER_SET_DESC(
+      "UPDATE "
+          + MapMarker.TABLE
+          + " SET "
+          + MapMarker.DESC_FIELD
+          + " = ? WHERE "
+          + MapMarker.ID_FIELD
+          + " = ?"),
+  MARKER_SET_POSITION(
+      "UPDATE "
+          + MapMarker.TABLE
+          + " SET "
+          + MapMarker.X_FIELD
+          + " = ?, "
+          + MapMarker.Y_FIELD
+          + " = ? WHERE "
+          + MapMarker.ID_FIELD
+          + " = ?"),
+  MARKER_SET(
+      "UPDATE "
+          + MapMarker.TABLE
+          + " SET "
+          + MapMarker.NAME_FIELD
+          + " = ?, "
+          + MapMarker.DESC_FIELD
+          + " = ?, "
+          + MapMarker.X_FIELD
+          + " = ?, "
+          + MapMarker.Y_FIELD
+          + " = ? WHERE "
+          + MapMarker.ID_FIELD
+          + " = ?"),
+  MARKER_DELETE("DELETE FROM " + MapMarker.TABLE + " WHERE " + MapMarker.ID_FIELD + " = ?"),
+  MARKER_IDS_FOR_MAP(
+      "SELECT "
+          + MapMarker.ID_FIELD
+          + " FROM "
+          + MapMarker.TABLE
+          + " WHERE "
+          + MapMarker.MAP_FIELD
+          + " = ?"),
+  MARKER_DELETE_FOR_MAP(
+      "DELETE FROM " + MapMarker.TABLE + " WHERE " + MapMarker.MAP_FIELD + " = ?"),
+
+  // Content group
+  GROUP_BY_ID("SELECT * FROM " + ContentGroup.TABLE + " WHERE " + ContentGroup.ID_FIELD + " = ?"),
+  GROUP_SET_ENABLED(
+      "UPDATE "
+          + ContentGroup.TABLE
+          + " SET "
+          + ContentGroup.ENABLED_FIELD
+          + " = ? WHERE "
+          + ContentGroup.ID_FIELD
+          + " = ?"),
+
+  // Usage statistic
+  USAGE_INSERT(
+      "INSERT INTO "
+          + UsageStatistic.TABLE
+          + "("
+          + UsageStatistic.TIME_FIELD
+          + ", "
+          + UsageStatistic.USAGE_FIELD
+          + ") VALUES (?, ?)");
+
+  // Placeholder for a list of values, the last of which in a statement is expanded when prepared
+  private static final String LIST = "(?)";
+
+  private final String sql;
+  private final boolean returnsKeys;
+
+  Query(String sql) {
+    this(sql, false);
+  }
+
+  Query(String sql, boolean returnsKeys) {
+    this.sql = sql;
+    this.returnsKeys = returnsKeys;
+  }
+
+  /** @return the SQL text of the statement */
+  String sql() {
+    return sql;
+  }
+
+  /**
+   * Prepare the statement on the given connection. Callers are responsible for closing the
+   * returned statement, which hands it back to the pool's statement cache.
+   *
+   * @param conc the connection to prepare the statement on
+   * @return the prepared statement
+   * @throws SQLException if the statement could not be prepared
+   */
+  PreparedStatement prepare(Connection conc) throws SQLException {
+    if (returnsKeys) return conc.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+    return conc.prepareStatement(sql);
+  }
+
+  /**
+   * Prepare the statement with its list of values expanded to hold the given values, and bind them
+   * from the given parameter index. The list is padded to a power of two by repeating the last
+   * value, so that lists of similar lengths share a statement in the caches. Callers bind any
+   * parameters before the list themselves.
+   *
+   * @param conc the connection to prepare the statement on
+   * @param values the values of the list, of which there must be at least one
+   * @param index the index of the first parameter in the list
+   * @return the prepared statement
+   * @throws SQLException if the statement could not be prepared
+   */
+  PreparedStatement prepare(Connection conc, List<Long> values, int index) throws SQLException {
+    if (values.isEmpty()) throw new IllegalArgumentException("List must not be empty");
+    int width = Integer.highestOneBit(values.size());
+    if (width < values.size()) width <<= 1;
+    StringBuilder list = new StringBuilder("(?");
+    for (int i = 1; i < width; i++) list.append(", ?");
+    int at = sql.lastIndexOf(LIST);
+    PreparedStatement stmt =
+        conc.prepareStatement(
+            sql.substring(0, at) + list.append(')') + sql.substring(at + LIST.length()));
+    for (int i = 0; i < width; i++)
+      stmt.setLong(index + i, values.get(Math.min(i, values.size() - 1)));
+    return stmt;
+  }
+}
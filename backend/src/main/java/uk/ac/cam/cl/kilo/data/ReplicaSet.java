@@ -0,0 +1,78 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.sql.DataSource;
+
+/**
+ * ReplicaSet.java
+ *
+ * <p>The read replicas of the database, which are used in turn. A replica that fails to provide a
+ * connection is assumed to be down and is skipped until a retry interval has passed.
+ *
+ * @author Nathan Corbyn
+ */
+class ReplicaSet {
+  private final DataSource[] sources;
+  // The System.nanoTime() before which each replica is skipped, or zero if it is healthy
+  private final AtomicLongArray downUntil;
+  private final long retryNanos;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /**
+   * @param sources the data sources of the replicas
+   * @param retryMillis how long a replica is skipped for after it fails
+   */
+  ReplicaSet(List<DataSource> sources, long retryMillis) {
+    this.sources = sources.toArray(new DataSource[0]);
+    this.downUntil = new AtomicLongArray(this.sources.length);
+    this.retryNanos = TimeUnit.MILLISECONDS.toNanos(retryMillis);
+  }
+
+  /** @return the number of replicas */
+  int size() {
+    return sources.length;
+  }
+
+  /**
+   * @return a connection to the next healthy replica, or null if none could provide one
+   */
+  Connection getConnection() {
+    int start = Math.floorMod(next.getAndIncrement(), Math.max(sources.length, 1));
+    for (int i = 0; i < sources.length; i++) {
+      int replica = (start + i) % sources.length;
+      long now = System.nanoTime();
+      if (!isHealthy(replica, now)) continue;
+      try {
+        Connection conc = sources[replica].getConnection();
+        downUntil.set(replica, 0);
+        return conc;
+      } catch (SQLException e) {
+        // Zero means healthy, so never record it as a deadline
+        downUntil.set(replica, (now + retryNanos) | 1);
+      }
+    }
+    return null;
+  }
+
+  private boolean isHealthy(int replica, long now) {
+    long until = downUntil.get(replica);
+    return until == 0 || now - until >= 0;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+/**
+ * Repositories.java
+ *
+ * <p>The repositories of every entity served to clients. Callers that go through these rather
+ * than the static lookups of each entity need not know which storage engine is in use.
+ *
+ * @author Nathan Corbyn
+ */
+public interface Repositories {
+  /** @return the repository of events */
+  PagedRepository<Event> events();
+
+  /** @return the repository of maps */
+  PagedRepository<ConferenceMap> maps();
+
+  /** @return the repository of map markers, which are listed through their maps */
+  Repository<MapMarker> markers();
+
+  /** @return the repository of achievements */
+  ListRepository<Achievement> achievements();
+
+  /** @return the repository of content groups */
+  ListRepository<ContentGroup> groups();
+
+  /** @return the repository of users */
+  Repository<User> users();
+}
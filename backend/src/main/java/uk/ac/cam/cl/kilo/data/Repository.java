@@ -0,0 +1,30 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+/**
+ * Repository.java
+ *
+ * <p>Looks up entities of one type by their ID, independently of the storage engine behind them.
+ *
+ * @author Nathan Corbyn
+ */
+public interface Repository<T> {
+  /**
+   * @param id the ID of the entity
+   * @return the entity with the given ID
+   * @throws NotFoundException if there is no entity with the given ID
+   * @throws DatabaseException if the entity could not be read
+   */
+  T getByID(long id) throws DatabaseException;
+}
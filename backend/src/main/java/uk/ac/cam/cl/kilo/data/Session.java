@@ -48,10 +48,8 @@ public class Session {
   public Session() throws DatabaseException {
     id = generateID(LENGTH);
     activated = false;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "INSERT INTO " + TABLE + "(" + ID_FIELD + ", " + ACTIVATED_FIELD + ") VALUES (?, ?)");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.SESSION_INSERT.prepare(conc)) {
       stmt.setString(1, id);
       stmt.setBoolean(2, false);
       stmt.executeUpdate();
@@ -82,22 +80,8 @@ public class Session {
       throw new IllegalArgumentException("User and token must be non-null");
     if (!activated) {
       Instant expires = Instant.now().plusMillis(LIFETIME);
-      try (Connection conc = Database.getInstance().getConnection()) {
-        PreparedStatement stmt =
-            conc.prepareStatement(
-                "UPDATE "
-                    + TABLE
-                    + " SET "
-                    + USER_FIELD
-                    + " = ?, "
-                    + TOKEN_FIELD
-                    + " = ?, "
-                    + ACTIVATED_FIELD
-                    + " = ?, "
-                    + EXPIRES_FIELD
-                    + " = ? WHERE "
-                    + ID_FIELD
-                    + " = ?");
+      try (Connection conc = Database.getInstance().getConnection();
+          PreparedStatement stmt = Query.SESSION_ACTIVATE.prepare(conc)) {
         stmt.setLong(1, user.getID());
         stmt.setString(2, token);
         stmt.setBoolean(3, true);
@@ -155,12 +139,11 @@ public class Session {
    * @throws DatabaseException if the session could not be found
    */
   public static Session getByID(String id) throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement("SELECT * FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.SESSION_BY_ID.prepare(conc)) {
       stmt.setString(1, id);
       ResultSet rs = stmt.executeQuery();
-      if (!rs.first()) throw new DatabaseException("No session with ID '" + id + "'");
+      if (!rs.next()) throw new NotFoundException("No session with ID '" + id + "'");
       return from(rs);
     } catch (SQLException e) {
       throw new DatabaseException(e);
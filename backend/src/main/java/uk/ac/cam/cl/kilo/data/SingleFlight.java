@@ -0,0 +1,183 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SingleFlight.java
+ *
+ * <p>Coalesces identical concurrent reads, so that callers asking for a key whose read is already
+ * in flight wait for and share its result rather than running the same query again. Nothing is
+ * kept once a read completes, so this only saves queries made at the same time.
+ *
+ * <p>Each read is shared for at most the timeout. Callers that have waited that long run the read
+ * themselves, and later callers start a new read rather than joining the slow one, so a stuck
+ * query only holds up its own key for a bounded time.
+ *
+ * @author Nathan Corbyn
+ */
+class SingleFlight<K, V> {
+  /** Makes the read for a key. */
+  interface Loader<V> {
+    V load() throws DatabaseException;
+  }
+
+  private static class Flight<V> {
+    private final long generation, started;
+    private final CompletableFuture<V> result = new CompletableFuture<>();
+
+    private Flight(long generation, long started) {
+      this.generation = generation;
+      this.started = started;
+    }
+  }
+
+  private final String name;
+  private final long timeoutNanos;
+  private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+  private final LongAdder reads = new LongAdder(), shared = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  // Incremented by every invalidation so that reads racing with a write are not joined
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * @param name the name to report statistics under
+   * @param timeoutMillis how long a read may be shared for, in milliseconds
+   */
+  SingleFlight(String name, long timeoutMillis) {
+    if (timeoutMillis < 1) throw new IllegalArgumentException("Timeout must be positive");
+    this.name = name;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+  }
+
+  /**
+   * Get the result of the read for the given key, joining the read in flight if there is one.
+   *
+   * @param key identifies the read, so must be equal for reads that would return the same result
+   * @param loader makes the read if none is in flight
+   * @return the result of the read
+   * @throws DatabaseException if the read failed
+   */
+  V get(K key, Loader<V> loader) throws DatabaseException {
+    long now = System.nanoTime(), current = generation.get();
+    Flight<V> mine = new Flight<>(current, now);
+    Flight<V> flight =
+        flights.compute(
+            key,
+            (k, existing) ->
+                existing != null
+                        && existing.generation == current
+                        && now - existing.started < timeoutNanos
+                    ? existing
+                    : mine);
+    if (flight == mine) return lead(key, mine, loader);
+    shared.increment();
+    try {
+      return flight.result.get(flight.started + timeoutNanos - now, TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      // Counted as shared above, but the read was made again after all
+      shared.decrement();
+      timeouts.increment();
+      reads.increment();
+      return loader.load();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatabaseException("Interrupted while waiting for a read of " + name, e);
+    } catch (ExecutionException e) {
+      // Failures are shared like results, as the same read would fail the same way
+      Throwable cause = e.getCause();
+      if (cause instanceof DatabaseException) throw (DatabaseException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw (Error) cause;
+    }
+  }
+
+  private V lead(K key, Flight<V> flight, Loader<V> loader) throws DatabaseException {
+    reads.increment();
+    try {
+      V result = loader.load();
+      flight.result.complete(result);
+      return result;
+    } catch (DatabaseException | RuntimeException | Error e) {
+      flight.result.completeExceptionally(e);
+      throw e;
+    } finally {
+      flights.remove(key, flight);
+    }
+  }
+
+  /** Stop later callers from joining the reads in flight, as they may have missed a write. */
+  void invalidate() {
+    generation.incrementAndGet();
+  }
+
+  /** @return a snapshot of the statistics */
+  Statistics getStatistics() {
+    return new Statistics(name, flights.size(), reads.sum(), shared.sum(), timeouts.sum());
+  }
+
+  /** Point-in-time statistics for the coalescing of a kind of read. */
+  public static class Statistics {
+    private final String name;
+    private final int inFlight;
+    private final long reads, shared, timeouts;
+    private final double sharedRatio;
+
+    private Statistics(String name, int inFlight, long reads, long shared, long timeouts) {
+      this.name = name;
+      this.inFlight = inFlight;
+      this.reads = reads;
+      this.shared = shared;
+      this.timeouts = timeouts;
+      this.sharedRatio = reads + shared == 0 ? 0.0 : (double) shared / (reads + shared);
+    }
+
+    /** @return the name of the kind of read */
+    public String getName() {
+      return name;
+    }
+
+    /** @return the number of reads in flight */
+    public int getInFlight() {
+      return inFlight;
+    }
+
+    /** @return the number of reads made */
+    public long getReads() {
+      return reads;
+    }
+
+    /** @return the number of reads saved by sharing the result of one already in flight */
+    public long getShared() {
+      return shared;
+    }
+
+    /** @return the number of callers that stopped waiting for a read and made it themselves */
+    public long getTimeouts() {
+      return timeouts;
+    }
+
+    /** @return the fraction of callers that shared the result of a read already in flight */
+    public double getSharedRatio() {
+      return sharedRatio;
+    }
+  }
+}
@@ -44,10 +44,8 @@ public class UsageStatistic {
       throw new IllegalArgumentException("The request count must be non-negative");
     this.time = time;
     this.requestCount = requestCount;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "INSERT INTO " + TABLE + "(" + TIME_FIELD + ", " + USAGE_FIELD + ") VALUE (?, ?)");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.USAGE_INSERT.prepare(conc)) {
       stmt.setTimestamp(1, Timestamp.from(time));
       stmt.setInt(2, requestCount);
       stmt.executeUpdate();
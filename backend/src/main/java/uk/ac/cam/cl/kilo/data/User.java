@@ -12,12 +12,21 @@
  */
 package uk.ac.cam.cl.kilo.data;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 /**
  * User.java
@@ -25,7 +34,13 @@ import java.util.List;
  * @author Nathan Corbyn
  */
 public class User {
-  public static final String TABLE = "users", ID_FIELD = "id", NAME_FIELD = "name";
+  public static final String TABLE = "users",
+      ID_FIELD = "id",
+      NAME_FIELD = "name",
+      SCORE_FIELD = "score";
+
+  // A batch that collides with a concurrent write is retried once, when the write is visible
+  private static final int BATCH_ATTEMPTS = 2;
 
   private long id;
   private String name;
@@ -43,13 +58,13 @@ public class User {
       throw new IllegalArgumentException("Name must not be null or empty");
     this.name = name;
     this.id = id;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "INSERT INTO " + TABLE + "(" + ID_FIELD + ", " + NAME_FIELD + ") VALUES (?, ?)");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.USER_INSERT.prepare(conc)) {
       stmt.setLong(1, id);
       stmt.setString(2, name);
       stmt.executeUpdate();
+      Database.getInstance().created(this);
+      Database.getInstance().scored(this, conc);
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -63,13 +78,30 @@ public class User {
   }
 
   /**
-   * @return the score for the user
+   * @return the score for the user, the total reward for their achievements
    * @throws DatabaseException if the database could not be accessed
    */
   public int getScore() throws DatabaseException {
-    int score = 0;
-    for (Achievement achievement : getAchievements()) score += achievement.getReward();
-    return score;
+    flushWrites();
+    try (Connection conc = Database.getInstance().getConnection()) {
+      return getScore(conc);
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
+  // Apply any writes the user has queued, so that reads see them
+  private void flushWrites() throws DatabaseException {
+    Database.getInstance().flushWrites(id);
+  }
+
+  int getScore(Connection conc) throws SQLException {
+    try (PreparedStatement stmt = Query.USER_SCORE.prepare(conc)) {
+      stmt.setLong(1, id);
+      ResultSet rs = stmt.executeQuery();
+      if (!rs.next()) throw new SQLException("No user with ID " + id);
+      return rs.getInt(1);
+    }
   }
 
   /**
@@ -77,35 +109,10 @@ public class User {
    * @throws DatabaseException if the database could not be accessed
    */
   public List<Achievement> getAchievements() throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
+    flushWrites();
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.USER_ACHIEVEMENTS.prepare(conc)) {
       List<Achievement> result = new ArrayList<>();
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "SELECT "
-                  + Achievement.ACHIEVED_TABLE
-                  + "."
-                  + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
-                  + ", "
-                  + Achievement.TABLE
-                  + "."
-                  + Achievement.NAME_FIELD
-                  + " FROM "
-                  + Achievement.ACHIEVED_TABLE
-                  + " JOIN "
-                  + Achievement.TABLE
-                  + " ON "
-                  + Achievement.ACHIEVED_TABLE
-                  + "."
-                  + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
-                  + " = "
-                  + Achievement.TABLE
-                  + "."
-                  + Achievement.ID_FIELD
-                  + " WHERE "
-                  + Achievement.ACHIEVED_TABLE
-                  + "."
-                  + Achievement.ACHIEVED_USER_ID_FIELD
-                  + " = ?");
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
       while (rs.next()) result.add(Achievement.from(rs));
@@ -116,26 +123,46 @@ public class User {
   }
 
   /**
-   * Have the user achieve the give achievement.
+   * Have the user achieve the give achievement. Achieving an achievement twice has no effect. If
+   * write-behind is enabled, the write is queued rather than applied.
    *
    * @param achievement the achievement to achieve
    * @throws DatabaseException if the database could not be accessed
    */
   public void achieve(Achievement achievement) throws DatabaseException {
     if (achievement == null) return;
+    WriteBehind queue = Database.getInstance().getWriteBehind();
+    if (queue != null) {
+      queue.achieve(this, achievement);
+      return;
+    }
     try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "INSERT INTO "
-                  + Achievement.ACHIEVED_TABLE
-                  + "("
-                  + Achievement.ACHIEVED_USER_ID_FIELD
-                  + ", "
-                  + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
-                  + ") VALUES (?, ?)");
-      stmt.setLong(1, id);
-      stmt.setLong(2, achievement.getID());
-      stmt.executeUpdate();
+      try {
+        // The unlock count and score must change with the relation, so disable auto-commit
+        conc.setAutoCommit(false);
+        try (PreparedStatement stmt = Query.ACHIEVED_INSERT.prepare(conc)) {
+          stmt.setLong(1, id);
+          stmt.setLong(2, achievement.getID());
+          stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = Query.ACHIEVEMENT_UNLOCKED.prepare(conc)) {
+          stmt.setLong(1, achievement.getID());
+          stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = Query.USER_SCORE_ADD.prepare(conc)) {
+          stmt.setLong(1, achievement.getID());
+          stmt.setLong(2, id);
+          stmt.executeUpdate();
+        }
+        conc.commit();
+        Database.getInstance().changed(achievement);
+        Database.getInstance().scored(this, conc);
+      } catch (SQLException e) {
+        conc.rollback();
+        // The user already has the achievement
+        if (Database.isDuplicate(e)) return;
+        throw e;
+      }
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -149,19 +176,115 @@ public class User {
    */
   public void revoke(Achievement achievement) throws DatabaseException {
     if (achievement == null) return;
+    // Queued achievements must be applied first, or they would undo the revocation
+    flushWrites();
     try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "DELETE FROM "
-                  + Achievement.ACHIEVED_TABLE
-                  + " WHERE "
-                  + Achievement.ACHIEVED_USER_ID_FIELD
-                  + " = ? AND "
-                  + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
-                  + " = ?");
-      stmt.setLong(1, id);
-      stmt.setLong(2, achievement.getID());
-      stmt.executeUpdate();
+      try {
+        // The unlock count and score must change with the relation, so disable auto-commit
+        conc.setAutoCommit(false);
+        int revoked;
+        try (PreparedStatement stmt = Query.ACHIEVED_DELETE.prepare(conc)) {
+          stmt.setLong(1, id);
+          stmt.setLong(2, achievement.getID());
+          revoked = stmt.executeUpdate();
+        }
+        // Nothing to count if the user didn't have the achievement
+        if (revoked == 0) {
+          conc.commit();
+          return;
+        }
+        try (PreparedStatement stmt = Query.ACHIEVEMENT_LOCKED.prepare(conc)) {
+          stmt.setLong(1, achievement.getID());
+          stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = Query.USER_SCORE_SUBTRACT.prepare(conc)) {
+          stmt.setLong(1, achievement.getID());
+          stmt.setLong(2, id);
+          stmt.executeUpdate();
+        }
+        conc.commit();
+        Database.getInstance().changed(achievement);
+        Database.getInstance().scored(this, conc);
+      } catch (SQLException e) {
+        conc.rollback();
+        throw e;
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    }
+  }
+
+  /**
+   * Have the user achieve each of the given achievements, in one transaction. Achievements the user
+   * already has are left unchanged.
+   *
+   * @param achievements the IDs of the achievements to achieve
+   * @return the outcome for each distinct ID, in the order given
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public List<BatchResult> achieveAll(Collection<Long> achievements) throws DatabaseException {
+    List<Long> ids = new ArrayList<>(new LinkedHashSet<>(achievements));
+    if (ids.isEmpty()) return new ArrayList<>();
+    flushWrites();
+    try (Connection conc = Database.getInstance().getConnection()) {
+      for (int attempt = 1; ; attempt++) {
+        try {
+          conc.setAutoCommit(false);
+          Map<Long, Achievement> found = new HashMap<>();
+          try (PreparedStatement stmt = Query.ACHIEVEMENTS_IN.prepare(conc, ids, 1)) {
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+              Achievement achievement = Achievement.from(rs);
+              found.put(achievement.getID(), achievement);
+            }
+          }
+          Set<Long> achieved = selectIDs(conc, Query.ACHIEVED_FOR_USER_IN, ids, id);
+          List<BatchResult> results = new ArrayList<>();
+          List<Achievement> unlocked = new ArrayList<>();
+          for (long other : ids) {
+            BatchResult.Status status = BatchResult.Status.APPLIED;
+            if (!found.containsKey(other)) status = BatchResult.Status.NOT_FOUND;
+            else if (achieved.contains(other)) status = BatchResult.Status.UNCHANGED;
+            else unlocked.add(found.get(other));
+            results.add(new BatchResult(other, status));
+          }
+          if (unlocked.isEmpty()) {
+            conc.commit();
+            return results;
+          }
+          try (PreparedStatement stmt = Query.ACHIEVED_INSERT.prepare(conc)) {
+            for (Achievement achievement : unlocked) {
+              stmt.setLong(1, id);
+              stmt.setLong(2, achievement.getID());
+              stmt.addBatch();
+            }
+            stmt.executeBatch();
+          }
+          try (PreparedStatement stmt = Query.ACHIEVEMENT_UNLOCKED.prepare(conc)) {
+            for (Achievement achievement : unlocked) {
+              stmt.setLong(1, achievement.getID());
+              stmt.addBatch();
+            }
+            stmt.executeBatch();
+          }
+          try (PreparedStatement stmt = Query.USER_SCORE_ADD.prepare(conc)) {
+            for (Achievement achievement : unlocked) {
+              stmt.setLong(1, achievement.getID());
+              stmt.setLong(2, id);
+              stmt.addBatch();
+            }
+            stmt.executeBatch();
+          }
+          conc.commit();
+          for (Achievement achievement : unlocked) Database.getInstance().changed(achievement);
+          Database.getInstance().scored(this, conc);
+          return results;
+        } catch (SQLException e) {
+          conc.rollback();
+          if (Database.isDuplicate(e) && attempt < BATCH_ATTEMPTS) continue;
+          throw e;
+        }
+      }
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
@@ -172,47 +295,10 @@ public class User {
    * @throws DatabaseException if the database could not be accessed
    */
   public List<Event> getMarkedEvents() throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
+    flushWrites();
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.USER_MARKED_EVENTS.prepare(conc)) {
       List<Event> result = new ArrayList<>();
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "SELECT "
-                  + Event.INTERESTED_TABLE
-                  + "."
-                  + Event.INTERESTED_EVENT_ID_FIELD
-                  + ", "
-                  + Event.TABLE
-                  + "."
-                  + Event.NAME_FIELD
-                  + ", "
-                  + Event.TABLE
-                  + "."
-                  + Event.DESC_FIELD
-                  + ", "
-                  + Event.TABLE
-                  + "."
-                  + Event.START_FIELD
-                  + ", "
-                  + Event.TABLE
-                  + "."
-                  + Event.END_FIELD
-                  + " FROM "
-                  + Event.INTERESTED_TABLE
-                  + " JOIN "
-                  + Event.TABLE
-                  + " ON "
-                  + Event.INTERESTED_TABLE
-                  + "."
-                  + Event.INTERESTED_EVENT_ID_FIELD
-                  + " = "
-                  + Event.TABLE
-                  + "."
-                  + Event.ID_FIELD
-                  + " WHERE "
-                  + Event.INTERESTED_TABLE
-                  + "."
-                  + Event.INTERESTED_USER_ID_FIELD
-                  + " = ?");
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
       while (rs.next()) result.add(Event.from(rs));
@@ -223,54 +309,192 @@ public class User {
   }
 
   /**
-   * Mark interest in the given event.
+   * @param after the cursor to list from, which is the ID of the last event of the previous page
+   * @param limit the maximum number of events in the page
+   * @return the page of events the user has marked their interest in with IDs greater than the
+   *     cursor
+   * @throws IllegalArgumentException if the limit is not positive
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public Page<Event> getMarkedEvents(long after, int limit) throws DatabaseException {
+    flushWrites();
+    return Database.page(
+        Query.USER_MARKED_EVENTS_AFTER, Event::from, Event.ID_FIELD, limit, id, after);
+  }
+
+  /**
+   * @param consumer the consumer to pass each event the user has marked their interest in to as it
+   *     is read
+   * @throws DatabaseException if the database could not be accessed
+   * @throws IOException if the consumer failed
+   */
+  public void streamMarkedEvents(EntityConsumer<? super Event> consumer)
+      throws DatabaseException, IOException {
+    flushWrites();
+    Database.stream(Query.USER_MARKED_EVENTS, Event::from, consumer, id);
+  }
+
+  /**
+   * Mark interest in the given event. Marking interest twice has no effect. If write-behind
+   * is enabled, the write is queued rather than applied.
    *
    * @param event the event to mark interest in
    * @throws DatabaseException if the database could not be accessed
    */
   public void markInterestIn(Event event) throws DatabaseException {
     if (event == null) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "INSERT INTO "
-                  + Event.INTERESTED_TABLE
-                  + "("
-                  + Event.INTERESTED_USER_ID_FIELD
-                  + ", "
-                  + Event.INTERESTED_EVENT_ID_FIELD
-                  + ") VALUES (?, ?)");
+    WriteBehind queue = Database.getInstance().getWriteBehind();
+    if (queue != null) {
+      queue.setInterest(this, event.getID(), true);
+      return;
+    }
+    Lock lock = Database.getInstance().interest.writing();
+    lock.lock();
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.INTERESTED_INSERT.prepare(conc)) {
       stmt.setLong(1, id);
       stmt.setLong(2, event.getID());
-      stmt.executeUpdate();
+      Database.getInstance().interestChanged(event.getID(), stmt.executeUpdate());
     } catch (SQLException e) {
+      // The user is already interested in the event
+      if (Database.isDuplicate(e)) return;
       throw new DatabaseException(e);
+    } finally {
+      lock.unlock();
     }
   }
 
   /**
-   * Unmark interest in the given event.
+   * Unmark interest in the given event. If write-behind is enabled, the write is queued rather
+   * than applied.
    *
    * @param event the event to unmark interest in
    * @throws DatabaseException if the database could not be accessed
    */
   public void unmarkInterestIn(Event event) throws DatabaseException {
     if (event == null) return;
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement(
-              "DELETE FROM "
-                  + Event.INTERESTED_TABLE
-                  + " WHERE "
-                  + Event.INTERESTED_USER_ID_FIELD
-                  + " = ? AND "
-                  + Event.INTERESTED_EVENT_ID_FIELD
-                  + " = ?");
+    WriteBehind queue = Database.getInstance().getWriteBehind();
+    if (queue != null) {
+      queue.setInterest(this, event.getID(), false);
+      return;
+    }
+    Lock lock = Database.getInstance().interest.writing();
+    lock.lock();
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.INTERESTED_DELETE.prepare(conc)) {
       stmt.setLong(1, id);
       stmt.setLong(2, event.getID());
-      stmt.executeUpdate();
+      Database.getInstance().interestChanged(event.getID(), -stmt.executeUpdate());
+    } catch (SQLException e) {
+      throw new DatabaseException(e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Mark interest in each of the given events, in one transaction. Events the user is already
+   * interested in are left unchanged.
+   *
+   * @param events the IDs of the events to mark interest in
+   * @return the outcome for each distinct ID, in the order given
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public List<BatchResult> markInterestInAll(Collection<Long> events) throws DatabaseException {
+    return setInterestIn(events, true);
+  }
+
+  /**
+   * Unmark interest in each of the given events, in one transaction.
+   *
+   * @param events the IDs of the events to unmark interest in
+   * @return the outcome for each distinct ID, in the order given
+   * @throws DatabaseException if the database could not be accessed
+   */
+  public List<BatchResult> unmarkInterestInAll(Collection<Long> events) throws DatabaseException {
+    return setInterestIn(events, false);
+  }
+
+  private List<BatchResult> setInterestIn(Collection<Long> events, boolean interested)
+      throws DatabaseException {
+    List<Long> ids = new ArrayList<>(new LinkedHashSet<>(events));
+    if (ids.isEmpty()) return new ArrayList<>();
+    // Queued writes must be applied first, so that the results reflect them
+    flushWrites();
+    List<BatchResult> results;
+    boolean reload = false;
+    Lock lock = Database.getInstance().interest.writing();
+    lock.lock();
+    try (Connection conc = Database.getInstance().getConnection()) {
+      for (int attempt = 1; ; attempt++) {
+        try {
+          // Validate the events and read the relation in the same transaction as the writes
+          conc.setAutoCommit(false);
+          Set<Long> found = selectIDs(conc, Query.EVENT_IDS_IN, ids);
+          Set<Long> marked = selectIDs(conc, Query.INTERESTED_FOR_USER_IN, ids, id);
+          results = new ArrayList<>();
+          List<Long> changed = new ArrayList<>();
+          for (long event : ids) {
+            BatchResult.Status status = BatchResult.Status.APPLIED;
+            if (!found.contains(event)) status = BatchResult.Status.NOT_FOUND;
+            else if (marked.contains(event) == interested) status = BatchResult.Status.UNCHANGED;
+            else changed.add(event);
+            results.add(new BatchResult(event, status));
+          }
+          int[] counts = new int[0];
+          if (!changed.isEmpty()) {
+            Query query = interested ? Query.INTERESTED_INSERT : Query.INTERESTED_DELETE;
+            try (PreparedStatement stmt = query.prepare(conc)) {
+              for (long event : changed) {
+                stmt.setLong(1, id);
+                stmt.setLong(2, event);
+                stmt.addBatch();
+              }
+              counts = stmt.executeBatch();
+            }
+          }
+          conc.commit();
+          // Drivers that rewrite batches may not report the rows each statement affected, and a
+          // concurrent write may have beaten us to a row, so unreported counts force a reload
+          for (int count : counts) reload |= count == Statement.SUCCESS_NO_INFO;
+          if (!reload) {
+            for (int i = 0; i < counts.length; i++)
+              Database.getInstance()
+                  .interestChanged(changed.get(i), interested ? counts[i] : -counts[i]);
+          }
+          break;
+        } catch (SQLException e) {
+          conc.rollback();
+          if (Database.isDuplicate(e) && attempt < BATCH_ATTEMPTS) continue;
+          throw e;
+        }
+      }
     } catch (SQLException e) {
       throw new DatabaseException(e);
+    } finally {
+      lock.unlock();
+    }
+    // Reloading takes the exclusive side of the lock, so must wait until we have released it
+    if (reload) {
+      try {
+        Database.getInstance().reconcileInterestCounts();
+      } catch (DatabaseException e) {
+        // The writes have been applied, so leave the counters to the next reconciliation
+      }
+    }
+    return results;
+  }
+
+  // Select the IDs in the given list that satisfy the given query, whose list of values follows
+  // the given parameters
+  private static Set<Long> selectIDs(Connection conc, Query query, List<Long> ids, long... params)
+      throws SQLException {
+    try (PreparedStatement stmt = query.prepare(conc, ids, params.length + 1)) {
+      for (int i = 0; i < params.length; i++) stmt.setLong(i + 1, params[i]);
+      ResultSet rs = stmt.executeQuery();
+      Set<Long> result = new HashSet<>();
+      while (rs.next()) result.add(rs.getLong(1));
+      return result;
     }
   }
 
@@ -285,45 +509,46 @@ public class User {
    * @throws DatabaseException if the user could not be deleted
    */
   public void delete() throws DatabaseException {
+    // Queued writes must be applied first, so that the counts they change are corrected
+    flushWrites();
+    Lock lock = Database.getInstance().interest.writing();
+    lock.lock();
     try (Connection conc = Database.getInstance().getConnection()) {
       try {
         // Need to execute several transactions atomically, so disable auto-commit
         conc.setAutoCommit(false);
-        PreparedStatement stmt =
-            conc.prepareStatement(
-                "DELETE FROM "
-                    + Achievement.ACHIEVED_TABLE
-                    + " WHERE "
-                    + Achievement.ACHIEVED_USER_ID_FIELD
-                    + " = ?");
-        stmt.setLong(1, id);
-        stmt.executeUpdate();
-        stmt =
-            conc.prepareStatement(
-                "DELETE FROM "
-                    + Event.INTERESTED_TABLE
-                    + " WHERE "
-                    + Event.INTERESTED_USER_ID_FIELD
-                    + " = ?");
-        stmt.setLong(1, id);
-        stmt.executeUpdate();
-        stmt =
-            conc.prepareStatement(
-                "DELETE FROM " + Session.TABLE + " WHERE " + Session.USER_FIELD + " = ?");
-        stmt.setLong(1, id);
-        stmt.executeUpdate();
-
-        stmt = conc.prepareStatement("DELETE FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
-        stmt.setLong(1, id);
-        stmt.executeUpdate();
-        // Commit if both transactions were successful
+        // Note the events the user was interested in, so that their counts can be updated
+        List<Long> events = new ArrayList<>();
+        try (PreparedStatement stmt = Query.INTERESTED_EVENTS_FOR_USER.prepare(conc)) {
+          stmt.setLong(1, id);
+          ResultSet rs = stmt.executeQuery();
+          while (rs.next()) events.add(rs.getLong(1));
+        }
+        for (Query query :
+            new Query[] {
+              Query.ACHIEVEMENTS_LOCKED_FOR_USER,
+              Query.ACHIEVED_DELETE_FOR_USER,
+              Query.INTERESTED_DELETE_FOR_USER,
+              Query.SESSION_DELETE_FOR_USER,
+              Query.USER_DELETE
+            }) {
+          try (PreparedStatement stmt = query.prepare(conc)) {
+            stmt.setLong(1, id);
+            stmt.executeUpdate();
+          }
+        }
+        // Commit if all transactions were successful
         conc.commit();
+        Database.getInstance().deleted(this);
+        for (long event : events) Database.getInstance().interestChanged(event, -1);
       } catch (SQLException e) {
         conc.rollback();
         throw e;
       }
     } catch (SQLException e) {
       throw new DatabaseException(e);
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -335,12 +560,15 @@ public class User {
    * @throws DatabaseException if the user could not be found
    */
   public static User getByID(long id) throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement("SELECT * FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
+    return Database.getInstance().users.get(id, () -> load(id));
+  }
+
+  private static User load(long id) throws DatabaseException {
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.USER_BY_ID.prepare(conc)) {
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
-      if (!rs.first()) throw new DatabaseException("No user with ID " + id);
+      if (!rs.next()) throw new NotFoundException("No user with ID " + id);
       return from(rs);
     } catch (SQLException e) {
       throw new DatabaseException(e);
@@ -355,12 +583,11 @@ public class User {
    * @throws DatabaseException if the database could not be accessed
    */
   public static boolean existsWithID(long id) throws DatabaseException {
-    try (Connection conc = Database.getInstance().getConnection()) {
-      PreparedStatement stmt =
-          conc.prepareStatement("SELECT * FROM " + TABLE + " WHERE " + ID_FIELD + " = ?");
+    try (Connection conc = Database.getInstance().getConnection();
+        PreparedStatement stmt = Query.USER_BY_ID.prepare(conc)) {
       stmt.setLong(1, id);
       ResultSet rs = stmt.executeQuery();
-      return rs.first();
+      return rs.next();
     } catch (SQLException e) {
       throw new DatabaseException(e);
     }
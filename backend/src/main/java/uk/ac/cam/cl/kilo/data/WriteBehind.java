@@ -0,0 +1,351 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * WriteBehind.java
+ *
+ * <p>A bounded queue of the high-frequency writes users make: marking and unmarking interest in
+ * events and achieving achievements. Queued writes are coalesced so that only the latest intent
+ * for each user and entity remains, so repeatedly marking and unmarking an event costs at most one
+ * statement. The queue is flushed by applying every write in it as a few batches in a single
+ * transaction.
+ *
+ * <p>Every read of a user's interests, achievements or score first flushes the writes that user
+ * has queued, so users always see their own writes. If the queue fills, the thread that fills it
+ * flushes it, so writers are slowed rather than writes dropped.
+ *
+ * @author Nathan Corbyn
+ */
+class WriteBehind {
+  // The writes queued by one user
+  private static class Writes {
+    private final User user;
+    // Whether the user should be interested in each event, in the order first queued
+    private final Map<Long, Boolean> interest = new LinkedHashMap<>();
+    private final Map<Long, Achievement> achieved = new LinkedHashMap<>();
+
+    private Writes(User user) {
+      this.user = user;
+    }
+
+    private int size() {
+      return interest.size() + achieved.size();
+    }
+  }
+
+  private final int capacity;
+  private final Object queueLock = new Object();
+  private Map<Long, Writes> queue = new LinkedHashMap<>();
+  private int size;
+  // Held while writes are applied, so that later writes to an entity never overtake earlier ones
+  private final Lock flushLock = new ReentrantLock();
+  // The users whose writes are being applied, whose reads must wait for them
+  private Set<Long> inFlight = Collections.emptySet();
+  // The writes set aside while the queue is suspended, guarded by the flush lock
+  private Map<Long, Writes> suspended;
+
+  /** @param capacity the number of writes that may be queued before the queue must be flushed */
+  WriteBehind(int capacity) {
+    if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+    this.capacity = capacity;
+  }
+
+  /**
+   * @param user the user whose interest has changed
+   * @param event the ID of the event
+   * @param interested true if the user is now interested in the event, false otherwise
+   * @throws DatabaseException if the queue was full and could not be flushed
+   */
+  void setInterest(User user, long event, boolean interested) throws DatabaseException {
+    boolean full;
+    synchronized (queueLock) {
+      Writes writes = queue.computeIfAbsent(user.getID(), id -> new Writes(user));
+      if (writes.interest.put(event, interested) == null) size++;
+      full = size >= capacity;
+    }
+    if (full) flush();
+  }
+
+  /**
+   * @param user the user that has achieved the achievement
+   * @param achievement the achievement achieved
+   * @throws DatabaseException if the queue was full and could not be flushed
+   */
+  void achieve(User user, Achievement achievement) throws DatabaseException {
+    boolean full;
+    synchronized (queueLock) {
+      Writes writes = queue.computeIfAbsent(user.getID(), id -> new Writes(user));
+      if (writes.achieved.putIfAbsent(achievement.getID(), achievement) == null) size++;
+      full = size >= capacity;
+    }
+    if (full) flush();
+  }
+
+  /** @return the number of writes queued */
+  int size() {
+    synchronized (queueLock) {
+      return size;
+    }
+  }
+
+  /**
+   * Apply every queued write.
+   *
+   * @return the number of writes applied
+   * @throws DatabaseException if the writes could not be applied, in which case they are queued
+   *     again
+   */
+  int flush() throws DatabaseException {
+    flushLock.lock();
+    try {
+      Map<Long, Writes> batch;
+      synchronized (queueLock) {
+        batch = queue;
+        queue = new LinkedHashMap<>();
+        size = 0;
+        inFlight = batch.keySet();
+      }
+      return apply(batch);
+    } finally {
+      landed();
+    }
+  }
+
+  /**
+   * Apply the writes queued by the given user.
+   *
+   * @param user the ID of the user
+   * @throws DatabaseException if the writes could not be applied, in which case they are queued
+   *     again
+   */
+  void flush(long user) throws DatabaseException {
+    // Most reads are by users with nothing queued or being applied, who needn't wait for a flush
+    synchronized (queueLock) {
+      if (!queue.containsKey(user) && !inFlight.contains(user)) return;
+    }
+    // Holding the lock, any flush that had taken the user's writes has applied or requeued them
+    flushLock.lock();
+    try {
+      Map<Long, Writes> batch = new HashMap<>();
+      synchronized (queueLock) {
+        Writes writes = queue.remove(user);
+        if (writes == null) return;
+        size -= writes.size();
+        batch.put(user, writes);
+        inFlight = batch.keySet();
+      }
+      apply(batch);
+    } finally {
+      landed();
+    }
+  }
+
+  /**
+   * Set aside every queued write and hold off any flush until {@link #resume(boolean)}, so that a
+   * restore can replace the data without writes made before it being applied on top of it.
+   */
+  void suspend() {
+    flushLock.lock();
+    synchronized (queueLock) {
+      suspended = queue;
+      queue = new LinkedHashMap<>();
+      size = 0;
+    }
+  }
+
+  /**
+   * Allow flushes again after {@link #suspend()}.
+   *
+   * @param discard true if the writes set aside should be discarded, false to queue them again
+   */
+  void resume(boolean discard) {
+    try {
+      if (!discard) requeue(suspended);
+      suspended = null;
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  // Notes that the writes being applied have been applied or requeued, and releases the lock
+  private void landed() {
+    synchronized (queueLock) {
+      inFlight = Collections.emptySet();
+    }
+    flushLock.unlock();
+  }
+
+  private int apply(Map<Long, Writes> batch) throws DatabaseException {
+    if (batch.isEmpty()) return 0;
+    List<long[]> marked = new ArrayList<>(), unmarked = new ArrayList<>();
+    List<Achievement> achievements = new ArrayList<>();
+    List<Writes> achievers = new ArrayList<>();
+    int count = 0;
+    for (Writes writes : batch.values()) {
+      for (Map.Entry<Long, Boolean> entry : writes.interest.entrySet()) {
+        long[] pair = {writes.user.getID(), entry.getKey()};
+        (entry.getValue() ? marked : unmarked).add(pair);
+      }
+      for (Achievement achievement : writes.achieved.values()) {
+        achievements.add(achievement);
+        achievers.add(writes);
+      }
+      count += writes.size();
+    }
+    Database database = Database.getInstance();
+    boolean reload = false;
+    Lock lock = database.interest.writing();
+    lock.lock();
+    try (Connection conc = database.getConnection()) {
+      try {
+        conc.setAutoCommit(false);
+        int[] inserted, deleted, unlocked;
+        try (PreparedStatement stmt = Query.INTERESTED_INSERT_IF_ABSENT.prepare(conc)) {
+          for (long[] pair : marked) addIfAbsent(stmt, pair[0], pair[1]);
+          inserted = executeBatch(stmt, marked.size());
+        }
+        try (PreparedStatement stmt = Query.INTERESTED_DELETE.prepare(conc)) {
+          for (long[] pair : unmarked) {
+            stmt.setLong(1, pair[0]);
+            stmt.setLong(2, pair[1]);
+            stmt.addBatch();
+          }
+          deleted = executeBatch(stmt, unmarked.size());
+        }
+        try (PreparedStatement stmt = Query.ACHIEVED_INSERT_IF_ABSENT.prepare(conc)) {
+          for (int i = 0; i < achievements.size(); i++)
+            addIfAbsent(stmt, achievers.get(i).user.getID(), achievements.get(i).getID());
+          unlocked = executeBatch(stmt, achievements.size());
+        }
+        // Only the achievements that were new are counted and scored. Where the driver didn't say
+        // whether an achievement was new, its count and the user's score are recounted instead
+        Map<Long, Achievement> changed = new LinkedHashMap<>(), recounted = new LinkedHashMap<>();
+        Map<Long, User> scorers = new LinkedHashMap<>(), rescored = new LinkedHashMap<>();
+        try (PreparedStatement unlock = Query.ACHIEVEMENT_UNLOCKED.prepare(conc);
+            PreparedStatement score = Query.USER_SCORE_ADD.prepare(conc)) {
+          int added = 0;
+          for (int i = 0; i < achievements.size(); i++) {
+            if (unlocked[i] == 0) continue;
+            Achievement achievement = achievements.get(i);
+            User user = achievers.get(i).user;
+            if (unlocked[i] == Statement.SUCCESS_NO_INFO) {
+              recounted.put(achievement.getID(), achievement);
+              rescored.put(user.getID(), user);
+              continue;
+            }
+            unlock.setLong(1, achievement.getID());
+            unlock.addBatch();
+            score.setLong(1, achievement.getID());
+            score.setLong(2, user.getID());
+            score.addBatch();
+            added++;
+            changed.put(achievement.getID(), achievement);
+            scorers.put(user.getID(), user);
+          }
+          executeBatch(unlock, added);
+          executeBatch(score, added);
+        }
+        try (PreparedStatement stmt = Query.ACHIEVEMENT_COUNT_RECOUNT.prepare(conc)) {
+          for (long achievement : recounted.keySet()) {
+            stmt.setLong(1, achievement);
+            stmt.addBatch();
+          }
+          executeBatch(stmt, recounted.size());
+        }
+        try (PreparedStatement stmt = Query.USER_SCORE_RECOUNT.prepare(conc)) {
+          for (long user : rescored.keySet()) {
+            stmt.setLong(1, user);
+            stmt.addBatch();
+          }
+          executeBatch(stmt, rescored.size());
+        }
+        changed.putAll(recounted);
+        scorers.putAll(rescored);
+        conc.commit();
+        for (int i = 0; i < marked.size(); i++)
+          reload |= !interestChanged(database, marked.get(i)[1], inserted[i], 1);
+        for (int i = 0; i < unmarked.size(); i++)
+          reload |= !interestChanged(database, unmarked.get(i)[1], deleted[i], -1);
+        for (Achievement achievement : changed.values()) database.changed(achievement);
+        for (User user : scorers.values()) database.scored(user, conc);
+      } catch (SQLException e) {
+        conc.rollback();
+        throw e;
+      }
+    } catch (SQLException e) {
+      requeue(batch);
+      throw new DatabaseException(e);
+    } finally {
+      lock.unlock();
+    }
+    // Reloading takes the exclusive side of the lock, so must wait until we have released it
+    if (reload) {
+      try {
+        database.reconcileInterestCounts();
+      } catch (DatabaseException e) {
+        // The writes have been applied, so leave the counters to the next reconciliation
+      }
+    }
+    return count;
+  }
+
+  // Some drivers refuse to execute an empty batch
+  private static int[] executeBatch(PreparedStatement stmt, int size) throws SQLException {
+    return size == 0 ? new int[0] : stmt.executeBatch();
+  }
+
+  private static void addIfAbsent(PreparedStatement stmt, long user, long entity)
+      throws SQLException {
+    stmt.setLong(1, user);
+    stmt.setLong(2, entity);
+    stmt.setLong(3, user);
+    stmt.setLong(4, entity);
+    stmt.addBatch();
+  }
+
+  // Count the rows a statement in a batch affected towards the interest in an event, returning
+  // false if the driver didn't report them, in which case the counters must be reloaded
+  private static boolean interestChanged(Database database, long event, int rows, int sign) {
+    if (rows == Statement.SUCCESS_NO_INFO) return false;
+    database.interestChanged(event, sign * rows);
+    return true;
+  }
+
+  // Queue writes that failed to apply again, behind any later writes to the same entities
+  private void requeue(Map<Long, Writes> batch) {
+    synchronized (queueLock) {
+      for (Writes failed : batch.values()) {
+        Writes writes = queue.computeIfAbsent(failed.user.getID(), id -> new Writes(failed.user));
+        for (Map.Entry<Long, Boolean> entry : failed.interest.entrySet())
+          if (writes.interest.putIfAbsent(entry.getKey(), entry.getValue()) == null) size++;
+        for (Achievement achievement : failed.achieved.values())
+          if (writes.achieved.putIfAbsent(achievement.getID(), achievement) == null) size++;
+      }
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import static com.google.common.truth.Truth.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.Test;
+
+/**
+ * CompressionTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class CompressionTest {
+  private static final byte[] DATA;
+
+  static {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      builder.append("{\"id\":").append(i).append(",\"name\":\"test\"},");
+    }
+    DATA = builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] readAll(InputStream input) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    for (int n; (n = input.read(buffer)) != -1; ) output.write(buffer, 0, n);
+    return output.toByteArray();
+  }
+
+  @Test
+  public void identity_negotiated_withoutHeader() {
+    assertThat(Compression.negotiate(null)).isEqualTo(Compression.Encoding.IDENTITY);
+    assertThat(Compression.negotiate("br")).isEqualTo(Compression.Encoding.IDENTITY);
+  }
+
+  @Test
+  public void gzip_negotiated_whenPreferred() {
+    assertThat(Compression.negotiate("gzip, deflate")).isEqualTo(Compression.Encoding.GZIP);
+    assertThat(Compression.negotiate("deflate;q=0.5, gzip")).isEqualTo(Compression.Encoding.GZIP);
+    assertThat(Compression.negotiate("*")).isEqualTo(Compression.Encoding.GZIP);
+  }
+
+  @Test
+  public void deflate_negotiated_whenPreferred() {
+    assertThat(Compression.negotiate("gzip;q=0.5, deflate"))
+        .isEqualTo(Compression.Encoding.DEFLATE);
+    assertThat(Compression.negotiate("gzip;q=0, *")).isEqualTo(Compression.Encoding.DEFLATE);
+  }
+
+  @Test
+  public void identity_negotiated_whenAllRefused() {
+    assertThat(Compression.negotiate("*;q=0")).isEqualTo(Compression.Encoding.IDENTITY);
+  }
+
+  @Test
+  public void data_roundTrips_gzip() throws Exception {
+    // Compress twice to exercise a pooled deflater
+    Compression.compress(DATA, Compression.Encoding.GZIP);
+    byte[] compressed = Compression.compress(DATA, Compression.Encoding.GZIP);
+
+    assertThat(compressed.length).isLessThan(DATA.length);
+    assertThat(readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)))).isEqualTo(DATA);
+  }
+
+  @Test
+  public void data_roundTrips_deflate() throws Exception {
+    Compression.compress(DATA, Compression.Encoding.DEFLATE);
+    byte[] compressed = Compression.compress(DATA, Compression.Encoding.DEFLATE);
+
+    assertThat(readAll(new InflaterInputStream(new ByteArrayInputStream(compressed))))
+        .isEqualTo(DATA);
+  }
+
+  @Test
+  public void data_roundTrips_wrappedGzip() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (OutputStream compressed = Compression.wrap(output, Compression.Encoding.GZIP)) {
+      // Write in pieces, as a streamed response would
+      for (int i = 0; i < DATA.length; i += 100) {
+        compressed.write(DATA, i, Math.min(100, DATA.length - i));
+      }
+    }
+
+    assertThat(readAll(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))))
+        .isEqualTo(DATA);
+  }
+
+  @Test
+  public void stream_writesNoTrailer_discarded() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputStream compressed = Compression.wrap(output, Compression.Encoding.GZIP);
+    compressed.write(DATA);
+    Compression.discard(compressed);
+    int size = output.size();
+    compressed.close();
+
+    assertThat(output.size()).isEqualTo(size);
+    // The discarded deflater is reset before it is reused
+    byte[] gzip = Compression.compress(DATA, Compression.Encoding.GZIP);
+    assertThat(readAll(new GZIPInputStream(new ByteArrayInputStream(gzip)))).isEqualTo(DATA);
+  }
+
+  @Test
+  public void data_unchanged_identity() {
+    assertThat(Compression.compress(DATA, Compression.Encoding.IDENTITY)).isSameAs(DATA);
+  }
+
+  @Test
+  public void images_notCompressible() {
+    assertThat(Compression.isCompressible("image/png")).isFalse();
+    assertThat(Compression.isCompressible("application/json")).isTrue();
+    assertThat(Compression.isCompressible("image/svg+xml")).isTrue();
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import static com.google.common.truth.Truth.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import spark.Request;
+import spark.Response;
+
+/**
+ * HttpCachingTest.java
+ *
+ * @author Nathan Corbyn
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class HttpCachingTest {
+  private static final Instant MODIFIED = Instant.ofEpochSecond(1551434400);
+  private static final String ETAG = HttpCaching.etag(7L, MODIFIED);
+
+  @Mock private Request request;
+  @Mock private Response response;
+
+  @Test
+  public void etag_differs_differentVersions() {
+    assertThat(HttpCaching.etag(8L, MODIFIED)).isNotEqualTo(ETAG);
+    assertThat(ETAG).startsWith("W/\"");
+    assertThat(ETAG).endsWith("\"");
+  }
+
+  @Test
+  public void response_hasValidators_withoutPreconditions() {
+    boolean notModified = HttpCaching.notModified(request, response, ETAG, MODIFIED);
+
+    assertThat(notModified).isFalse();
+    verify(response).header("ETag", ETAG);
+    verify(response).header("Last-Modified", "Fri, 1 Mar 2019 10:00:00 GMT");
+    verify(response).header("Vary", "Accept-Encoding");
+    verify(response, never()).status(304);
+  }
+
+  @Test
+  public void response_notModified_withMatchingETag() {
+    when(request.headers("If-None-Match")).thenReturn("\"other\", " + ETAG);
+
+    boolean notModified = HttpCaching.notModified(request, response, ETAG, MODIFIED);
+
+    assertThat(notModified).isTrue();
+    verify(response).status(304);
+    verify(response).header("Vary", "Accept-Encoding");
+  }
+
+  @Test
+  public void response_notModified_withStrongFormOfETag() {
+    when(request.headers("If-None-Match")).thenReturn(ETAG.substring(2));
+
+    assertThat(HttpCaching.notModified(request, response, ETAG, MODIFIED)).isTrue();
+  }
+
+  @Test
+  public void response_modified_withStaleETagAndCurrentDate() {
+    when(request.headers("If-None-Match")).thenReturn("\"other\"");
+    when(request.headers("If-Modified-Since")).thenReturn("Fri, 1 Mar 2019 10:00:00 GMT");
+
+    assertThat(HttpCaching.notModified(request, response, ETAG, MODIFIED)).isFalse();
+  }
+
+  @Test
+  public void response_notModified_withCurrentDate() {
+    when(request.headers("If-Modified-Since")).thenReturn("Fri, 1 Mar 2019 10:00:00 GMT");
+
+    assertThat(HttpCaching.notModified(request, response, ETAG, MODIFIED.plusMillis(500)))
+        .isTrue();
+  }
+
+  @Test
+  public void response_modified_withEarlierDate() {
+    when(request.headers("If-Modified-Since")).thenReturn("Fri, 1 Mar 2019 09:59:59 GMT");
+
+    assertThat(HttpCaching.notModified(request, response, ETAG, MODIFIED)).isFalse();
+  }
+
+  @Test
+  public void response_modified_withMalformedDate() {
+    when(request.headers("If-Modified-Since")).thenReturn("yesterday");
+
+    assertThat(HttpCaching.notModified(request, response, ETAG, MODIFIED)).isFalse();
+  }
+}
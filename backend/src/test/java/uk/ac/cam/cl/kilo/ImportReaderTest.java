@@ -0,0 +1,84 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import static com.google.common.truth.Truth.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * ImportReaderTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class ImportReaderTest {
+  private static ImportReader open(String format, String data) {
+    return ImportReader.open(
+        format, new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void csv_read_withHeader() throws Exception {
+    ImportReader reader = open("text/csv", "name,x\r\nhall,10\r\n\r\nroom,20");
+
+    Map<String, String> first = reader.next();
+    Map<String, String> second = reader.next();
+
+    assertThat(first).containsExactly("name", "hall", "x", "10");
+    assertThat(second).containsExactly("name", "room", "x", "20");
+    assertThat(reader.next()).isNull();
+  }
+
+  @Test
+  public void csv_read_withQuotedFields() throws Exception {
+    ImportReader reader = open("csv", "\uFEFFname,description\n\"a, b\",\"say \"\"hi\"\"\nthere\"\n");
+
+    assertThat(reader.next())
+        .containsExactly("name", "a, b", "description", "say \"hi\"\nthere");
+    assertThat(reader.next()).isNull();
+  }
+
+  @Test(expected = IOException.class)
+  public void csv_throwsException_unterminatedQuote() throws Exception {
+    ImportReader reader = open("csv", "name\n\"open");
+
+    reader.next();
+  }
+
+  @Test
+  public void json_read_asStrings() throws Exception {
+    ImportReader reader =
+        open("application/json", "[{\"name\": \"hall\", \"x\": 10, \"desc\": null}, {}]");
+
+    assertThat(reader.next()).containsExactly("name", "hall", "x", "10");
+    assertThat(reader.next()).isEmpty();
+    assertThat(reader.next()).isNull();
+    assertThat(reader.next()).isNull();
+  }
+
+  @Test(expected = IOException.class)
+  public void json_throwsException_nestedValue() throws Exception {
+    ImportReader reader = open("json", "[{\"name\": [1]}]");
+
+    reader.next();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void reader_throwsException_unknownFormat() {
+    open("text/plain", "");
+  }
+}
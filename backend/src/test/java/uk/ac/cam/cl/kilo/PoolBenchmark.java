@@ -0,0 +1,130 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.cam.cl.kilo.data.Database;
+import uk.ac.cam.cl.kilo.data.DatabaseException;
+import uk.ac.cam.cl.kilo.data.Migrations;
+import uk.ac.cam.cl.kilo.data.User;
+
+/**
+ * PoolBenchmark.java
+ *
+ * <p>Compares the connection pools {@link ConnectionPools} can create, by the latency of checking
+ * a connection out and of reading a user through the data package, at concurrencies below and
+ * above the size of the pool. Run with {@code mvn test-compile exec:exec -Pbenchmark
+ * -Dbenchmark=PoolBenchmark}, adding {@code -p size=...} after the name to try other pool sizes.
+ *
+ * @author Nathan Corbyn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoolBenchmark {
+  private static final int USERS = 1000;
+
+  @Param({"c3p0", "hikari"})
+  private String pool;
+
+  @Param({"15"})
+  private String size;
+
+  private DataSource source;
+
+  @Setup
+  public void setup() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("pool", pool);
+    properties.setProperty("pool_max_size", size);
+    properties.setProperty("driver", "org.hsqldb.jdbc.JDBCDriver");
+    properties.setProperty("user", "sa");
+    properties.setProperty("pass", "");
+    source = ConnectionPools.create(properties, "jdbc:hsqldb:mem:pool_benchmark");
+    Database.configure(source);
+    try (Connection conc = source.getConnection()) {
+      Migrations.migrate(conc);
+    }
+    for (long id = 0; id < USERS; id++) new User(id, "user" + id);
+  }
+
+  @TearDown
+  public void teardown() throws SQLException {
+    ConnectionPools.close(source);
+  }
+
+  private void checkout() throws SQLException {
+    source.getConnection().close();
+  }
+
+  private User getUser() throws DatabaseException {
+    return User.getByID(ThreadLocalRandom.current().nextInt(USERS));
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void checkout_1thread() throws SQLException {
+    checkout();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void checkout_8threads() throws SQLException {
+    checkout();
+  }
+
+  @Benchmark
+  @Threads(32)
+  public void checkout_32threads() throws SQLException {
+    checkout();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public User getUser_1thread() throws DatabaseException {
+    return getUser();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public User getUser_8threads() throws DatabaseException {
+    return getUser();
+  }
+
+  @Benchmark
+  @Threads(32)
+  public User getUser_32threads() throws DatabaseException {
+    return getUser();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import static com.google.common.truth.Truth.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ResponseCacheTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class ResponseCacheTest {
+  private ResponseCache cache;
+  private AtomicInteger renders;
+
+  @Before
+  public void setup() {
+    cache = new ResponseCache();
+    renders = new AtomicInteger();
+  }
+
+  private String render(String body) {
+    renders.incrementAndGet();
+    return body;
+  }
+
+  @Test
+  public void cache_rendersOnce_sameVersion() {
+    ResponseCache.Entry first = cache.get("events", 1L, () -> render("[]"));
+    ResponseCache.Entry second = cache.get("events", 1L, () -> render("[]"));
+
+    assertThat(renders.get()).isEqualTo(1);
+    assertThat(second).isSameAs(first);
+    assertThat(first.getBody()).isEqualTo("[]".getBytes(StandardCharsets.UTF_8));
+    assertThat(cache.getHits()).isEqualTo(1L);
+    assertThat(cache.getMisses()).isEqualTo(1L);
+  }
+
+  @Test
+  public void cache_rerenders_newVersion() {
+    cache.get("events", 1L, () -> render("[]"));
+    ResponseCache.Entry entry = cache.get("events", 2L, () -> render("[1]"));
+
+    assertThat(renders.get()).isEqualTo(2);
+    assertThat(entry.getVersion()).isEqualTo(2L);
+    assertThat(entry.getBody()).isEqualTo("[1]".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void cache_keepsNewerVersion_renderedOldVersion() {
+    cache.get("events", 2L, () -> render("[1]"));
+    cache.get("events", 1L, () -> render("[]"));
+    ResponseCache.Entry entry = cache.get("events", 2L, () -> render("[1]"));
+
+    assertThat(renders.get()).isEqualTo(2);
+    assertThat(entry.getVersion()).isEqualTo(2L);
+  }
+
+  @Test
+  public void cache_rendersSeparately_differentRoutes() {
+    cache.get("events", 1L, () -> render("[]"));
+    cache.get("maps", 1L, () -> render("[]"));
+
+    assertThat(renders.get()).isEqualTo(2);
+  }
+}
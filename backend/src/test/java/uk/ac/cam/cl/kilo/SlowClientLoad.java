@@ -0,0 +1,143 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo;
+
+import static spark.Spark.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+import uk.ac.cam.cl.kilo.data.Database;
+import uk.ac.cam.cl.kilo.data.Migrations;
+import uk.ac.cam.cl.kilo.data.User;
+
+/**
+ * SlowClientLoad.java
+ *
+ * <p>Measures the throughput of the server under thousands of concurrent clients whose requests
+ * are slow, because each waits on an upstream service as the OAuth routes wait on Facebook. Every
+ * request also reads a user through a pool of 15 connections to an in-memory database. Handling
+ * requests on a fixed pool of 200 platform threads caps throughput at 200 requests per upstream
+ * latency, whereas virtual threads handle every client at once, bounded only by the connection
+ * semaphore.
+ *
+ * <p>Needs Java 21 for its client threads. Run with {@code mvn test-compile exec:exec -Pjdk21,load
+ * -Dload.threads=platform -Dload.clients=5000 -Dload.latency=200}, giving the thread mode ({@code
+ * platform} or {@code virtual}), the number of clients and the upstream latency in milliseconds.
+ *
+ * @author Nathan Corbyn
+ */
+public class SlowClientLoad {
+  private static final int PORT = 4568, USERS = 1000, REQUESTS_PER_CLIENT = 5;
+
+  public static void main(String[] args) throws Exception {
+    String mode = args.length > 0 ? args[0] : "virtual";
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    long latency = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+    Properties properties = new Properties();
+    properties.setProperty("driver", "org.hsqldb.jdbc.JDBCDriver");
+    properties.setProperty("user", "SA");
+    properties.setProperty("pass", "");
+    properties.setProperty("pool", "hikari");
+    DataSource source =
+        ConnectionPools.create(properties, "jdbc:hsqldb:mem:load;hsqldb.tx=mvcc");
+    try (Connection conc = source.getConnection()) {
+      Migrations.migrate(conc);
+    }
+    if (mode.equals("virtual")) {
+      source = ConnectionPools.bounded(properties, source);
+      EmbeddedServers.add(
+          EmbeddedServers.defaultIdentifier(),
+          new EmbeddedJettyFactory(VirtualThreads.newServerFactory()));
+    }
+    threadPool(200);
+    Database.configure(source);
+    for (long id = 0; id < USERS; id++) new User(id, "user" + id);
+
+    port(PORT);
+    get(
+        "/slow",
+        (request, response) -> {
+          String name = User.getByID(ThreadLocalRandom.current().nextInt(USERS)).getName();
+          Thread.sleep(latency);
+          return name;
+        });
+    awaitInitialization();
+
+    System.out.println(
+        "Running " + clients + " clients against " + mode + " threads, " + latency + "ms upstream");
+    List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger failures = new AtomicInteger();
+    ExecutorService executor = VirtualThreads.newExecutor();
+    List<Future<?>> futures = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int i = 0; i < clients; i++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int j = 0; j < REQUESTS_PER_CLIENT; j++) {
+                  long sent = System.nanoTime();
+                  try {
+                    request();
+                    latencies.add(System.nanoTime() - sent);
+                  } catch (IOException e) {
+                    failures.incrementAndGet();
+                  }
+                }
+              }));
+    }
+    for (Future<?> future : futures) future.get();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    executor.shutdown();
+    stop();
+
+    Collections.sort(latencies);
+    System.out.printf(
+        "%d requests in %.1fs: %.0f requests/s, %d failed%n",
+        latencies.size(), seconds, latencies.size() / seconds, failures.get());
+    if (!latencies.isEmpty()) {
+      System.out.printf(
+          "latency p50 %dms, p99 %dms%n",
+          TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() / 2)),
+          TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() * 99 / 100)));
+    }
+    System.exit(0);
+  }
+
+  private static void request() throws IOException {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL("http://localhost:" + PORT + "/slow").openConnection();
+    connection.setConnectTimeout(60000);
+    connection.setReadTimeout(60000);
+    if (connection.getResponseCode() != 200)
+      throw new IOException("Status " + connection.getResponseCode());
+    try (InputStream input = connection.getInputStream()) {
+      while (input.read() != -1) {}
+    }
+  }
+}
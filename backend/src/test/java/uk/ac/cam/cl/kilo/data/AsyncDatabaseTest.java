@@ -0,0 +1,118 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * AsyncDatabaseTest.java
+ *
+ * @author Nathan Corbyn
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncDatabaseTest {
+  @Mock private DataSource ds;
+  private AsyncDatabase async;
+
+  @Before
+  public void setup() {
+    Database.configure(ds);
+  }
+
+  @Test
+  public void calls_madeInParallel() throws Exception {
+    async = new AsyncDatabase(2, 10);
+    CountDownLatch started = new CountDownLatch(2);
+    AsyncDatabase.Call<Boolean> call =
+        () -> {
+          started.countDown();
+          // Only completes if the other call is running at the same time
+          try {
+            return started.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new DatabaseException(e);
+          }
+        };
+
+    CompletableFuture<Boolean> first = async.supply(call), second = async.supply(call);
+
+    assertThat(AsyncDatabase.await(first.thenCombine(second, Boolean::logicalAnd))).isTrue();
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void await_throws_databaseException() throws Exception {
+    async = new AsyncDatabase(1, 10);
+
+    AsyncDatabase.await(
+        async.supply(
+            () -> {
+              throw new DatabaseException("failed");
+            }));
+  }
+
+  @Test
+  public void call_madeByCaller_whenQueueFull() throws Exception {
+    async = new AsyncDatabase(1, 1);
+    CountDownLatch release = new CountDownLatch(1);
+    AsyncDatabase.Call<Thread> blocked =
+        () -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new DatabaseException(e);
+          }
+          return Thread.currentThread();
+        };
+    CompletableFuture<Thread> running = async.supply(blocked);
+    CompletableFuture<Thread> queued = async.supply(Thread::currentThread);
+
+    CompletableFuture<Thread> overflow = async.supply(Thread::currentThread);
+    release.countDown();
+
+    assertThat(AsyncDatabase.await(overflow)).isSameAs(Thread.currentThread());
+    assertThat(AsyncDatabase.await(running)).isNotSameAs(Thread.currentThread());
+    assertThat(AsyncDatabase.await(queued)).isNotSameAs(Thread.currentThread());
+  }
+
+  @Test
+  public void calls_madeForCallersClient() throws Exception {
+    async = new AsyncDatabase(1, 10);
+    Database database = Database.getInstance();
+    database.readAs("user:1");
+
+    String client = AsyncDatabase.await(async.supply(database::getClient));
+    database.readAs(null);
+
+    assertThat(client).isEqualTo("user:1");
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    if (async != null) async.shutdown();
+    Field instance = Database.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(null, null);
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.sql.DataSource;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * BackupTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class BackupTest {
+  @Before
+  public void setup() throws Exception {
+    DataTestFramework.setup();
+    // Each operation needs its own connection to the test database
+    JDBCDataSource source = new JDBCDataSource();
+    source.setUrl("jdbc:hsqldb:file:data/testdb");
+    source.setUser("sa");
+    source.setPassword("");
+    Database.configure(source);
+  }
+
+  private static long count(String table) throws Exception {
+    try (Statement stmt = DataTestFramework.getConnection().createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  // Reconfigure the database with the given source
+  private static void configure(DataSource source) throws Exception {
+    Field instance = Database.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(null, null);
+    Database.configure(source);
+  }
+
+  // Configure the database with a new, empty in-memory database, as the memory engine does
+  private static void configureMemory(String name) throws Exception {
+    JDBCDataSource source = new JDBCDataSource();
+    source.setUrl("jdbc:hsqldb:mem:" + name + ";hsqldb.tx=mvcc");
+    source.setUser("SA");
+    source.setPassword("");
+    configure(source);
+    try (Connection conc = source.getConnection()) {
+      Migrations.migrate(conc);
+    }
+  }
+
+  // Wraps a connection so that executing the given statement fails
+  private static Connection failing(Connection conc, String sql) {
+    return (Connection)
+        Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] {Connection.class},
+            (proxy, method, args) -> {
+              Object result = method.invoke(conc, args);
+              if (!(result instanceof Statement)) return result;
+              Statement stmt = (Statement) result;
+              return Proxy.newProxyInstance(
+                  Statement.class.getClassLoader(),
+                  new Class<?>[] {Statement.class},
+                  (inner, call, params) -> {
+                    if (call.getName().equals("execute") && sql.equals(params[0]))
+                      throw new SQLException("Failed to check constraints");
+                    return call.invoke(stmt, params);
+                  });
+            });
+  }
+
+  private static byte[] export() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Backup.export(output);
+    return output.toByteArray();
+  }
+
+  @Test
+  public void backup_restored_afterChanges() throws Exception {
+    byte[] backup = export();
+    Event.getByID(0).delete();
+    User.getByID(1).delete();
+    new Event("new", "event", Instant.EPOCH, Instant.EPOCH);
+
+    Backup.restore(new ByteArrayInputStream(backup));
+
+    assertThat(count(Event.TABLE)).isEqualTo(2);
+    assertThat(count(Event.INTERESTED_TABLE)).isEqualTo(4);
+    assertThat(count(User.TABLE)).isEqualTo(6);
+    assertThat(count(Achievement.ACHIEVED_TABLE)).isEqualTo(4);
+    assertThat(Event.getByID(0).getName()).isEqualTo("opening");
+    assertThat(User.getByID(0).getScore()).isEqualTo(300);
+  }
+
+  @Test
+  public void queuedWrites_discarded_byRestore() throws Exception {
+    Database.getInstance().enableWriteBehind(100);
+    byte[] backup = export();
+    User.getByID(3).markInterestIn(Event.getByID(0));
+    User.getByID(3).achieve(Achievement.getByID(0));
+
+    Backup.restore(new ByteArrayInputStream(backup));
+
+    assertThat(Database.getInstance().flushWrites()).isEqualTo(0);
+    assertThat(count(Event.INTERESTED_TABLE)).isEqualTo(4);
+    assertThat(count(Achievement.ACHIEVED_TABLE)).isEqualTo(4);
+    assertThat(User.getByID(3).getScore()).isEqualTo(0);
+  }
+
+  @Test
+  public void queuedWrites_requeued_whenRestoreFails() throws Exception {
+    Database.getInstance().enableWriteBehind(100);
+    User.getByID(3).markInterestIn(Event.getByID(0));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      gzip.write("{\"format\":1000000}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    try {
+      Backup.restore(new ByteArrayInputStream(output.toByteArray()));
+      throw new AssertionError("Restored an unsupported backup");
+    } catch (IOException e) {
+      // Expected
+    }
+
+    assertThat(Database.getInstance().flushWrites()).isEqualTo(1);
+    assertThat(count(Event.INTERESTED_TABLE)).isEqualTo(5);
+  }
+
+  @Test
+  public void export_includes_queuedWrites() throws Exception {
+    Database.getInstance().enableWriteBehind(100);
+    User.getByID(3).markInterestIn(Event.getByID(0));
+
+    byte[] backup = export();
+    Event.getByID(0).delete();
+    Backup.restore(new ByteArrayInputStream(backup));
+
+    assertThat(count(Event.INTERESTED_TABLE)).isEqualTo(5);
+  }
+
+  @Test
+  public void backup_readable_asJson() throws Exception {
+    byte[] backup = export();
+
+    StringBuilder json = new StringBuilder();
+    try (InputStreamReader reader =
+        new InputStreamReader(
+            new GZIPInputStream(new ByteArrayInputStream(backup)), StandardCharsets.UTF_8)) {
+      char[] buffer = new char[1024];
+      for (int n; (n = reader.read(buffer)) != -1; ) json.append(buffer, 0, n);
+    }
+
+    assertThat(json.toString()).startsWith("{\"format\":1,");
+    assertThat(json.toString()).contains("\"name\":\"markers\"");
+  }
+
+  @Test
+  public void database_unchanged_byMalformedBackup() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      String json =
+          "{\"format\":1,\"schema\":1,\"tables\":"
+              + "[{\"name\":\"users\",\"columns\":[\"id\"],\"rows\":[[1],[\"x\"]]}]}";
+      gzip.write(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    try {
+      Backup.restore(new ByteArrayInputStream(output.toByteArray()));
+      throw new AssertionError("Restored a malformed backup");
+    } catch (IOException | NumberFormatException | DatabaseException e) {
+      // Expected
+    }
+
+    assertThat(count(User.TABLE)).isEqualTo(6);
+    assertThat(count(Event.TABLE)).isEqualTo(2);
+  }
+
+  @Test
+  public void restoreFailure_notMasked_whenConstraintsNotChecked() throws Exception {
+    JDBCDataSource source = new JDBCDataSource();
+    source.setUrl("jdbc:hsqldb:file:data/testdb");
+    source.setUser("sa");
+    source.setPassword("");
+    String check = Dialect.HSQLDB.getCheckConstraints();
+    configure(
+        (DataSource)
+            Proxy.newProxyInstance(
+                DataSource.class.getClassLoader(),
+                new Class<?>[] {DataSource.class},
+                (proxy, method, args) -> {
+                  Object result = method.invoke(source, args);
+                  if (!(result instanceof Connection)) return result;
+                  return failing((Connection) result, check);
+                }));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      gzip.write("{\"format\":1000000}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    try {
+      Backup.restore(new ByteArrayInputStream(output.toByteArray()));
+      throw new AssertionError("Restored an unsupported backup");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("format");
+      assertThat(e.getSuppressed()).hasLength(1);
+    } finally {
+      try (Statement stmt = DataTestFramework.getConnection().createStatement()) {
+        stmt.execute(check);
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void backup_rejected_fromNewerSchema() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      String json = "{\"format\":1,\"schema\":1000000,\"tables\":[]}";
+      gzip.write(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    Backup.restore(new ByteArrayInputStream(output.toByteArray()));
+  }
+
+  @Test
+  public void snapshot_restored_thenNewIDsInserted() throws Exception {
+    Path snapshot = Files.createTempFile("snapshot", ".json.gz");
+    try {
+      configureMemory("saved");
+      Event event = new Event("Talk", "", Instant.EPOCH, Instant.EPOCH.plusSeconds(60));
+      ConferenceMap map = new ConferenceMap("Hall", Paths.get("hall.png"));
+      MapMarker marker = map.addMarker("Stage", "", 1, 2);
+      new User(7, "ada");
+      Backup.save(snapshot);
+
+      configureMemory("restored");
+      assertThat(Backup.load(snapshot)).isTrue();
+      Event later = new Event("Later", "", Instant.EPOCH, Instant.EPOCH.plusSeconds(60));
+      ConferenceMap other = new ConferenceMap("Foyer", Paths.get("foyer.png"));
+      MapMarker another = other.addMarker("Desk", "", 3, 4);
+
+      Repositories repositories = Database.getInstance().getRepositories();
+      assertThat(repositories.events().getByID(event.getID()).getName()).isEqualTo("Talk");
+      assertThat(repositories.markers().getByID(marker.getID()).getName()).isEqualTo("Stage");
+      assertThat(repositories.users().getByID(7).getName()).isEqualTo("ada");
+      assertThat(repositories.maps().getPage(Long.MIN_VALUE, 10).getItems()).hasSize(2);
+      assertThat(later.getID()).isGreaterThan(event.getID());
+      assertThat(other.getID()).isGreaterThan(map.getID());
+      assertThat(another.getID()).isGreaterThan(marker.getID());
+    } finally {
+      Files.deleteIfExists(snapshot);
+    }
+  }
+
+  @Test
+  public void snapshot_notLoaded_withoutFile() throws Exception {
+    assertThat(Backup.load(Paths.get("data", "missing.json.gz"))).isFalse();
+    assertThat(count(Event.TABLE)).isEqualTo(2);
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    DataTestFramework.cleanup();
+    Field instance = Database.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(null, null);
+  }
+}
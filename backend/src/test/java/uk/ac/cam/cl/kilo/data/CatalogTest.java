@@ -0,0 +1,159 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * CatalogTest.java
+ *
+ * @author Nathan Corbyn
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CatalogTest {
+  @Mock private DataSource source;
+  @Mock private Connection conc;
+  @Mock private PreparedStatement stmt;
+  @Mock private ResultSet rs;
+
+  @Before
+  public void setup() throws Exception {
+    Database.configure(source);
+    when(source.getConnection()).thenReturn(conc);
+    when(conc.prepareStatement(any(String.class), eq(PreparedStatement.RETURN_GENERATED_KEYS)))
+        .thenReturn(stmt);
+    when(conc.prepareStatement(any(String.class))).thenReturn(stmt);
+    when(stmt.getGeneratedKeys()).thenReturn(rs);
+    when(stmt.executeQuery()).thenReturn(rs);
+    // Each list query returns no rows
+    when(rs.next()).thenReturn(false);
+    when(rs.getLong(any(String.class))).thenReturn(1L);
+    when(rs.getLong(1)).thenReturn(1L);
+    when(rs.getString(any(String.class))).thenReturn("test");
+    when(rs.getTimestamp(any(String.class))).thenReturn(Timestamp.from(Instant.ofEpochSecond(100)));
+  }
+
+  @Test
+  public void catalog_builtOnce_readTwice() throws Exception {
+    Catalog first = Database.getInstance().getCatalog();
+    Catalog second = Database.getInstance().getCatalog();
+
+    verify(stmt, times(4)).executeQuery();
+    assertThat(second).isSameAs(first);
+  }
+
+  @Test
+  public void catalog_rebuilt_afterEventCreated() throws Exception {
+    Catalog first = Database.getInstance().getCatalog();
+    when(rs.next()).thenReturn(true);
+    new Event("test", "example", Instant.ofEpochSecond(100), Instant.ofEpochSecond(200));
+    when(rs.next()).thenReturn(false);
+    Catalog second = Database.getInstance().getCatalog();
+
+    // Only the events are reloaded
+    verify(stmt, times(5)).executeQuery();
+    assertThat(second).isNotSameAs(first);
+    assertThat(second.getVersion()).isGreaterThan(first.getVersion());
+    assertThat(second.getVersion(Catalog.Section.EVENTS))
+        .isGreaterThan(first.getVersion(Catalog.Section.EVENTS));
+  }
+
+  @Test
+  public void catalog_otherSectionsShared_afterAchievementsChanged() throws Exception {
+    Catalog first = Database.getInstance().getCatalog();
+    when(stmt.executeUpdate()).thenReturn(1);
+    Database.getInstance().reconcileAchievementCounts();
+    Catalog second = Database.getInstance().getCatalog();
+
+    assertThat(second.getVersion(Catalog.Section.ACHIEVEMENTS))
+        .isGreaterThan(first.getVersion(Catalog.Section.ACHIEVEMENTS));
+    assertThat(second.getVersion(Catalog.Section.EVENTS))
+        .isEqualTo(first.getVersion(Catalog.Section.EVENTS));
+    assertThat(second.getLastModified(Catalog.Section.EVENTS))
+        .isEqualTo(first.getLastModified(Catalog.Section.EVENTS));
+    assertThat(second.getEvents()).isSameAs(first.getEvents());
+    assertThat(second.getEventIndex()).isSameAs(first.getEventIndex());
+    assertThat(second.getMaps()).isSameAs(first.getMaps());
+    assertThat(second.getContentGroups()).isSameAs(first.getContentGroups());
+  }
+
+  @Test
+  public void catalog_lastModifiedLater_whenRebuiltWithinOneSecond() throws Exception {
+    when(stmt.executeUpdate()).thenReturn(1);
+    Database.getInstance().getCatalog();
+    Database.getInstance().reconcileAchievementCounts();
+    Catalog first = Database.getInstance().getCatalog();
+    Database.getInstance().reconcileAchievementCounts();
+    Catalog second = Database.getInstance().getCatalog();
+
+    // Compared as HTTP dates, which are whole seconds
+    Instant before = first.getLastModified(Catalog.Section.ACHIEVEMENTS);
+    Instant after = second.getLastModified(Catalog.Section.ACHIEVEMENTS);
+    assertThat(after.truncatedTo(ChronoUnit.SECONDS))
+        .isGreaterThan(before.truncatedTo(ChronoUnit.SECONDS));
+  }
+
+  @Test
+  public void catalog_versionBumped_afterMarkerCreated() throws Exception {
+    Catalog first = Database.getInstance().getCatalog();
+    when(rs.next()).thenReturn(true);
+    new MapMarker(ConferenceMap.getByID(1L), "test", "example", 10, 20);
+    when(rs.next()).thenReturn(false);
+    Catalog second = Database.getInstance().getCatalog();
+
+    assertThat(second.getVersion()).isGreaterThan(first.getVersion());
+  }
+
+  @Test
+  public void catalog_rebuilt_afterCountsRepaired() throws Exception {
+    Catalog first = Database.getInstance().getCatalog();
+    when(stmt.executeUpdate()).thenReturn(0);
+    Database.getInstance().reconcileAchievementCounts();
+    assertThat(Database.getInstance().getCatalog()).isSameAs(first);
+
+    when(stmt.executeUpdate()).thenReturn(1);
+    assertThat(Database.getInstance().reconcileAchievementCounts()).isEqualTo(1);
+    assertThat(Database.getInstance().getCatalog()).isNotSameAs(first);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void catalog_throwsException_modified() throws Exception {
+    when(rs.next()).thenReturn(true, false);
+    Catalog catalog = Database.getInstance().getCatalog();
+
+    catalog.getMaps().clear();
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    Field instance = Database.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(null, null);
+  }
+}
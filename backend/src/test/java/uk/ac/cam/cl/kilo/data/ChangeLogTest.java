@@ -0,0 +1,101 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * ChangeLogTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class ChangeLogTest {
+  @Test
+  public void writes_returned_sinceVersion() {
+    ChangeLog log = new ChangeLog(100, 10);
+    log.record(ChangeLog.Kind.EVENT, 1, false);
+    long version = log.record(ChangeLog.Kind.MAP, 2, false);
+    log.record(ChangeLog.Kind.MARKER, 3, true);
+
+    List<ChangeLog.Entry> entries = log.since(version);
+
+    assertThat(entries).hasSize(1);
+    assertThat(entries.get(0).getKind()).isEqualTo(ChangeLog.Kind.MARKER);
+    assertThat(entries.get(0).getID()).isEqualTo(3L);
+    assertThat(entries.get(0).isDeleted()).isTrue();
+    assertThat(log.since(100)).hasSize(3);
+    assertThat(log.since(log.getVersion())).isEmpty();
+  }
+
+  @Test
+  public void writes_coalesced_sameEntity() {
+    ChangeLog log = new ChangeLog(0, 10);
+    log.record(ChangeLog.Kind.EVENT, 1, false);
+    log.record(ChangeLog.Kind.EVENT, 2, false);
+    log.record(ChangeLog.Kind.EVENT, 1, true);
+
+    List<ChangeLog.Entry> entries = log.since(0);
+
+    assertThat(entries).hasSize(2);
+    assertThat(entries.get(0).getID()).isEqualTo(2L);
+    assertThat(entries.get(1).getID()).isEqualTo(1L);
+    assertThat(entries.get(1).isDeleted()).isTrue();
+  }
+
+  @Test
+  public void writes_subsumed_allOfKind() {
+    ChangeLog log = new ChangeLog(0, 10);
+    log.record(ChangeLog.Kind.ACHIEVEMENT, 1, false);
+    log.record(ChangeLog.Kind.EVENT, 1, false);
+    log.record(ChangeLog.Kind.ACHIEVEMENT, ChangeLog.ALL, false);
+
+    List<ChangeLog.Entry> entries = log.since(0);
+
+    assertThat(entries).hasSize(2);
+    assertThat(entries.get(1).getID()).isEqualTo(ChangeLog.ALL);
+  }
+
+  @Test
+  public void log_compacted_whenFull() {
+    ChangeLog log = new ChangeLog(0, 2);
+    log.record(ChangeLog.Kind.EVENT, 1, false);
+    log.record(ChangeLog.Kind.EVENT, 2, false);
+    log.record(ChangeLog.Kind.EVENT, 3, false);
+
+    // The write at version 1 was discarded, so only clients at version 1 or later can catch up
+    assertThat(log.since(0)).isNull();
+    assertThat(log.since(1)).hasSize(2);
+  }
+
+  @Test
+  public void version_unknown_fromPreviousRun() {
+    ChangeLog log = new ChangeLog(100, 10);
+
+    assertThat(log.since(99)).isNull();
+    assertThat(log.since(101)).isNull();
+    assertThat(log.since(100)).isEmpty();
+  }
+
+  @Test
+  public void clients_reset_afterRestore() {
+    ChangeLog log = new ChangeLog(0, 10);
+    log.record(ChangeLog.Kind.EVENT, 1, false);
+    log.reset();
+
+    assertThat(log.since(1)).isNull();
+    assertThat(log.since(log.getVersion())).isEmpty();
+  }
+}
@@ -20,6 +20,8 @@ import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
 import javax.sql.DataSource;
 import org.junit.After;
 import org.junit.Before;
@@ -50,7 +52,7 @@ public class ConferenceMapTest {
     when(conc.prepareStatement(any(String.class))).thenReturn(stmt);
     when(stmt.getGeneratedKeys()).thenReturn(rs);
     when(stmt.executeQuery()).thenReturn(rs);
-    when(rs.first()).thenReturn(true);
+    when(rs.next()).thenReturn(true);
     when(rs.getLong(any(String.class))).thenReturn(1L);
     when(rs.getString(any(String.class))).thenReturn("test");
   }
@@ -141,6 +143,50 @@ public class ConferenceMapTest {
     assertThat(map.getName()).isEqualTo("test");
   }
 
+  @Test
+  public void conferenceMap_streamsEachMarker_streamedMarkers() throws Exception {
+    // One row for the map itself, then two markers
+    when(rs.next()).thenReturn(true, true, true, false);
+    ConferenceMap map = ConferenceMap.getByID(1L);
+    List<MapMarker> markers = new ArrayList<>();
+
+    map.streamMarkers(markers::add);
+
+    assertThat(markers).hasSize(2);
+    verify(stmt).setFetchSize(anyInt());
+    verify(rs).close();
+  }
+
+  @Test
+  public void conferenceMap_pageHasNextCursor_moreMarkersThanLimit() throws Exception {
+    // One row for the map itself, then three markers for a page of two
+    when(rs.next()).thenReturn(true, true, true, true, false);
+    ConferenceMap map = ConferenceMap.getByID(1L);
+
+    Page<MapMarker> page = map.getMarkers(0L, 2);
+
+    assertThat(page.getItems()).hasSize(2);
+    assertThat(page.getNext()).isEqualTo(1L);
+    verify(stmt).setLong(2, 0L);
+    verify(stmt).setInt(3, 3);
+  }
+
+  @Test
+  public void conferenceMap_lastPageHasNoCursor_fewerMarkersThanLimit() throws Exception {
+    when(rs.next()).thenReturn(true, true, false);
+    ConferenceMap map = ConferenceMap.getByID(1L);
+
+    Page<MapMarker> page = map.getMarkers(0L, 2);
+
+    assertThat(page.getItems()).hasSize(1);
+    assertThat(page.getNext()).isNull();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void conferenceMap_throwsException_pagedWithZeroLimit() throws Exception {
+    ConferenceMap.getByID(1L).getMarkers(0L, 0);
+  }
+
   @After
   public void cleanup() throws Exception {
     Field instance = Database.class.getDeclaredField("instance");
@@ -48,7 +48,7 @@ public class ContentGroupTest {
     when(conc.prepareStatement(any(String.class))).thenReturn(stmt);
     when(stmt.getGeneratedKeys()).thenReturn(rs);
     when(stmt.executeQuery()).thenReturn(rs);
-    when(rs.first()).thenReturn(true);
+    when(rs.next()).thenReturn(true);
     when(rs.getLong(1)).thenReturn(1L);
     when(rs.getLong(any(String.class))).thenReturn(1L);
     when(rs.getBoolean(any(String.class))).thenReturn(true);
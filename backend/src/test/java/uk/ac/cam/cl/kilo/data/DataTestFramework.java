@@ -29,8 +29,6 @@ import org.dbunit.operation.DatabaseOperation;
  */
 public class DataTestFramework {
   private static final String DATASET = "dataset.xml";
-  private static final String AUTOINC =
-      "GENERATED BY DEFAULT AS IDENTITY (START WITH 0, INCREMENT BY 1)";
 
   private static IDatabaseTester databaseTester;
 
@@ -47,176 +45,11 @@ public class DataTestFramework {
     databaseTester.onSetup();
   }
 
-  private static void setupSchema(Connection conc) throws SQLException {
+  private static void setupSchema(Connection conc) throws SQLException, DatabaseException {
     PreparedStatement stmt = conc.prepareStatement("DROP SCHEMA PUBLIC CASCADE");
     stmt.execute();
-    // Create the content groups table
-    stmt =
-        conc.prepareStatement(
-            "CREATE TABLE "
-                + ContentGroup.TABLE
-                + " ("
-                + ContentGroup.ID_FIELD
-                + " bigint NOT NULL "
-                + AUTOINC
-                + ", "
-                + ContentGroup.NAME_FIELD
-                + " varchar(255) NOT NULL, "
-                + ContentGroup.ENABLED_FIELD
-                + " bit NOT NULL, PRIMARY KEY ("
-                + ContentGroup.ID_FIELD
-                + "))");
-    stmt.execute();
-    // Create the users table
-    stmt =
-        conc.prepareStatement(
-            "CREATE TABLE "
-                + User.TABLE
-                + " ("
-                + User.ID_FIELD
-                + " bigint NOT NULL "
-                + AUTOINC
-                + ", "
-                + User.NAME_FIELD
-                + " varchar(255) NOT NULL, PRIMARY KEY ("
-                + User.ID_FIELD
-                + "))");
-    stmt.execute();
-    // Create the achievements table
-    stmt =
-        conc.prepareStatement(
-            "CREATE TABLE "
-                + Achievement.TABLE
-                + " ("
-                + Achievement.ID_FIELD
-                + " bigint NOT NULL "
-                + AUTOINC
-                + ", "
-                + Achievement.NAME_FIELD
-                + " varchar(255) NOT NULL, "
-                + Achievement.REWARD_FIELD
-                + " int NOT NULL, PRIMARY KEY ("
-                + Event.ID_FIELD
-                + "))");
-    stmt.execute();
-    // Create the table for the 'has achieved' relation
-    stmt =
-        conc.prepareStatement(
-            "CREATE TABLE "
-                + Achievement.ACHIEVED_TABLE
-                + " ("
-                + Achievement.ACHIEVED_USER_ID_FIELD
-                + " bigint NOT NULL, "
-                + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
-                + " int NOT NULL, "
-                + " FOREIGN KEY ("
-                + Achievement.ACHIEVED_USER_ID_FIELD
-                + ") REFERENCES "
-                + User.TABLE
-                + "("
-                + User.ID_FIELD
-                + "), "
-                + " FOREIGN KEY ("
-                + Achievement.ACHIEVED_ACHIEVEMENT_ID_FIELD
-                + ") REFERENCES "
-                + Achievement.TABLE
-                + "("
-                + Achievement.ID_FIELD
-                + "))");
-    stmt.execute();
-    // Create the events table
-    stmt =
-        conc.prepareStatement(
-            "CREATE TABLE "
-                + Event.TABLE
-                + " ("
-                + Event.ID_FIELD
-                + " bigint NOT NULL "
-                + AUTOINC
-                + ", "
-                + Event.NAME_FIELD
-                + " varchar(255) NOT NULL,"
-                + Event.DESC_FIELD
-                + " varchar(4096), "
-                + Event.START_FIELD
-                + " timestamp NOT NULL, "
-                + Event.END_FIELD
-                + " timestamp NOT NULL, PRIMARY KEY ("
-                + Event.ID_FIELD
-                + "))");
-    stmt.execute();
-    // Create the table for the 'is interested in' relation
-    stmt =
-        conc.prepareStatement(
-            "CREATE TABLE "
-                + Event.INTERESTED_TABLE
-                + " ("
-                + Event.INTERESTED_USER_ID_FIELD
-                + " bigint NOT NULL, "
-                + Event.INTERESTED_EVENT_ID_FIELD
-                + " int NOT NULL, "
-                + " FOREIGN KEY ("
-                + Event.INTERESTED_USER_ID_FIELD
-                + ") REFERENCES "
-                + User.TABLE
-                + "("
-                + User.ID_FIELD
-                + "), "
-                + " FOREIGN KEY ("
-                + Event.INTERESTED_EVENT_ID_FIELD
-                + ") REFERENCES "
-                + Event.TABLE
-                + "("
-                + Event.ID_FIELD
-                + "))");
-    stmt.execute();
-    // Create the maps table
-    stmt =
-        conc.prepareStatement(
-            "CREATE TABLE "
-                + ConferenceMap.TABLE
-                + " ("
-                + ConferenceMap.ID_FIELD
-                + " bigint NOT NULL "
-                + AUTOINC
-                + ", "
-                + ConferenceMap.NAME_FIELD
-                + " varchar(255) NOT NULL,"
-                + ConferenceMap.IMAGE_FIELD
-                + " varchar(4351) NOT NULL, PRIMARY KEY ("
-                + ConferenceMap.ID_FIELD
-                + "))");
-    stmt.execute();
-    // Create the markers table
-    stmt =
-        conc.prepareStatement(
-            "CREATE TABLE "
-                + MapMarker.TABLE
-                + " ("
-                + MapMarker.ID_FIELD
-                + " bigint NOT NULL "
-                + AUTOINC
-                + ", "
-                + MapMarker.MAP_FIELD
-                + " bigint NOT NULL, "
-                + MapMarker.NAME_FIELD
-                + " varchar(255) NOT NULL,"
-                + MapMarker.DESC_FIELD
-                + " varchar(4096), "
-                + MapMarker.X_FIELD
-                + " int NOT NULL, "
-                + MapMarker.Y_FIELD
-                + " int NOT NULL, PRIMARY KEY ("
-                + MapMarker.ID_FIELD
-                + "), FOREIGN KEY ("
-                + MapMarker.MAP_FIELD
-                + ") REFERENCES "
-                + ConferenceMap.TABLE
-                + "("
-                + ConferenceMap.ID_FIELD
-                + ")"
-                + ")");
-    stmt.execute();
+    // Build the schema with the same migrations as production
+    Migrations.migrate(conc);
   }
 
   /** @return a connection to the test database */
@@ -16,7 +16,21 @@ import static com.google.common.truth.Truth.*;
 import static org.mockito.Mockito.*;
 
 import java.lang.reflect.Field;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.sql.DataSource;
+import org.hsqldb.jdbc.JDBCDataSource;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,11 +46,15 @@ import org.mockito.runners.MockitoJUnitRunner;
 @RunWith(MockitoJUnitRunner.class)
 public class DatabaseTest {
   @Mock private DataSource ds;
+  @Mock private DataSource replica;
+  @Mock private Connection replicaConnection;
+  private Connection primaryConnection;
 
   @Before
   public void setup() throws Exception {
     DataTestFramework.setup();
-    when(ds.getConnection()).thenReturn(DataTestFramework.getConnection());
+    primaryConnection = DataTestFramework.getConnection();
+    when(ds.getConnection()).thenReturn(primaryConnection);
   }
 
   @Test(expected = RuntimeException.class)
@@ -58,6 +76,241 @@ public class DatabaseTest {
     assertThat(database).isNotNull();
   }
 
+  @Test
+  public void usage_listed_forLastDay() throws Exception {
+    try (PreparedStatement stmt =
+        DataTestFramework.getConnection()
+            .prepareStatement("INSERT INTO " + UsageStatistic.TABLE + " VALUES (?, ?)")) {
+      for (int hours : new int[] {1, 23, 25, 48}) {
+        stmt.setTimestamp(1, Timestamp.from(Instant.now().minus(hours, ChronoUnit.HOURS)));
+        stmt.setInt(2, hours);
+        stmt.executeUpdate();
+      }
+    }
+    Database.configure(ds);
+
+    assertThat(Database.getInstance().getUsage()).hasSize(2);
+  }
+
+  @Test
+  public void reads_servedByReplica_whenConfigured() throws Exception {
+    when(replica.getConnection()).thenReturn(replicaConnection);
+    Database.configure(ds, Arrays.asList(replica));
+
+    assertThat(Database.getInstance().getReadConnection()).isSameAs(replicaConnection);
+  }
+
+  @Test
+  public void reads_servedByPrimary_afterOwnWrite() throws Exception {
+    when(replica.getConnection()).thenReturn(replicaConnection);
+    Database.configure(ds, Arrays.asList(replica));
+    Database database = Database.getInstance();
+
+    database.readAs("user:0");
+    database.interestChanged(0, 1);
+    Connection own = database.getReadConnection();
+    database.readAs("user:1");
+    Connection other = database.getReadConnection();
+    database.readAs(null);
+
+    assertThat(own).isSameAs(primaryConnection);
+    assertThat(other).isSameAs(replicaConnection);
+  }
+
+  @Test
+  public void reads_servedByPrimary_afterCatalogWrite() throws Exception {
+    when(replica.getConnection()).thenReturn(replicaConnection);
+    Database.configure(ds, Arrays.asList(replica));
+
+    Database.getInstance().imported(ChangeLog.Kind.EVENT, Collections.emptyList());
+
+    assertThat(Database.getInstance().getReadConnection()).isSameAs(primaryConnection);
+  }
+
+  @Test
+  public void reads_fallBackToPrimary_whenReplicaDown() throws Exception {
+    when(replica.getConnection()).thenThrow(new SQLException("down"));
+    Database.configure(ds, Arrays.asList(replica));
+
+    Connection first = Database.getInstance().getReadConnection();
+    Connection second = Database.getInstance().getReadConnection();
+
+    assertThat(first).isSameAs(primaryConnection);
+    assertThat(second).isSameAs(primaryConnection);
+    // The replica is skipped until it is due to be retried
+    verify(replica, times(1)).getConnection();
+  }
+
+  @Test
+  public void changes_listCreated() throws Exception {
+    Database.configure(testSource());
+    long since = Database.getInstance().getChangesSince(Long.MIN_VALUE).getVersion();
+    Event event = new Event("Talk", "", Instant.EPOCH, Instant.EPOCH.plusSeconds(60));
+
+    Delta delta = Database.getInstance().getChangesSince(since);
+
+    assertThat(delta.isReset()).isFalse();
+    assertThat(delta.getVersion()).isGreaterThan(since);
+    assertThat(delta.getEvents()).hasSize(1);
+    assertThat(delta.getEvents().get(0).getID()).isEqualTo(event.getID());
+  }
+
+  @Test
+  public void changes_listLatestState_afterUpdate() throws Exception {
+    Database.configure(testSource());
+    long since = Database.getInstance().getChangesSince(Long.MIN_VALUE).getVersion();
+    Event event = new Event("Talk", "", Instant.EPOCH, Instant.EPOCH.plusSeconds(60));
+    event.setName("Keynote");
+
+    Delta delta = Database.getInstance().getChangesSince(since);
+
+    assertThat(delta.getEvents()).hasSize(1);
+    assertThat(delta.getEvents().get(0).getName()).isEqualTo("Keynote");
+  }
+
+  @Test
+  public void changes_listDeleted() throws Exception {
+    Database.configure(testSource());
+    long since = Database.getInstance().getChangesSince(Long.MIN_VALUE).getVersion();
+    Event event = new Event("Talk", "", Instant.EPOCH, Instant.EPOCH.plusSeconds(60));
+    event.delete();
+
+    Delta delta = Database.getInstance().getChangesSince(since);
+
+    assertThat(delta.getEvents()).isEmpty();
+    assertThat(delta.getDeletedEvents()).containsExactly(event.getID());
+  }
+
+  @Test
+  public void changes_listMarkersDeleted_withMap() throws Exception {
+    Database.configure(testSource());
+    long since = Database.getInstance().getChangesSince(Long.MIN_VALUE).getVersion();
+    ConferenceMap map = new ConferenceMap("Hall", Paths.get("hall.png"));
+    MapMarker marker = map.addMarker("Stage", "", 1, 2);
+    map.delete();
+
+    Delta delta = Database.getInstance().getChangesSince(since);
+
+    assertThat(delta.getMaps()).isEmpty();
+    assertThat(delta.getMarkers()).isEmpty();
+    assertThat(delta.getDeletedMaps()).containsExactly(map.getID());
+    assertThat(delta.getDeletedMarkers()).containsExactly(marker.getID());
+  }
+
+  @Test
+  public void changes_listDeleted_deletedBeforeRead() throws Exception {
+    Database.configure(testSource());
+    long since = Database.getInstance().getChangesSince(Long.MIN_VALUE).getVersion();
+    Event event = new Event("Talk", "", Instant.EPOCH, Instant.EPOCH.plusSeconds(60));
+    // Deleted behind the change log's back, as if by a delete racing with the synchronisation
+    try (PreparedStatement stmt =
+        DataTestFramework.getConnection().prepareStatement(
+            "DELETE FROM " + Event.TABLE + " WHERE " + Event.ID_FIELD + " = ?")) {
+      stmt.setLong(1, event.getID());
+      stmt.executeUpdate();
+    }
+
+    Delta delta = Database.getInstance().getChangesSince(since);
+
+    assertThat(delta.getEvents()).isEmpty();
+    assertThat(delta.getDeletedEvents()).containsExactly(event.getID());
+  }
+
+  @Test
+  public void changes_reset_afterRestore() throws Exception {
+    Database.configure(testSource());
+    long since = Database.getInstance().getChangesSince(Long.MIN_VALUE).getVersion();
+    new Event("Talk", "", Instant.EPOCH, Instant.EPOCH.plusSeconds(60));
+    Database.getInstance().restored();
+
+    Delta delta = Database.getInstance().getChangesSince(since);
+
+    assertThat(delta.isReset()).isTrue();
+    assertThat(delta.getEvents()).isEmpty();
+  }
+
+  @Test
+  public void changes_reset_withoutVersion() throws Exception {
+    Database.configure(testSource());
+
+    assertThat(Database.getInstance().getChangesSince(Long.MIN_VALUE).isReset()).isTrue();
+  }
+
+  @Test
+  public void leaderboard_rescored_afterAchieve() throws Exception {
+    Database.configure(testSource());
+    Database.getInstance().getLeaderboard();
+
+    User.getByID(3L).achieve(Achievement.getByID(0L));
+
+    assertThat(Database.getInstance().getLeaderboard().getStanding(3L).getScore()).isEqualTo(100);
+  }
+
+  @Test
+  public void leaderboard_repaired_reconciledWithDrift() throws Exception {
+    Database.configure(testSource());
+    // The scores in the table are consistent, so only the leaderboard needs repairing
+    Database.getInstance().getLeaderboard().put(1L, "jonas", 999);
+
+    assertThat(Database.getInstance().reconcileScores()).isEqualTo(1);
+    assertThat(Database.getInstance().getLeaderboard().getStanding(1L).getScore()).isEqualTo(100);
+  }
+
+  @Test
+  public void reads_shared_acrossWritesToOtherData() throws Exception {
+    Database.configure(ds);
+    Database database = Database.getInstance();
+    CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      SingleFlight.Loader<Object> slow =
+          () -> {
+            started.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new DatabaseException(e);
+            }
+            return "first";
+          };
+      Future<Object> leader =
+          executor.submit(() -> database.coalesce(Database.key(Query.EVENTS), slow));
+      started.await();
+
+      // Interest isn't part of the event list, so later reads still join the one in flight
+      database.interestChanged(0L, 1);
+      Future<Object> follower =
+          executor.submit(() -> database.coalesce(Database.key(Query.EVENTS), () -> "second"));
+      while (shared(database, Query.EVENTS) == 0) Thread.sleep(1);
+      // Events are, so after an import they make the read again
+      database.imported(ChangeLog.Kind.EVENT, Collections.emptyList());
+      Object after = database.coalesce(Database.key(Query.EVENTS), () -> "second");
+      release.countDown();
+
+      assertThat(leader.get()).isEqualTo("first");
+      assertThat(follower.get()).isEqualTo("first");
+      assertThat(after).isEqualTo("second");
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  private static long shared(Database database, Query query) {
+    for (SingleFlight.Statistics statistics : database.getCoalescingStatistics())
+      if (statistics.getName().equals(query.name())) return statistics.getShared();
+    throw new AssertionError("No statistics for " + query);
+  }
+
+  // Writes close the connections they use, so each needs its own connection to the test database
+  private static DataSource testSource() {
+    JDBCDataSource source = new JDBCDataSource();
+    source.setUrl("jdbc:hsqldb:file:data/testdb");
+    source.setUser("sa");
+    source.setPassword("");
+    return source;
+  }
+
   @After
   public void cleanup() throws Exception {
     Field instance = Database.class.getDeclaredField("instance");
@@ -0,0 +1,116 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * EntityCacheTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class EntityCacheTest {
+  private EntityCache<String> cache;
+  private AtomicInteger loads;
+  private EntityCache.Loader<String> loader;
+
+  @Before
+  public void setup() {
+    cache = new EntityCache<>("test", 2, String::new);
+    loads = new AtomicInteger();
+    loader =
+        id -> {
+          loads.incrementAndGet();
+          return "entity" + id;
+        };
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void cache_throwsException_withZeroCapacity() {
+    new EntityCache<String>("test", 0, String::new);
+  }
+
+  @Test
+  public void cache_loadsOnce_gotTwice() throws Exception {
+    assertThat(cache.get(1L, loader)).isEqualTo("entity1");
+    assertThat(cache.get(1L, loader)).isEqualTo("entity1");
+
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(cache.getStatistics().getHits()).isEqualTo(1L);
+    assertThat(cache.getStatistics().getMisses()).isEqualTo(1L);
+    assertThat(cache.getStatistics().getHitRatio()).isEqualTo(0.5);
+  }
+
+  @Test
+  public void cache_evictsLeastRecentlyUsed_overCapacity() throws Exception {
+    cache.get(1L, loader);
+    cache.get(2L, loader);
+    cache.get(1L, loader);
+    cache.get(3L, loader);
+    cache.get(1L, loader);
+    cache.get(2L, loader);
+
+    assertThat(loads.get()).isEqualTo(4);
+    assertThat(cache.getStatistics().getSize()).isEqualTo(2);
+    assertThat(cache.getStatistics().getCapacity()).isEqualTo(2);
+  }
+
+  @Test
+  public void cache_handsOutCopies_gotTwice() throws Exception {
+    String first = cache.get(1L, loader);
+    String second = cache.get(1L, loader);
+
+    assertThat(second).isEqualTo(first);
+    assertThat(second).isNotSameAs(first);
+  }
+
+  @Test
+  public void cache_reloads_afterInvalidate() throws Exception {
+    cache.get(1L, loader);
+    cache.invalidate(1L);
+    cache.get(1L, loader);
+
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void cache_empty_afterClear() throws Exception {
+    cache.get(1L, loader);
+    cache.get(2L, loader);
+    cache.clear();
+
+    assertThat(cache.getStatistics().getSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void cache_notPopulated_invalidatedDuringLoad() throws Exception {
+    cache.get(
+        1L,
+        id -> {
+          cache.invalidate(id);
+          return "stale";
+        });
+
+    assertThat(cache.get(1L, loader)).isEqualTo("entity1");
+  }
+
+  @Test
+  public void cache_hitRatioZero_whenUnused() {
+    assertThat(cache.getStatistics().getHitRatio()).isEqualTo(0.0);
+    assertThat(cache.getStatistics().getName()).isEqualTo("test");
+  }
+}
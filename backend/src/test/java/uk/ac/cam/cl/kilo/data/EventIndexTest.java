@@ -0,0 +1,110 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * EventIndexTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class EventIndexTest {
+  private static Event event(long start, long end) {
+    Event event = mock(Event.class);
+    when(event.getStart()).thenReturn(Instant.ofEpochSecond(start));
+    when(event.getEnd()).thenReturn(Instant.ofEpochSecond(end));
+    return event;
+  }
+
+  private static Instant at(long seconds) {
+    return Instant.ofEpochSecond(seconds);
+  }
+
+  @Test
+  public void events_found_overlappingWindow() {
+    Event keynote = event(0, 100), talk = event(50, 60), lunch = event(120, 180);
+    EventIndex index = new EventIndex(Arrays.asList(lunch, talk, keynote));
+
+    assertThat(index.getEventsBetween(at(55), at(130)))
+        .containsExactly(keynote, talk, lunch)
+        .inOrder();
+    assertThat(index.getEventsBetween(at(60), at(120))).containsExactly(keynote);
+    assertThat(index.getEventsBetween(at(100), at(120))).isEmpty();
+  }
+
+  @Test
+  public void events_found_inProgress() {
+    Event keynote = event(0, 100), talk = event(50, 60);
+    EventIndex index = new EventIndex(Arrays.asList(keynote, talk));
+
+    assertThat(index.getEventsAt(at(50))).containsExactly(keynote, talk).inOrder();
+    assertThat(index.getEventsAt(at(60))).containsExactly(keynote);
+    assertThat(index.getEventsAt(at(100))).isEmpty();
+  }
+
+  @Test
+  public void events_found_next() {
+    Event keynote = event(0, 100), talk = event(50, 60), lunch = event(120, 180);
+    EventIndex index = new EventIndex(Arrays.asList(lunch, talk, keynote));
+
+    assertThat(index.getEventsAfter(at(0), 1)).containsExactly(talk);
+    assertThat(index.getEventsAfter(at(-1), 5)).containsExactly(keynote, talk, lunch).inOrder();
+    assertThat(index.getEventsAfter(at(120), 5)).isEmpty();
+  }
+
+  @Test
+  public void events_found_unboundedWindow() {
+    Event keynote = event(0, 100);
+    EventIndex index = new EventIndex(Collections.singletonList(keynote));
+
+    assertThat(index.getEventsBetween(Instant.MIN, Instant.MAX)).containsExactly(keynote);
+    assertThat(new EventIndex(Collections.emptyList()).getEventsAt(at(0))).isEmpty();
+  }
+
+  @Test
+  public void events_match_linearScan() {
+    Random random = new Random(42);
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      long start = random.nextInt(1000);
+      events.add(event(start, start + 1 + random.nextInt(100)));
+    }
+    EventIndex index = new EventIndex(events);
+
+    for (int i = 0; i < 100; i++) {
+      long from = random.nextInt(1100), to = from + random.nextInt(50);
+      List<Event> found = index.getEventsBetween(at(from), at(to));
+      long expected =
+          events
+              .stream()
+              .filter(e -> e.getStart().isBefore(at(to)) && e.getEnd().isAfter(at(from)))
+              .count();
+      assertThat(found).hasSize((int) expected);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void window_rejected_endsBeforeStart() {
+    new EventIndex(Collections.emptyList()).getEventsBetween(at(10), at(0));
+  }
+}
@@ -50,7 +50,7 @@ public class EventTest {
     when(conc.prepareStatement(any(String.class))).thenReturn(stmt);
     when(stmt.getGeneratedKeys()).thenReturn(rs);
     when(stmt.executeQuery()).thenReturn(rs);
-    when(rs.first()).thenReturn(true);
+    when(rs.next()).thenReturn(true);
     when(rs.getLong(any(String.class))).thenReturn(1L);
     when(rs.getInt(any(String.class))).thenReturn(100);
     when(rs.getString(Event.NAME_FIELD)).thenReturn("test");
@@ -227,6 +227,36 @@ public class EventTest {
     assertThat(event.getEnd()).isEqualTo(Instant.ofEpochSecond(200));
   }
 
+  @Test
+  public void event_queriedOnce_gotByIDTwice() throws Exception {
+    Event first = Event.getByID(1L);
+    Event second = Event.getByID(1L);
+
+    verify(stmt, times(1)).executeQuery();
+    assertThat(second).isNotSameAs(first);
+    assertThat(second.getName()).isEqualTo(first.getName());
+  }
+
+  @Test
+  public void event_unchangedForOtherCallers_renamedByOne() throws Exception {
+    Event first = Event.getByID(1L);
+    Event second = Event.getByID(1L);
+
+    first.setName("other");
+
+    assertThat(second.getName()).isEqualTo("test");
+  }
+
+  @Test
+  public void event_requeried_gotByIDAfterRename() throws Exception {
+    Event event = Event.getByID(1L);
+
+    event.setName("other");
+    Event.getByID(1L);
+
+    verify(stmt, times(2)).executeQuery();
+  }
+
   @After
   public void cleanup() throws Exception {
     Field instance = Database.class.getDeclaredField("instance");
@@ -0,0 +1,184 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * ImporterTest.java
+ *
+ * @author Nathan Corbyn
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ImporterTest {
+  @Mock private DataSource source;
+  @Mock private Connection conc;
+  @Mock private PreparedStatement stmt;
+  @Mock private ResultSet rs;
+
+  @Before
+  public void setup() throws Exception {
+    Database.configure(source);
+    when(source.getConnection()).thenReturn(conc);
+    when(conc.prepareStatement(any(String.class), eq(PreparedStatement.RETURN_GENERATED_KEYS)))
+        .thenReturn(stmt);
+    when(conc.prepareStatement(any(String.class))).thenReturn(stmt);
+    when(stmt.getGeneratedKeys()).thenReturn(rs);
+    when(stmt.executeQuery()).thenReturn(rs);
+    when(rs.next()).thenReturn(false);
+  }
+
+  private static Map<String, String> event(String name, String start, String end) {
+    Map<String, String> row = new HashMap<>();
+    row.put(Event.NAME_FIELD, name);
+    row.put(Event.START_FIELD, start);
+    row.put(Event.END_FIELD, end);
+    return row;
+  }
+
+  private static Importer.Rows rows(List<Map<String, String>> rows) {
+    Iterator<Map<String, String>> iterator = rows.iterator();
+    return () -> iterator.hasNext() ? iterator.next() : null;
+  }
+
+  @Test
+  public void events_inserted_inChunks() throws Exception {
+    List<Map<String, String>> rows = new ArrayList<>();
+    for (int i = 0; i < Importer.CHUNK_SIZE + 1; i++) rows.add(event("test", "100", "200"));
+    rows.add(event("test", "200", "100"));
+    rows.add(event("", "100", "200"));
+    rows.add(event("test", "1970-01-01T00:01:40Z", "soon"));
+
+    ImportReport report = Importer.importEvents(rows(rows));
+
+    verify(stmt, times(2)).executeBatch();
+    verify(stmt, times(Importer.CHUNK_SIZE + 1)).addBatch();
+    verify(conc, times(2)).commit();
+    assertThat(report.getFailed()).isEqualTo(3);
+    assertThat(report.getErrors().get(0).getRow()).isEqualTo(Importer.CHUNK_SIZE + 2);
+    assertThat(report.getErrors().get(2).getError()).contains("end");
+  }
+
+  @Test
+  public void rows_insertedSingly_whenBatchRejected() throws Exception {
+    List<Map<String, String>> rows = new ArrayList<>();
+    rows.add(event("first", "100", "200"));
+    rows.add(event("second", "100", "200"));
+    when(stmt.executeBatch()).thenThrow(new BatchUpdateException());
+    when(stmt.executeUpdate()).thenReturn(1).thenThrow(new SQLException("Too long"));
+    when(rs.next()).thenReturn(true);
+    when(rs.getLong(1)).thenReturn(7L);
+
+    ImportReport report = Importer.importEvents(rows(rows));
+
+    verify(conc).rollback();
+    assertThat(report.getIDs()).containsExactly(7L);
+    assertThat(report.getErrors()).hasSize(1);
+    assertThat(report.getErrors().get(0).getRow()).isEqualTo(2);
+  }
+
+  @Test
+  public void maps_storeRelativeImage_andRejectEscapingNames() throws Exception {
+    Path dir = Files.createDirectories(Paths.get("data", "upload"));
+    Path image = Files.write(dir.resolve("hall.png"), new byte[] {1});
+    Path outside = Files.write(Paths.get("data", "outside.png"), new byte[] {1});
+    try {
+      List<Map<String, String>> rows = new ArrayList<>();
+      for (String name : new String[] {"hall.png", "../outside.png"}) {
+        Map<String, String> row = new HashMap<>();
+        row.put(ConferenceMap.NAME_FIELD, "hall");
+        row.put(ConferenceMap.IMAGE_FIELD, name);
+        rows.add(row);
+      }
+
+      ImportReport report = Importer.importMaps(rows(rows), Importer.uploadedImages(dir));
+
+      // Stored in the same form as images uploaded one at a time
+      verify(stmt).setObject(2, Paths.get("data", "upload", "hall.png").toString());
+      verify(stmt, times(1)).addBatch();
+      assertThat(report.getErrors()).hasSize(1);
+      assertThat(report.getErrors().get(0).getRow()).isEqualTo(2);
+      assertThat(report.getErrors().get(0).getError()).contains("No uploaded image");
+    } finally {
+      Files.delete(image);
+      Files.delete(outside);
+    }
+  }
+
+  @Test
+  public void markers_rejected_withUnknownMap() throws Exception {
+    Map<String, String> row = new HashMap<>();
+    row.put(MapMarker.MAP_FIELD, "1");
+    row.put(MapMarker.NAME_FIELD, "hall");
+    row.put(MapMarker.X_FIELD, "10");
+    row.put(MapMarker.Y_FIELD, "20");
+    List<Map<String, String>> rows = new ArrayList<>();
+    rows.add(row);
+
+    ImportReport report = Importer.importMarkers(rows(rows));
+
+    verify(stmt, never()).executeBatch();
+    assertThat(report.getErrors().get(0).getError()).contains("No map");
+  }
+
+  @Test
+  public void import_stopped_whenUnreadable() throws Exception {
+    Importer.Rows rows =
+        new Importer.Rows() {
+          private boolean read;
+
+          @Override
+          public Map<String, String> next() throws IOException {
+            if (read) throw new IOException("Malformed");
+            read = true;
+            return event("test", "100", "200");
+          }
+        };
+
+    ImportReport report = Importer.importEvents(rows);
+
+    verify(stmt, times(1)).executeBatch();
+    assertThat(report.getErrors().get(0).getRow()).isEqualTo(2);
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    Field instance = Database.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(null, null);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import org.junit.Test;
+
+/**
+ * InterestCountersTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class InterestCountersTest {
+  private static Map<Long, Long> counts(long event, long count) {
+    Map<Long, Long> result = new HashMap<>();
+    result.put(event, count);
+    return result;
+  }
+
+  @Test
+  public void updates_ignored_beforeLoad() throws Exception {
+    InterestCounters counters = new InterestCounters();
+    counters.add(1, 1);
+
+    assertThat(counters.get(() -> counts(1, 5))).containsExactly(1L, 5L);
+  }
+
+  @Test
+  public void counts_updated_afterLoad() throws Exception {
+    InterestCounters counters = new InterestCounters();
+    counters.get(() -> counts(1, 5));
+    counters.add(1, 1);
+    counters.add(2, 1);
+    counters.add(2, -1);
+
+    assertThat(counters.get(Collections::emptyMap)).containsExactly(1L, 6L);
+  }
+
+  @Test
+  public void counts_removed_withEvent() throws Exception {
+    InterestCounters counters = new InterestCounters();
+    counters.get(() -> counts(1, 5));
+    counters.remove(1);
+
+    assertThat(counters.get(Collections::emptyMap)).isEmpty();
+  }
+
+  @Test
+  public void drift_repaired_onReload() throws Exception {
+    InterestCounters counters = new InterestCounters();
+    counters.get(() -> counts(1, 5));
+    counters.add(1, 3);
+    counters.reload(() -> counts(1, 6));
+
+    assertThat(counters.get(Collections::emptyMap)).containsExactly(1L, 6L);
+  }
+
+  @Test
+  public void updates_counted_concurrently() throws Exception {
+    InterestCounters counters = new InterestCounters();
+    counters.get(Collections::emptyMap);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int i = 0; i < 8; i++) {
+      executor.submit(
+          () -> {
+            for (int j = 0; j < 10000; j++) counters.add(1, 1);
+          });
+    }
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertThat(counters.get(Collections::emptyMap)).containsExactly(1L, 80000L);
+  }
+
+  @Test
+  public void reload_waits_forWrites() throws Exception {
+    InterestCounters counters = new InterestCounters();
+    counters.get(Collections::emptyMap);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Lock writing = counters.writing();
+    writing.lock();
+    Future<?> reload;
+    try {
+      reload =
+          executor.submit(
+              () -> {
+                counters.reload(() -> counts(1, 1));
+                return null;
+              });
+      try {
+        reload.get(100, TimeUnit.MILLISECONDS);
+        throw new AssertionError("Reload did not wait for the write");
+      } catch (TimeoutException e) {
+        // Expected, the write is still in progress
+      }
+    } finally {
+      writing.unlock();
+    }
+    reload.get(1, TimeUnit.SECONDS);
+    executor.shutdown();
+
+    assertThat(counters.get(Collections::emptyMap)).containsExactly(1L, 1L);
+  }
+}
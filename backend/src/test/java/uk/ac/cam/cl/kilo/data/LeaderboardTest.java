@@ -0,0 +1,125 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * LeaderboardTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class LeaderboardTest {
+  @Test
+  public void standings_ordered_byScore() {
+    Leaderboard leaderboard = new Leaderboard();
+    leaderboard.put(1, "nathan", 100);
+    leaderboard.put(2, "jonas", 300);
+    leaderboard.put(3, "paul", 200);
+
+    List<Leaderboard.Standing> top = leaderboard.getStandings(0, 2);
+
+    assertThat(top).hasSize(2);
+    assertThat(top.get(0).getName()).isEqualTo("jonas");
+    assertThat(top.get(0).getRank()).isEqualTo(1);
+    assertThat(top.get(1).getName()).isEqualTo("paul");
+    assertThat(top.get(1).getRank()).isEqualTo(2);
+  }
+
+  @Test
+  public void rank_shared_equalScores() {
+    Leaderboard leaderboard = new Leaderboard();
+    leaderboard.put(1, "nathan", 100);
+    leaderboard.put(2, "jonas", 300);
+    leaderboard.put(3, "paul", 100);
+    leaderboard.put(4, "india", 50);
+
+    assertThat(leaderboard.getStanding(1).getRank()).isEqualTo(2);
+    assertThat(leaderboard.getStanding(3).getRank()).isEqualTo(2);
+    assertThat(leaderboard.getStanding(4).getRank()).isEqualTo(4);
+  }
+
+  @Test
+  public void user_moved_whenRescored() {
+    Leaderboard leaderboard = new Leaderboard();
+    leaderboard.put(1, "nathan", 100);
+    leaderboard.put(2, "jonas", 300);
+    leaderboard.put(1, "nathan", 400);
+
+    assertThat(leaderboard.size()).isEqualTo(2);
+    assertThat(leaderboard.getStanding(1).getRank()).isEqualTo(1);
+    assertThat(leaderboard.getStanding(2).getRank()).isEqualTo(2);
+  }
+
+  @Test
+  public void user_removed() {
+    Leaderboard leaderboard = new Leaderboard();
+    leaderboard.put(1, "nathan", 100);
+    leaderboard.remove(1);
+    leaderboard.remove(2);
+
+    assertThat(leaderboard.size()).isEqualTo(0);
+    assertThat(leaderboard.getStanding(1)).isNull();
+    assertThat(leaderboard.getStandingsAround(1, 2)).isEmpty();
+  }
+
+  @Test
+  public void standings_found_aroundUser() {
+    Leaderboard leaderboard = new Leaderboard();
+    for (int i = 0; i < 10; i++) leaderboard.put(i, "user" + i, i * 10);
+
+    List<Leaderboard.Standing> around = leaderboard.getStandingsAround(5, 2);
+    List<Leaderboard.Standing> top = leaderboard.getStandingsAround(9, 2);
+
+    assertThat(around).hasSize(5);
+    assertThat(around.get(0).getID()).isEqualTo(7L);
+    assertThat(around.get(2).getID()).isEqualTo(5L);
+    assertThat(around.get(4).getID()).isEqualTo(3L);
+    assertThat(top).hasSize(3);
+    assertThat(top.get(0).getID()).isEqualTo(9L);
+  }
+
+  @Test
+  public void standings_match_sortedScores() {
+    Random random = new Random(42);
+    Leaderboard leaderboard = new Leaderboard();
+    int[] scores = new int[1000];
+    for (int id = 0; id < scores.length; id++) leaderboard.put(id, "user" + id, 0);
+    for (int i = 0; i < 5000; i++) {
+      int id = random.nextInt(scores.length);
+      scores[id] = random.nextInt(100) * 100;
+      leaderboard.put(id, "user" + id, scores[id]);
+    }
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < scores.length; i++) ids.add(i);
+    ids.sort(Comparator.<Integer>comparingInt(id -> -scores[id]).thenComparing(id -> id));
+
+    List<Leaderboard.Standing> standings = leaderboard.getStandings(100, 50);
+
+    assertThat(standings).hasSize(50);
+    for (int i = 0; i < standings.size(); i++) {
+      assertThat(standings.get(i).getID()).isEqualTo((long) ids.get(100 + i));
+    }
+    for (int id = 0; id < scores.length; id++) {
+      int higher = 0;
+      for (int score : scores) if (score > scores[id]) higher++;
+      assertThat(leaderboard.getStanding(id).getRank()).isEqualTo(higher + 1);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * MigrationsTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class MigrationsTest {
+  private Connection conc;
+
+  @Before
+  public void setup() throws Exception {
+    conc = DriverManager.getConnection("jdbc:hsqldb:mem:migrations", "sa", "");
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    try (Statement stmt = conc.createStatement()) {
+      stmt.execute("DROP SCHEMA PUBLIC CASCADE");
+    }
+    conc.close();
+  }
+
+  private int count(String sql) throws SQLException {
+    try (Statement stmt = conc.createStatement();
+        ResultSet rs = stmt.executeQuery(sql)) {
+      rs.next();
+      return rs.getInt(1);
+    }
+  }
+
+  @Test
+  public void migrations_applied_once() throws Exception {
+    assertThat(Migrations.migrate(conc)).containsExactly(1, 2, 3, 4, 5, 6).inOrder();
+    assertThat(Migrations.migrate(conc)).isEmpty();
+    assertThat(count("SELECT COUNT(*) FROM " + Migrations.TABLE)).isEqualTo(6);
+  }
+
+  @Test
+  public void indexes_created() throws Exception {
+    Migrations.migrate(conc);
+
+    try (ResultSet rs =
+        conc.getMetaData().getIndexInfo(null, null, "INTERESTED", false, true)) {
+      boolean found = false;
+      while (rs.next()) found |= "INTERESTED_EVENT".equals(rs.getString("INDEX_NAME"));
+      assertThat(found).isTrue();
+    }
+  }
+
+  @Test(expected = SQLException.class)
+  public void duplicates_rejected_afterMigration() throws Exception {
+    Migrations.migrate(conc);
+    try (Statement stmt = conc.createStatement()) {
+      stmt.execute("INSERT INTO users (id, name) VALUES (0, 'nathan')");
+      stmt.execute("INSERT INTO achievements (id, name, reward) VALUES (0, 'opened', 100)");
+      stmt.execute("INSERT INTO achieved (user_id, achievement_id) VALUES (0, 0)");
+      stmt.execute("INSERT INTO achieved (user_id, achievement_id) VALUES (0, 0)");
+    }
+  }
+
+  @Test
+  public void duplicates_removed_fromExistingTable() throws Exception {
+    // A table created before migrations were introduced, without constraints
+    try (Statement stmt = conc.createStatement()) {
+      stmt.execute("CREATE TABLE interested (user_id bigint NOT NULL, event_id bigint NOT NULL)");
+      stmt.execute("INSERT INTO interested (user_id, event_id) VALUES (0, 0)");
+      stmt.execute("INSERT INTO interested (user_id, event_id) VALUES (0, 0)");
+      stmt.execute("INSERT INTO interested (user_id, event_id) VALUES (0, 1)");
+    }
+
+    Migrations.migrate(conc);
+
+    assertThat(count("SELECT COUNT(*) FROM interested")).isEqualTo(2);
+  }
+
+  @Test
+  public void scoresAndCounts_backfilled_fromExistingTables() throws Exception {
+    try (Statement stmt = conc.createStatement()) {
+      stmt.execute("CREATE TABLE users (id bigint PRIMARY KEY, name varchar(255) NOT NULL)");
+      stmt.execute(
+          "CREATE TABLE achievements (id bigint PRIMARY KEY, name varchar(255), reward int)");
+      stmt.execute("CREATE TABLE achieved (user_id bigint, achievement_id bigint)");
+      stmt.execute("INSERT INTO users (id, name) VALUES (0, 'nathan')");
+      stmt.execute("INSERT INTO users (id, name) VALUES (1, 'jonas')");
+      stmt.execute("INSERT INTO achievements (id, name, reward) VALUES (0, 'opened', 100)");
+      stmt.execute("INSERT INTO achievements (id, name, reward) VALUES (1, 'closed', 200)");
+      stmt.execute("INSERT INTO achieved (user_id, achievement_id) VALUES (0, 0)");
+      stmt.execute("INSERT INTO achieved (user_id, achievement_id) VALUES (0, 1)");
+    }
+
+    Migrations.migrate(conc);
+
+    assertThat(count("SELECT score FROM users WHERE id = 0")).isEqualTo(300);
+    assertThat(count("SELECT score FROM users WHERE id = 1")).isEqualTo(0);
+    assertThat(count("SELECT unlocks FROM achievements WHERE id = 1")).isEqualTo(1);
+  }
+}
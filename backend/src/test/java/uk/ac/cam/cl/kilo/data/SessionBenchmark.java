@@ -0,0 +1,120 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SessionBenchmark.java
+ *
+ * <p>Compares {@link Session#getByID(String)} through the statement registry and a caching pool
+ * against building the SQL on every call and preparing it on a pool without a statement cache, as
+ * the data package did previously. Run with {@code mvn test-compile exec:exec -Pbenchmark
+ * -Dbenchmark=SessionBenchmark}.
+ *
+ * @author Nathan Corbyn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionBenchmark {
+  private static final String URL = "jdbc:hsqldb:mem:session_benchmark";
+
+  // Non-final so that the baseline concatenation is not folded into a constant by the compiler
+  private String table = Session.TABLE, field = Session.ID_FIELD;
+  private ComboPooledDataSource cached, uncached;
+  private String id;
+
+  @Setup
+  public void setup() throws Exception {
+    cached = pool(100);
+    uncached = pool(0);
+    Database.configure(cached);
+    id = Session.generateID(64);
+    try (Connection conc = cached.getConnection()) {
+      Migrations.migrate(conc);
+      try (PreparedStatement insert =
+          conc.prepareStatement(
+              "INSERT INTO "
+                  + Session.TABLE
+                  + "("
+                  + Session.ID_FIELD
+                  + ", "
+                  + Session.TOKEN_FIELD
+                  + ", "
+                  + Session.USER_FIELD
+                  + ", "
+                  + Session.ACTIVATED_FIELD
+                  + ", "
+                  + Session.EXPIRES_FIELD
+                  + ") VALUES (?, 'token', 1, TRUE, ?)")) {
+        insert.setString(1, id);
+        insert.setTimestamp(2, Timestamp.from(Instant.now().plusSeconds(3600)));
+        insert.executeUpdate();
+      }
+    }
+  }
+
+  @Benchmark
+  public Session registryWithStatementCache() throws Exception {
+    return Session.getByID(id);
+  }
+
+  @Benchmark
+  public Session concatenatedWithoutStatementCache() throws Exception {
+    try (Connection conc = uncached.getConnection()) {
+      PreparedStatement stmt =
+          conc.prepareStatement("SELECT * FROM " + table + " WHERE " + field + " = ?");
+      stmt.setString(1, id);
+      ResultSet rs = stmt.executeQuery();
+      if (!rs.next()) throw new DatabaseException("No session with ID '" + id + "'");
+      return Session.from(rs);
+    }
+  }
+
+  @TearDown
+  public void teardown() {
+    cached.close();
+    uncached.close();
+  }
+
+  private static ComboPooledDataSource pool(int statements) throws Exception {
+    ComboPooledDataSource source = new ComboPooledDataSource();
+    source.setDriverClass(org.hsqldb.jdbcDriver.class.getName());
+    source.setJdbcUrl(URL);
+    source.setUser("sa");
+    source.setPassword("");
+    source.setMaxStatementsPerConnection(statements);
+    return source;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * SingleFlightTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class SingleFlightTest {
+  private SingleFlight<Long, String> flights;
+  private AtomicInteger loads;
+  private CountDownLatch release;
+  private SingleFlight.Loader<String> loader;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    flights = new SingleFlight<>("test", 10000);
+    loads = new AtomicInteger();
+    release = new CountDownLatch(1);
+    loader =
+        () -> {
+          int load = loads.incrementAndGet();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new DatabaseException(e);
+          }
+          return "result" + load;
+        };
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void teardown() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void flights_throwsException_withZeroTimeout() {
+    new SingleFlight<Long, String>("test", 0);
+  }
+
+  @Test
+  public void flights_shareRead_whileInFlight() throws Exception {
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < 8; i++) results.add(executor.submit(() -> flights.get(1L, loader)));
+    awaitShared(7);
+    release.countDown();
+
+    for (Future<String> result : results) assertThat(result.get()).isEqualTo("result1");
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(flights.getStatistics().getReads()).isEqualTo(1L);
+    assertThat(flights.getStatistics().getShared()).isEqualTo(7L);
+    assertThat(flights.getStatistics().getSharedRatio()).isEqualTo(7.0 / 8);
+    assertThat(flights.getStatistics().getInFlight()).isEqualTo(0);
+  }
+
+  @Test
+  public void flights_readAgain_afterCompletion() throws Exception {
+    release.countDown();
+
+    assertThat(flights.get(1L, loader)).isEqualTo("result1");
+    assertThat(flights.get(1L, loader)).isEqualTo("result2");
+    assertThat(flights.getStatistics().getShared()).isEqualTo(0L);
+  }
+
+  @Test
+  public void flights_readSeparately_forDifferentKeys() throws Exception {
+    Future<String> first = executor.submit(() -> flights.get(1L, loader));
+    Future<String> second = executor.submit(() -> flights.get(2L, loader));
+    release.countDown();
+
+    first.get();
+    second.get();
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void flights_shareFailure_whileInFlight() throws Exception {
+    CountDownLatch started = new CountDownLatch(1), failing = new CountDownLatch(1);
+    Future<String> leader =
+        executor.submit(
+            () ->
+                flights.get(
+                    1L,
+                    () -> {
+                      started.countDown();
+                      try {
+                        failing.await();
+                      } catch (InterruptedException e) {
+                        throw new DatabaseException(e);
+                      }
+                      throw new DatabaseException("No entity with ID 1");
+                    }));
+    started.await();
+    Future<String> follower = executor.submit(() -> flights.get(1L, loader));
+    awaitShared(1);
+    failing.countDown();
+
+    for (Future<String> result : Arrays.asList(leader, follower)) {
+      try {
+        result.get();
+        assertWithMessage("Read should have failed").fail();
+      } catch (Exception e) {
+        assertThat(e).hasCauseThat().hasMessageThat().isEqualTo("No entity with ID 1");
+      }
+    }
+    assertThat(loads.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void flights_readAgain_afterTimeout() throws Exception {
+    flights = new SingleFlight<>("test", 50);
+    Future<String> leader = executor.submit(() -> flights.get(1L, loader));
+    while (loads.get() == 0) Thread.sleep(1);
+    Future<String> follower =
+        executor.submit(
+            () ->
+                flights.get(
+                    1L,
+                    () -> {
+                      loads.incrementAndGet();
+                      return "own";
+                    }));
+
+    assertThat(follower.get()).isEqualTo("own");
+    release.countDown();
+    assertThat(leader.get()).isEqualTo("result1");
+    assertThat(flights.getStatistics().getTimeouts()).isEqualTo(1L);
+    assertThat(flights.getStatistics().getShared()).isEqualTo(0L);
+    assertThat(flights.getStatistics().getReads()).isEqualTo(2L);
+  }
+
+  @Test
+  public void flights_readAgain_afterInvalidate() throws Exception {
+    Future<String> first = executor.submit(() -> flights.get(1L, loader));
+    while (loads.get() == 0) Thread.sleep(1);
+    flights.invalidate();
+    Future<String> second = executor.submit(() -> flights.get(1L, loader));
+    while (loads.get() == 1) Thread.sleep(1);
+    release.countDown();
+
+    assertThat(first.get()).isEqualTo("result1");
+    assertThat(second.get()).isEqualTo("result2");
+    assertThat(flights.getStatistics().getShared()).isEqualTo(0L);
+  }
+
+  // Waits for the given number of callers to join the read in flight
+  private void awaitShared(long callers) throws InterruptedException {
+    while (flights.getStatistics().getShared() < callers) Thread.sleep(1);
+  }
+}
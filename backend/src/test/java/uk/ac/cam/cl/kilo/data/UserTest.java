@@ -19,6 +19,11 @@ import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import javax.sql.DataSource;
 import org.junit.After;
 import org.junit.Before;
@@ -46,7 +51,7 @@ public class UserTest {
     when(conc.prepareStatement(any(String.class))).thenReturn(stmt);
     when(stmt.getGeneratedKeys()).thenReturn(rs);
     when(stmt.executeQuery()).thenReturn(rs);
-    when(rs.first()).thenReturn(true);
+    when(rs.next()).thenReturn(true);
   }
 
   @Test(expected = IllegalArgumentException.class)
@@ -86,6 +91,128 @@ public class UserTest {
     verify(stmt, times(1)).executeUpdate();
   }
 
+  @Test
+  public void achievement_countedAndScored_inSameTransaction() throws Exception {
+    User user = new User(1, "test");
+
+    user.achieve(mock(Achievement.class));
+
+    verify(stmt, times(4)).executeUpdate();
+    verify(conc).setAutoCommit(false);
+    verify(conc).commit();
+  }
+
+  @Test
+  public void achievement_notCounted_whenNotRevoked() throws Exception {
+    User user = new User(1, "test");
+    when(stmt.executeUpdate()).thenReturn(0);
+
+    user.revoke(mock(Achievement.class));
+
+    verify(stmt, times(2)).executeUpdate();
+    verify(conc).commit();
+  }
+
+  @Test
+  public void achievement_notCounted_whenDuplicate() throws Exception {
+    User user = new User(1, "test");
+    when(stmt.executeUpdate()).thenThrow(new SQLException("Duplicate", "23505"));
+
+    user.achieve(mock(Achievement.class));
+
+    verify(conc).rollback();
+    verify(conc, never()).commit();
+  }
+
+  @Test
+  public void score_read_fromUser() throws Exception {
+    User user = new User(1, "test");
+    when(rs.getInt(1)).thenReturn(300);
+
+    assertThat(user.getScore()).isEqualTo(300);
+    verify(stmt, times(1)).executeQuery();
+  }
+
+  @Test
+  public void user_ignores_duplicateInterest() throws Exception {
+    User user = new User(1, "test");
+    when(stmt.executeUpdate()).thenThrow(new SQLException("Duplicate", "23505"));
+
+    user.markInterestIn(mock(Event.class));
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void user_throws_missingEvent() throws Exception {
+    User user = new User(1, "test");
+    when(stmt.executeUpdate()).thenThrow(new SQLException("Foreign key", "23503"));
+
+    user.markInterestIn(mock(Event.class));
+  }
+
+  @Test
+  public void interest_batched_inOneTransaction() throws Exception {
+    User user = new User(1, "test");
+    // Events 1 and 2 exist, and the user is already interested in 2
+    when(rs.next()).thenReturn(true, true, false, true, false);
+    when(rs.getLong(1)).thenReturn(1L, 2L, 2L);
+    when(stmt.executeBatch()).thenReturn(new int[] {1});
+
+    List<BatchResult> results = user.markInterestInAll(Arrays.asList(1L, 2L, 3L, 1L));
+
+    assertThat(results).hasSize(3);
+    assertThat(results.get(0).getStatus()).isEqualTo(BatchResult.Status.APPLIED);
+    assertThat(results.get(1).getStatus()).isEqualTo(BatchResult.Status.UNCHANGED);
+    assertThat(results.get(2).getStatus()).isEqualTo(BatchResult.Status.NOT_FOUND);
+    // Both lookups share a statement padded to four values
+    verify(conc, times(2)).prepareStatement(contains("IN (?, ?, ?, ?)"));
+    verify(stmt, times(1)).addBatch();
+    verify(stmt, times(1)).executeBatch();
+    verify(conc).commit();
+  }
+
+  @Test
+  public void interestCounts_reloaded_whenRowsUnreported() throws Exception {
+    User user = new User(1, "test");
+    Database.getInstance().interest.reload(() -> Collections.singletonMap(1L, 5L));
+    // Event 1 exists and the user is interested in it, then the counts are read back
+    when(rs.next()).thenReturn(true, false, true, false, true, false);
+    when(rs.getLong(1)).thenReturn(1L);
+    when(rs.getLong(2)).thenReturn(3L);
+    when(stmt.executeBatch()).thenReturn(new int[] {Statement.SUCCESS_NO_INFO});
+
+    user.unmarkInterestInAll(Arrays.asList(1L));
+
+    // A concurrent unmark may have deleted the row first, so the count isn't simply decremented
+    assertThat(Database.getInstance().getInterestCount(1)).isEqualTo(3);
+    verify(conc).prepareStatement(Query.INTERESTED_COUNTS.sql());
+  }
+
+  @Test
+  public void achievements_batched_inOneTransaction() throws Exception {
+    User user = new User(1, "test");
+    // Achievement 1 exists and the user doesn't have it, then the score is read back
+    when(rs.next()).thenReturn(true, false, false, true);
+    when(rs.getLong(Achievement.ID_FIELD)).thenReturn(1L);
+    when(rs.getString(Achievement.NAME_FIELD)).thenReturn("test");
+
+    List<BatchResult> results = user.achieveAll(Arrays.asList(1L, 2L));
+
+    assertThat(results.get(0).getStatus()).isEqualTo(BatchResult.Status.APPLIED);
+    assertThat(results.get(1).getStatus()).isEqualTo(BatchResult.Status.NOT_FOUND);
+    verify(stmt, times(3)).executeBatch();
+    verify(conc).commit();
+  }
+
+  @Test
+  public void batch_ignored_whenEmpty() throws Exception {
+    User user = new User(1, "test");
+
+    assertThat(user.unmarkInterestInAll(Collections.emptyList())).isEmpty();
+    assertThat(user.achieveAll(Collections.emptyList())).isEmpty();
+
+    verify(conc, never()).setAutoCommit(false);
+  }
+
   @After
   public void cleanup() throws Exception {
     Field instance = Database.class.getDeclaredField("instance");
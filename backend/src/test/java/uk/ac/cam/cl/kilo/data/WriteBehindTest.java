@@ -0,0 +1,238 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if
+ * not, see http://www.gnu.org/licenses/
+ */
+package uk.ac.cam.cl.kilo.data;
+
+import static com.google.common.truth.Truth.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * WriteBehindTest.java
+ *
+ * @author Nathan Corbyn
+ */
+public class WriteBehindTest {
+  private JDBCDataSource source;
+
+  @Before
+  public void setup() throws Exception {
+    DataTestFramework.setup();
+    source = new JDBCDataSource();
+    source.setUrl("jdbc:hsqldb:file:data/testdb");
+    source.setUser("sa");
+    source.setPassword("");
+    Database.configure(source);
+  }
+
+  // Reconfigure the database with the given source
+  private static void configure(DataSource source) throws Exception {
+    Field instance = Database.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(null, null);
+    Database.configure(source);
+  }
+
+  // Wraps a source, or an object it hands out, so that batches don't report the rows they affected,
+  // as drivers that rewrite batches may not
+  private static <T> T withoutRowCounts(Class<T> type, Object target) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> {
+              Object result;
+              try {
+                result = method.invoke(target, args);
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+              if (result instanceof PreparedStatement)
+                return withoutRowCounts(PreparedStatement.class, result);
+              if (result instanceof Connection) return withoutRowCounts(Connection.class, result);
+              if (method.getName().equals("executeBatch"))
+                Arrays.fill((int[]) result, Statement.SUCCESS_NO_INFO);
+              return result;
+            }));
+  }
+
+  private static long count(String table) throws Exception {
+    try (Statement stmt = DataTestFramework.getConnection().createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+
+  @Test
+  public void writes_queued_untilFlushed() throws Exception {
+    Database.getInstance().enableWriteBehind(100);
+    User user = User.getByID(3);
+
+    user.markInterestIn(Event.getByID(0));
+    user.achieve(Achievement.getByID(0));
+
+    assertThat(count(Event.INTERESTED_TABLE)).isEqualTo(4);
+    assertThat(count(Achievement.ACHIEVED_TABLE)).isEqualTo(4);
+    assertThat(Database.getInstance().flushWrites()).isEqualTo(2);
+    assertThat(count(Event.INTERESTED_TABLE)).isEqualTo(5);
+    assertThat(count(Achievement.ACHIEVED_TABLE)).isEqualTo(5);
+    assertThat(Achievement.getByID(0).getCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void writes_coalesced_perEvent() throws Exception {
+    Database.getInstance().enableWriteBehind(100);
+    User user = User.getByID(3);
+    Event event = Event.getByID(0);
+
+    user.markInterestIn(event);
+    user.unmarkInterestIn(event);
+    user.markInterestIn(event);
+    User.getByID(0).unmarkInterestIn(event);
+    User.getByID(0).markInterestIn(event);
+
+    assertThat(Database.getInstance().flushWrites()).isEqualTo(2);
+    assertThat(count(Event.INTERESTED_TABLE)).isEqualTo(5);
+  }
+
+  @Test
+  public void reads_see_ownQueuedWrites() throws Exception {
+    Database.getInstance().enableWriteBehind(100);
+    User user = User.getByID(3);
+
+    user.achieve(Achievement.getByID(1));
+    user.markInterestIn(Event.getByID(1));
+
+    assertThat(user.getScore()).isEqualTo(200);
+    assertThat(user.getMarkedEvents()).hasSize(1);
+    assertThat(Database.getInstance().flushWrites()).isEqualTo(0);
+  }
+
+  @Test
+  public void achievement_scoredOnce_whenAlreadyAchieved() throws Exception {
+    Database.getInstance().enableWriteBehind(100);
+    User user = User.getByID(0);
+
+    user.achieve(Achievement.getByID(0));
+
+    assertThat(user.getScore()).isEqualTo(300);
+    assertThat(Achievement.getByID(0).getCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void queue_flushed_whenFull() throws Exception {
+    Database.getInstance().enableWriteBehind(2);
+    User user = User.getByID(4);
+
+    user.markInterestIn(Event.getByID(0));
+    user.markInterestIn(Event.getByID(1));
+
+    assertThat(count(Event.INTERESTED_TABLE)).isEqualTo(6);
+  }
+
+  @Test
+  public void read_waitsFor_flushHoldingOwnWrites() throws Exception {
+    CountDownLatch entered = new CountDownLatch(1), release = new CountDownLatch(1);
+    AtomicBoolean blocking = new AtomicBoolean();
+    // Holds up the first connection taken once blocking, as if the flush were slow to apply
+    DataSource slow =
+        (DataSource)
+            Proxy.newProxyInstance(
+                DataSource.class.getClassLoader(),
+                new Class<?>[] {DataSource.class},
+                (proxy, method, args) -> {
+                  boolean connecting = method.getName().equals("getConnection");
+                  if (connecting && blocking.compareAndSet(true, false)) {
+                    entered.countDown();
+                    release.await();
+                  }
+                  return method.invoke(source, args);
+                });
+    configure(slow);
+    Database.getInstance().enableWriteBehind(100);
+    User user = User.getByID(3);
+    user.achieve(Achievement.getByID(0));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      blocking.set(true);
+      Future<Integer> flush = executor.submit(() -> Database.getInstance().flushWrites());
+      entered.await();
+      Future<?> read =
+          executor.submit(
+              () -> {
+                Database.getInstance().flushWrites(3L);
+                return null;
+              });
+
+      try {
+        read.get(200, TimeUnit.MILLISECONDS);
+        assertWithMessage("read finished before the flush holding its writes").fail();
+      } catch (TimeoutException e) {
+        // Still waiting for the flush, as it should be
+      }
+      release.countDown();
+      read.get();
+      assertThat(flush.get()).isEqualTo(1);
+      assertThat(count(Achievement.ACHIEVED_TABLE)).isEqualTo(5);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void counts_reread_whenRowsUnreported() throws Exception {
+    configure(withoutRowCounts(DataSource.class, source));
+    Database.getInstance().enableWriteBehind(100);
+    assertThat(Database.getInstance().getInterestCount(0)).isEqualTo(2);
+
+    // User 0 already has both, so only user 3's writes change anything
+    User.getByID(0).markInterestIn(Event.getByID(0));
+    User.getByID(0).achieve(Achievement.getByID(0));
+    User.getByID(3).markInterestIn(Event.getByID(0));
+    User.getByID(3).achieve(Achievement.getByID(0));
+    Database.getInstance().flushWrites();
+
+    assertThat(Database.getInstance().getInterestCount(0)).isEqualTo(3);
+    assertThat(Achievement.getByID(0).getCount()).isEqualTo(3);
+    assertThat(User.getByID(0).getScore()).isEqualTo(300);
+    assertThat(User.getByID(3).getScore()).isEqualTo(100);
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    DataTestFramework.cleanup();
+    Field instance = Database.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(null, null);
+  }
+}
@@ -44,7 +44,7 @@ public class Client {
 
     private string Get(string uri, bool includeSessionToken = true) {
         HttpWebRequest request = (HttpWebRequest)WebRequest.Create(uri + (includeSessionToken?"?" + sessionToken:""));
-        //request.AutomaticDecompression = DecompressionMethods.GZip | DecompressionMethods.Deflate;
+        request.AutomaticDecompression = DecompressionMethods.GZip | DecompressionMethods.Deflate;
 
         using (HttpWebResponse response = (HttpWebResponse)request.GetResponse())
         using (Stream stream = response.GetResponseStream())